@@ -32,6 +32,10 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    testOptions {
+        // Core and sim classes log through android.util.Log; let JVM tests run them against the stub jar
+        unitTests.isReturnDefaultValues = true
+    }
     packaging {
         jniLibs {
             useLegacyPackaging = false
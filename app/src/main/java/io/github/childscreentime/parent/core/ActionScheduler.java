@@ -0,0 +1,501 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Runs ScheduleRules for every child from one time-ordered queue.
+ *
+ * Each AT_TIME rule has a single queue entry for its next occurrence, and only the head of the
+ * queue is armed on the shared NetworkScheduler timer, so hundreds of rules cost one wakeup
+ * rather than a polling loop each. ON_EVENT rules have no entry; pushed ChildEvents are matched
+ * against them directly. Commands go out through the Dispatcher, i.e. the normal command path.
+ *
+ * Rules and their run state are written back as one checksummed snapshot after every change, so
+ * they survive restarts and reboots. A time the app was not running for is still run on load if
+ * it passed less than MISSED_GRACE_MS ago, so a late start still locks at bedtime. State is only
+ * touched on the scheduler thread; getRules() returns a snapshot.
+ */
+public class ActionScheduler {
+    
+    /**
+     * Sends a rule's command and resolves with the child's response
+     */
+    public interface Dispatcher {
+        CompletableFuture<String> dispatch(ScheduleRule rule);
+    }
+    
+    /**
+     * Told when the next due time changes, to arrange a wakeup while the process is gone;
+     * called on the scheduler thread
+     */
+    public interface Listener {
+        /**
+         * Wall-clock time of the next due rule, or Long.MAX_VALUE if none
+         */
+        void onNextWakeupChanged(long wakeAtMs);
+    }
+    
+    static final String FILE_NAME = "scheduled_rules.bin";
+    public static final long MISSED_GRACE_MS = 60 * 60 * 1000;
+    public static final int MAX_RULES = 256;
+    
+    private static final String TAG = "ActionScheduler";
+    private static final int MAGIC = 0x43535452; // "CSTR"
+    private static final int VERSION = 1;
+    // The timer's clock stops in deep sleep, so long waits are split up and re-checked
+    private static final long MAX_TIMER_DELAY_MS = 5 * 60 * 1000;
+    
+    private static ActionScheduler instance;
+    
+    /**
+     * A rule with its run state; dueAtMs only changes while the entry is out of the queue
+     */
+    private static final class Entry {
+        final ScheduleRule rule;
+        long dueAtMs = Long.MAX_VALUE;
+        long lastRunMs;
+        long runDay;
+        int runsOnDay;
+        
+        Entry(ScheduleRule rule, long lastRunMs) {
+            this.rule = rule;
+            this.lastRunMs = lastRunMs;
+        }
+    }
+    
+    private final File file;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService executor;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(11, Comparator.comparingLong(entry -> entry.dueAtMs));
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<List<ScheduleRule>> loaded = new CompletableFuture<>();
+    private volatile List<ScheduleRule> rules = Collections.emptyList();
+    private volatile Dispatcher dispatcher;
+    private volatile long nextWakeupMs = Long.MAX_VALUE;
+    private ScheduledFuture<?> wakeup;
+    private boolean loadStarted;
+    private boolean saveQueued;
+    
+    ActionScheduler(File file, ScheduledExecutorService timer) {
+        this.file = file;
+        this.timer = timer;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cst-action-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Shared scheduler; rules are user data, so pass the app's files directory
+     */
+    public static synchronized ActionScheduler getInstance(File filesDir) {
+        if (instance == null) {
+            instance = new ActionScheduler(new File(filesDir, FILE_NAME),
+                NetworkScheduler.getInstance().getTimer());
+        }
+        return instance;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Read the file in the background and queue every rule. Resolves with the rules once
+     * queued; later calls return the same future.
+     */
+    public synchronized CompletableFuture<List<ScheduleRule>> load() {
+        if (!loadStarted) {
+            loadStarted = true;
+            executor.execute(() -> {
+                long nowMs = System.currentTimeMillis();
+                for (Entry entry : read()) {
+                    entries.put(entry.rule.getId(), entry);
+                    enqueue(entry, nowMs);
+                }
+                publishRules();
+                Log.d(TAG, "Loaded " + entries.size() + " rule(s)");
+                loaded.complete(rules);
+            });
+        }
+        return loaded;
+    }
+    
+    /**
+     * Start running rules as they fall due, sending through the given dispatcher
+     */
+    public void start(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        submit(() -> {
+            // Anything that fell due while stopped runs now
+            fireDue(dispatcher);
+            arm();
+        });
+    }
+    
+    /**
+     * Stop the in-process wakeup; rules stay queued for the next start or runDue
+     */
+    public void stop() {
+        dispatcher = null;
+        submit(() -> {
+            if (wakeup != null) {
+                wakeup.cancel(false);
+                wakeup = null;
+            }
+        });
+    }
+    
+    /**
+     * Run every rule that is due, using the started dispatcher if there is one, otherwise the
+     * given one. Resolves once their commands have completed, successfully or not.
+     */
+    public CompletableFuture<Void> runDue(Dispatcher fallback) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        submit(() -> {
+            Dispatcher active = dispatcher;
+            CompletableFuture<Void> fired = fireDue(active != null ? active : fallback);
+            // Armed first so getNextWakeupMs is current once this resolves
+            arm();
+            fired.whenComplete((ignored, error) -> done.complete(null));
+        });
+        return done;
+    }
+    
+    public void addRule(ScheduleRule rule) {
+        if (rules.size() >= MAX_RULES) {
+            throw new IllegalStateException("At most " + MAX_RULES + " rules");
+        }
+        submit(() -> {
+            long nowMs = System.currentTimeMillis();
+            // A time already past today counts as handled, so a new rule never fires straight away
+            Entry entry = new Entry(rule, nowMs);
+            entries.put(rule.getId(), entry);
+            enqueue(entry, nowMs);
+            changed();
+            Log.d(TAG, "Added rule " + rule);
+        });
+    }
+    
+    public void removeRule(String ruleId) {
+        submit(() -> {
+            Entry entry = entries.remove(ruleId);
+            if (entry != null) {
+                queue.remove(entry);
+                changed();
+                Log.d(TAG, "Removed rule " + entry.rule);
+            }
+        });
+    }
+    
+    /**
+     * Every rule, in the order they were added
+     */
+    public List<ScheduleRule> getRules() {
+        return rules;
+    }
+    
+    public List<ScheduleRule> getRules(String deviceId) {
+        List<ScheduleRule> matching = new ArrayList<>();
+        for (ScheduleRule rule : rules) {
+            if (rule.getDeviceId().equals(deviceId.trim())) {
+                matching.add(rule);
+            }
+        }
+        return matching;
+    }
+    
+    /**
+     * Wall-clock time of the next due rule, or Long.MAX_VALUE if none
+     */
+    public long getNextWakeupMs() {
+        return nextWakeupMs;
+    }
+    
+    /**
+     * Run the ON_EVENT rules matching a pushed event
+     */
+    public void onChildEvent(ChildEvent event) {
+        Dispatcher active = dispatcher;
+        if (active == null || event.getSource() == null) {
+            return;
+        }
+        submit(() -> {
+            long nowMs = System.currentTimeMillis();
+            long today = epochDay(nowMs);
+            boolean ran = false;
+            for (Entry entry : entries.values()) {
+                ScheduleRule rule = entry.rule;
+                if (rule.getTrigger() != ScheduleRule.Trigger.ON_EVENT || rule.getEventType() != event.getType()
+                        || !rule.getDeviceId().equals(event.getSource().getDeviceId())) {
+                    continue;
+                }
+                if (entry.runDay != today) {
+                    entry.runDay = today;
+                    entry.runsOnDay = 0;
+                }
+                if (rule.getMaxRunsPerDay() != ScheduleRule.UNLIMITED && entry.runsOnDay >= rule.getMaxRunsPerDay()) {
+                    Log.d(TAG, "Rule already ran " + entry.runsOnDay + "x today: " + rule);
+                    continue;
+                }
+                entry.runsOnDay++;
+                entry.lastRunMs = nowMs;
+                dispatch(active, rule);
+                ran = true;
+            }
+            if (ran) {
+                save();
+            }
+        });
+    }
+    
+    private void submit(Runnable change) {
+        // Changes queue behind the initial read so they are never overwritten by it
+        load();
+        executor.execute(change);
+    }
+    
+    // Runs on the scheduler thread
+    private void enqueue(Entry entry, long nowMs) {
+        ScheduleRule rule = entry.rule;
+        if (rule.getTrigger() != ScheduleRule.Trigger.AT_TIME) {
+            return;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        long lastMs = rule.lastTimeAtOrBefore(nowMs, zone);
+        if (lastMs > entry.lastRunMs && nowMs - lastMs <= MISSED_GRACE_MS) {
+            entry.dueAtMs = lastMs;
+        } else {
+            entry.dueAtMs = rule.nextTimeAfter(nowMs, zone);
+        }
+        if (entry.dueAtMs != Long.MAX_VALUE) {
+            queue.add(entry);
+        }
+    }
+    
+    private CompletableFuture<Void> fireDue(Dispatcher target) {
+        List<CompletableFuture<String>> sent = new ArrayList<>();
+        long nowMs = System.currentTimeMillis();
+        while (target != null && !queue.isEmpty() && queue.peek().dueAtMs <= nowMs) {
+            Entry entry = queue.poll();
+            if (nowMs - entry.dueAtMs > MISSED_GRACE_MS) {
+                Log.w(TAG, "Skipping run missed by " + (nowMs - entry.dueAtMs) / 60000 + " min: " + entry.rule);
+            } else {
+                sent.add(dispatch(target, entry.rule));
+            }
+            entry.lastRunMs = nowMs;
+            enqueue(entry, nowMs);
+        }
+        if (!sent.isEmpty()) {
+            save();
+        }
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0]))
+            .handle((ignored, error) -> null);
+    }
+    
+    private CompletableFuture<String> dispatch(Dispatcher target, ScheduleRule rule) {
+        Log.d(TAG, "Running rule " + rule);
+        CompletableFuture<String> result;
+        try {
+            result = target.dispatch(rule);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        return result.whenComplete((response, error) -> {
+            if (error != null) {
+                Log.w(TAG, "Rule failed: " + rule + ": " + error.getMessage());
+            } else {
+                Log.d(TAG, "Rule done: " + rule + " -> " + response);
+            }
+        });
+    }
+    
+    /**
+     * Point the single timer at the head of the queue
+     */
+    private void arm() {
+        Entry head = queue.peek();
+        long dueAtMs = head != null ? head.dueAtMs : Long.MAX_VALUE;
+        if (wakeup != null) {
+            wakeup.cancel(false);
+            wakeup = null;
+        }
+        if (dispatcher != null && dueAtMs != Long.MAX_VALUE) {
+            long delayMs = Math.min(Math.max(0, dueAtMs - System.currentTimeMillis()), MAX_TIMER_DELAY_MS);
+            wakeup = timer.schedule(() -> executor.execute(() -> {
+                fireDue(dispatcher);
+                arm();
+            }), delayMs, TimeUnit.MILLISECONDS);
+        }
+        if (dueAtMs != nextWakeupMs) {
+            nextWakeupMs = dueAtMs;
+            for (Listener listener : listeners) {
+                listener.onNextWakeupChanged(dueAtMs);
+            }
+        }
+    }
+    
+    private void changed() {
+        publishRules();
+        arm();
+        save();
+    }
+    
+    private void publishRules() {
+        List<ScheduleRule> snapshot = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            snapshot.add(entry.rule);
+        }
+        rules = Collections.unmodifiableList(snapshot);
+    }
+    
+    private static long epochDay(long timeMs) {
+        return Instant.ofEpochMilli(timeMs).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+    
+    private void save() {
+        if (!saveQueued) {
+            saveQueued = true;
+            executor.execute(this::write);
+        }
+    }
+    
+    private List<Entry> read() {
+        List<Entry> read = new ArrayList<>();
+        if (!file.exists()) {
+            return read;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Unrecognised rule file format");
+            }
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Bad rule file length " + length);
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            if (checksum(body) != in.readInt()) {
+                throw new IOException("Checksum mismatch");
+            }
+            
+            DataInputStream records = new DataInputStream(new ByteArrayInputStream(body));
+            ScheduleRule.Trigger[] triggers = ScheduleRule.Trigger.values();
+            ChildEvent.Type[] eventTypes = ChildEvent.Type.values();
+            int count = records.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                String id = records.readUTF();
+                String deviceId = records.readUTF();
+                String command = records.readUTF();
+                int trigger = records.readUnsignedByte();
+                int minuteOfDay = records.readUnsignedShort();
+                int days = records.readUnsignedByte();
+                int eventType = records.readByte();
+                int maxRunsPerDay = records.readUnsignedByte();
+                if (trigger >= triggers.length || eventType >= eventTypes.length) {
+                    throw new IOException("Unknown trigger " + trigger + "/" + eventType);
+                }
+                ScheduleRule rule = new ScheduleRule(id, deviceId, command, triggers[trigger], minuteOfDay, days,
+                    eventType >= 0 ? eventTypes[eventType] : null, maxRunsPerDay);
+                Entry entry = new Entry(rule, records.readLong());
+                entry.runDay = records.readLong();
+                entry.runsOnDay = records.readUnsignedByte();
+                read.add(entry);
+            }
+        } catch (IOException e) {
+            // Keep the bad file for inspection instead of overwriting the user's rules silently
+            Log.e(TAG, "Failed to read rules, starting empty", e);
+            read.clear();
+            if (!file.renameTo(new File(file.getPath() + ".corrupt"))) {
+                file.delete();
+            }
+        }
+        return read;
+    }
+    
+    private void write() {
+        saveQueued = false;
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16 + entries.size() * 96);
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeShort(entries.size());
+            for (Entry entry : entries.values()) {
+                ScheduleRule rule = entry.rule;
+                out.writeUTF(rule.getId());
+                out.writeUTF(rule.getDeviceId());
+                out.writeUTF(rule.getCommand());
+                out.writeByte(rule.getTrigger().ordinal());
+                out.writeShort(rule.getMinuteOfDay());
+                out.writeByte(rule.getDays());
+                out.writeByte(rule.getEventType() != null ? rule.getEventType().ordinal() : -1);
+                out.writeByte(rule.getMaxRunsPerDay());
+                out.writeLong(entry.lastRunMs);
+                out.writeLong(entry.runDay);
+                out.writeByte(entry.runsOnDay);
+            }
+            byte[] bytes = body.toByteArray();
+            DataOutputStream header = new DataOutputStream(snapshot);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            header.writeInt(bytes.length);
+            header.write(bytes);
+            header.writeInt(checksum(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream does not throw
+        }
+        
+        // Write aside and rename so a crash leaves either the old snapshot or the new one
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                snapshot.writeTo(out);
+                out.getFD().sync();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write rules", e);
+        }
+    }
+    
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+}
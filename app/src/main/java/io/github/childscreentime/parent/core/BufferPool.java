@@ -0,0 +1,67 @@
+package io.github.childscreentime.parent.core;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of direct ByteBuffers for receive loops.
+ *
+ * A direct buffer lets the channel read a datagram without the hidden per-call copy it makes
+ * for heap buffers, but it is expensive to allocate and is only freed by the GC, so loops
+ * borrow one for their lifetime and hand it back instead of allocating per sweep or restart.
+ * Buffers beyond the retained limit are simply dropped on release.
+ */
+public final class BufferPool {
+    
+    // Largest UDP payload, so a pooled buffer never truncates a datagram
+    public static final int DATAGRAM_CAPACITY = 65507;
+    private static final int MAX_RETAINED = 4;
+    
+    private static final BufferPool DATAGRAMS = new BufferPool(DATAGRAM_CAPACITY, MAX_RETAINED);
+    
+    private final int capacity;
+    private final int maxRetained;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retained = new AtomicInteger();
+    
+    BufferPool(int capacity, int maxRetained) {
+        this.capacity = capacity;
+        this.maxRetained = maxRetained;
+    }
+    
+    /**
+     * Shared pool of datagram-sized receive buffers
+     */
+    public static BufferPool datagrams() {
+        return DATAGRAMS;
+    }
+    
+    /**
+     * Borrow a cleared buffer, allocating a new one only when the pool is empty
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        retained.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+    
+    /**
+     * Return a buffer; the caller must not touch it afterwards
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != capacity) {
+            return;
+        }
+        if (retained.incrementAndGet() > maxRetained) {
+            retained.decrementAndGet();
+            return;
+        }
+        free.add(buffer);
+    }
+}
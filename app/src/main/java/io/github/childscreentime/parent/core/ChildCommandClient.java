@@ -0,0 +1,265 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypts commands for a child, sends them over the shared CommandTransport and decrypts
+ * the reply, picking the wire format and cipher negotiated for each target.
+ */
+public class ChildCommandClient {
+    
+    /**
+     * Notified once per command with its outcome, on whichever thread completed it
+     */
+    public interface Listener {
+        void onCommandCompleted(CommandResult result);
+    }
+    
+    public static final String COMMAND_PREFIX = "CST_CMD:";
+    public static final String RESPONSE_PREFIX = "CST_RESP:";
+    private static final byte[] RESPONSE_PREFIX_BYTES = RESPONSE_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    
+    private static final String TAG = "ChildCommandClient";
+    // Children read each command datagram into a fixed 1 KiB buffer
+    private static final int MAX_REQUEST_DATAGRAM = 1024;
+    
+    private final CommandTransport transport;
+    private final int port;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    
+    public ChildCommandClient(CommandTransport transport) {
+        this(transport, DiscoveryEngine.DISCOVERY_PORT);
+    }
+    
+    /**
+     * Client for children listening on a non-default port
+     */
+    public ChildCommandClient(CommandTransport transport, int port) {
+        this.transport = transport;
+        this.port = port;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Send one command and resolve with the decrypted response text
+     */
+    public CompletableFuture<String> send(CommandTarget target, String command, long timeoutMs) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<String> result = sendEncrypted(target, command, timeoutMs);
+        if (!listeners.isEmpty()) {
+            result.whenComplete((response, error) -> notifyCompleted(new CommandResult(target, command, response,
+                unwrap(error), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))));
+        }
+        return result;
+    }
+    
+    private CompletableFuture<String> sendEncrypted(CommandTarget target, String command, long timeoutMs) {
+        MessageCipher encryptionManager;
+        CompletableFuture<byte[]> responseFuture;
+        try {
+            // Reuse the cached encryption manager for the target's device ID
+            encryptionManager = ParentEncryptionManager.forDevice(target.getDeviceId(), target.getCipherMode());
+            InetSocketAddress address = new InetSocketAddress(target.getAddress(), port);
+            
+            if (target.usesFrames()) {
+                // Raw ciphertext goes straight into the frame, no Base64 or text prefix
+                byte[] ciphertext = encryptionManager.encrypt(command.getBytes(StandardCharsets.UTF_8));
+                // Framed children deduplicate by correlation ID, so any command may be retransmitted
+                responseFuture = transport.sendFrame(address, WireFrame.TYPE_COMMAND, ciphertext, timeoutMs, true);
+            } else {
+                String message = COMMAND_PREFIX + encryptionManager.encryptMessage(command);
+                // Never retransmitted: legacy replies are matched in order, so a second answer to
+                // a resent command would be taken as the reply to the next one
+                responseFuture = transport.send(address, message.getBytes(StandardCharsets.UTF_8), timeoutMs);
+            }
+        } catch (RuntimeException e) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        
+        Log.d(TAG, "Sending command: " + command + " to " + target);
+        return cancelling(responseFuture.thenApply(responseBytes -> decodeResponse(encryptionManager, responseBytes)),
+            responseFuture);
+    }
+    
+    /**
+     * Run several commands on one child, in order, and resolve with their responses in the same
+     * order within timeoutMs overall. Version 2 children get one encrypted, possibly compressed
+     * batch frame and answer in a single round trip; older children get the commands one after
+     * another, stopping at the first failure. A command the child rejects still yields its
+     * ERROR response rather than failing the batch.
+     */
+    public CompletableFuture<List<String>> sendBatch(CommandTarget target, List<String> commands, long timeoutMs) {
+        if (target.getFrameVersion() < WireFrame.VERSION_2 || commands.size() == 1) {
+            return sendSequentially(target, commands, timeoutMs);
+        }
+        long startNanos = System.nanoTime();
+        CompletableFuture<List<String>> result = sendBatchFrame(target, commands, timeoutMs);
+        if (!listeners.isEmpty()) {
+            // History keeps one record per command, all with the batch's round trip
+            result.whenComplete((responses, error) -> {
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                for (int i = 0; i < commands.size(); i++) {
+                    notifyCompleted(new CommandResult(target, commands.get(i),
+                        responses != null ? responses.get(i) : null, unwrap(error), elapsedMs));
+                }
+            });
+        }
+        return result;
+    }
+    
+    private CompletableFuture<List<String>> sendBatchFrame(CommandTarget target, List<String> commands, long timeoutMs) {
+        MessageCipher encryptionManager;
+        CompletableFuture<byte[]> responseFuture;
+        try {
+            encryptionManager = ParentEncryptionManager.forDevice(target.getDeviceId(), target.getCipherMode());
+            byte[] ciphertext = encryptionManager.encrypt(CommandBatch.encode(commands));
+            if (WireFrame.HEADER_LENGTH + ciphertext.length > MAX_REQUEST_DATAGRAM) {
+                throw new IllegalArgumentException("Batch of " + commands.size() + " commands does not fit one datagram");
+            }
+            responseFuture = transport.sendFrame(new InetSocketAddress(target.getAddress(), port),
+                WireFrame.TYPE_BATCH, ciphertext, timeoutMs, true);
+        } catch (RuntimeException e) {
+            CompletableFuture<List<String>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        
+        Log.d(TAG, "Sending batch of " + commands.size() + " commands to " + target);
+        return cancelling(responseFuture.thenApply(
+            responseBytes -> decodeBatchResponse(encryptionManager, responseBytes, commands.size())), responseFuture);
+    }
+    
+    private CompletableFuture<List<String>> sendSequentially(CommandTarget target, List<String> commands, long timeoutMs) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        CompletableFuture<List<String>> chain = CompletableFuture.completedFuture(new ArrayList<>(commands.size()));
+        for (String command : commands) {
+            // A cancelled or failed chain never reaches the later commands
+            chain = chain.thenCompose(responses -> {
+                long remainingMs = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+                return send(target, command, remainingMs).thenApply(response -> {
+                    responses.add(response);
+                    return responses;
+                });
+            });
+        }
+        return chain;
+    }
+    
+    /**
+     * Cancelling the caller's future drops the pending request from the transport
+     */
+    private static <T> CompletableFuture<T> cancelling(CompletableFuture<T> decoded, CompletableFuture<byte[]> request) {
+        decoded.whenComplete((response, error) -> {
+            if (decoded.isCancelled()) {
+                request.cancel(false);
+            }
+        });
+        return decoded;
+    }
+    
+    private void notifyCompleted(CommandResult result) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onCommandCompleted(result);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Command listener failed", e);
+            }
+        }
+    }
+    
+    /**
+     * Strip the CompletionException wrapper added by dependent futures
+     */
+    public static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+    
+    private static String decodeResponse(MessageCipher encryptionManager, byte[] responseBytes) {
+        try {
+            if (WireFrame.isFrame(responseBytes, 0, responseBytes.length)) {
+                WireFrame frame = WireFrame.decode(responseBytes, 0, responseBytes.length);
+                Log.d(TAG, "Received framed response #" + frame.getCorrelationId()
+                    + " (" + frame.getPayloadLength() + " bytes)");
+                if (frame.getType() == WireFrame.TYPE_RESPONSE) {
+                    return encryptionManager.decryptText(
+                        frame.getBuffer(), frame.getPayloadOffset(), frame.getPayloadLength());
+                }
+            } else {
+                Log.d(TAG, "Received text response (" + responseBytes.length + " bytes)");
+                // Decode the Base64 straight from the datagram; only the plaintext becomes a String
+                if (startsWith(responseBytes, RESPONSE_PREFIX_BYTES)) {
+                    return encryptionManager.decryptMessage(responseBytes, RESPONSE_PREFIX_BYTES.length,
+                        responseBytes.length - RESPONSE_PREFIX_BYTES.length);
+                }
+            }
+            throw new ProtocolException("Unexpected response format");
+        } catch (ProtocolException e) {
+            TransportMetrics.getInstance().increment(TransportMetrics.Counter.UNEXPECTED_RESPONSES);
+            throw new CompletionException(e);
+        } catch (RuntimeException e) {
+            // Usually a wrong device ID; in GCM mode also a corrupted or forged reply
+            TransportMetrics.getInstance().increment(TransportMetrics.Counter.DECRYPT_FAILURES);
+            throw e;
+        }
+    }
+    
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static List<String> decodeBatchResponse(MessageCipher encryptionManager, byte[] responseBytes, int expected) {
+        try {
+            if (!WireFrame.isFrame(responseBytes, 0, responseBytes.length)) {
+                throw new ProtocolException("Unexpected response format");
+            }
+            WireFrame frame = WireFrame.decode(responseBytes, 0, responseBytes.length);
+            if (frame.getType() != WireFrame.TYPE_BATCH_RESPONSE) {
+                throw new ProtocolException("Expected a batch response, got frame type " + frame.getType());
+            }
+            Log.d(TAG, "Received batch response #" + frame.getCorrelationId()
+                + " (" + frame.getPayloadLength() + " bytes)");
+            byte[] plaintext = encryptionManager.decrypt(
+                frame.getBuffer(), frame.getPayloadOffset(), frame.getPayloadLength());
+            List<String> responses = CommandBatch.decode(plaintext, 0, plaintext.length);
+            if (responses.size() != expected) {
+                throw new ProtocolException("Batch answered " + responses.size() + " of " + expected + " commands");
+            }
+            return responses;
+        } catch (ProtocolException e) {
+            TransportMetrics.getInstance().increment(TransportMetrics.Counter.UNEXPECTED_RESPONSES);
+            throw new CompletionException(e);
+        } catch (RuntimeException e) {
+            TransportMetrics.getInstance().increment(TransportMetrics.Counter.DECRYPT_FAILURES);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.childscreentime.parent.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unsolicited status change pushed by a subscribed child, e.g. "TIME_EXHAUSTED|0|LOCKED|60".
+ *
+ * Events use the same remaining|status|total fields as a TIME_LEFT response; a child may omit
+ * them, in which case the numbers read as -1. On the wire an event is either a WireFrame of
+ * TYPE_EVENT or the legacy text form CST_EVENT:&lt;Base64 ciphertext&gt;.
+ */
+public final class ChildEvent {
+    
+    public static final String EVENT_PREFIX = "CST_EVENT:";
+    
+    private static final byte[] EVENT_PREFIX_BYTES = EVENT_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    
+    public enum Type {
+        TIME_EXHAUSTED,
+        LOCKED,
+        TIME_EXTENDED,
+        TIME_LEFT,
+        UNKNOWN
+    }
+    
+    private final CommandTarget source;
+    private final Type type;
+    private final long remainingMinutes;
+    private final String status;
+    private final long totalMinutes;
+    private final String raw;
+    private final long receivedAtMs;
+    
+    private ChildEvent(CommandTarget source, Type type, long remainingMinutes, String status,
+                       long totalMinutes, String raw, long receivedAtMs) {
+        this.source = source;
+        this.type = type;
+        this.remainingMinutes = remainingMinutes;
+        this.status = status;
+        this.totalMinutes = totalMinutes;
+        this.raw = raw;
+        this.receivedAtMs = receivedAtMs;
+    }
+    
+    /**
+     * Whether the datagram between the buffer's position and limit is an event rather than a
+     * reply to a pending command; checked in place without moving the position
+     */
+    public static boolean isEvent(ByteBuffer data) {
+        if (WireFrame.isFrame(data)) {
+            return WireFrame.peekType(data) == WireFrame.TYPE_EVENT;
+        }
+        if (data.remaining() < EVENT_PREFIX_BYTES.length) {
+            return false;
+        }
+        int offset = data.position();
+        for (int i = 0; i < EVENT_PREFIX_BYTES.length; i++) {
+            if (data.get(offset + i) != EVENT_PREFIX_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    static ChildEvent parse(CommandTarget source, String plaintext, long receivedAtMs) {
+        int bar = plaintext.indexOf('|');
+        String name = bar < 0 ? plaintext : plaintext.substring(0, bar);
+        Type type;
+        switch (name) {
+            case "TIME_EXHAUSTED":
+                type = Type.TIME_EXHAUSTED;
+                break;
+            case "LOCKED":
+            case "DEVICE_LOCKED":
+                type = Type.LOCKED;
+                break;
+            case "TIME_EXTENDED":
+                type = Type.TIME_EXTENDED;
+                break;
+            case "TIME_LEFT":
+                type = Type.TIME_LEFT;
+                break;
+            default:
+                type = Type.UNKNOWN;
+        }
+        
+        // Optional numbers share the TIME_LEFT layout, so reuse its parser
+        if (bar >= 0) {
+            ChildResponse fields = ChildResponse.parse("TIME_LEFT" + plaintext.substring(bar));
+            if (fields.getType() == ChildResponse.Type.TIME_LEFT) {
+                return new ChildEvent(source, type, fields.getRemainingMinutes(), fields.getStatus(),
+                    fields.getTotalMinutes(), plaintext, receivedAtMs);
+            }
+        }
+        return new ChildEvent(source, type, -1, null, -1, plaintext, receivedAtMs);
+    }
+    
+    /**
+     * The subscribed child that sent the event
+     */
+    public CommandTarget getSource() {
+        return source;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * Whether the event carries remaining|status|total fields
+     */
+    public boolean hasTimeLeft() {
+        return remainingMinutes >= 0;
+    }
+    
+    public long getRemainingMinutes() {
+        return remainingMinutes;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public long getTotalMinutes() {
+        return totalMinutes;
+    }
+    
+    /**
+     * The decrypted event text
+     */
+    public String getRaw() {
+        return raw;
+    }
+    
+    public long getReceivedAtMs() {
+        return receivedAtMs;
+    }
+}
@@ -0,0 +1,135 @@
+package io.github.childscreentime.parent.core;
+
+/**
+ * Typed view of a decrypted child response such as "TIME_LEFT|remaining|status|total".
+ * Fields are located with indexOf and numbers parsed in place, without regex splitting.
+ */
+public final class ChildResponse {
+    
+    public enum Type {
+        TIME_LEFT,
+        TIME_EXTENDED,
+        DEVICE_LOCKED,
+        SUBSCRIBED,
+        ERROR,
+        UNKNOWN
+    }
+    
+    private final Type type;
+    private final String raw;
+    private final String message;
+    private final long remainingMinutes;
+    private final String status;
+    private final long totalMinutes;
+    
+    private ChildResponse(Type type, String raw, String message, long remainingMinutes, String status, long totalMinutes) {
+        this.type = type;
+        this.raw = raw;
+        this.message = message;
+        this.remainingMinutes = remainingMinutes;
+        this.status = status;
+        this.totalMinutes = totalMinutes;
+    }
+    
+    public static ChildResponse parse(String response) {
+        int bar = response.indexOf('|');
+        if (bar < 0) {
+            return unknown(response);
+        }
+        
+        String body = response.substring(bar + 1);
+        if (response.startsWith("TIME_LEFT|")) {
+            return parseTimeLeft(response, bar + 1);
+        } else if (response.startsWith("TIME_EXTENDED|")) {
+            return new ChildResponse(Type.TIME_EXTENDED, response, body, -1, null, -1);
+        } else if (response.startsWith("DEVICE_LOCKED|")) {
+            Type type = body.startsWith("ERROR") ? Type.ERROR : Type.DEVICE_LOCKED;
+            return new ChildResponse(type, response, body, -1, null, -1);
+        } else if (response.startsWith("SUBSCRIBED|")) {
+            return new ChildResponse(Type.SUBSCRIBED, response, body, -1, null, -1);
+        } else if (response.startsWith("ERROR|")) {
+            return new ChildResponse(Type.ERROR, response, body, -1, null, -1);
+        }
+        return unknown(response);
+    }
+    
+    private static ChildResponse parseTimeLeft(String response, int start) {
+        int statusStart = response.indexOf('|', start) + 1;
+        if (statusStart == 0) {
+            return unknown(response);
+        }
+        int totalStart = response.indexOf('|', statusStart) + 1;
+        if (totalStart == 0) {
+            return unknown(response);
+        }
+        int totalEnd = response.indexOf('|', totalStart);
+        if (totalEnd < 0) {
+            totalEnd = response.length();
+        }
+        
+        long remaining = parseLong(response, start, statusStart - 1);
+        long total = parseLong(response, totalStart, totalEnd);
+        if (remaining == Long.MIN_VALUE || total == Long.MIN_VALUE) {
+            return unknown(response);
+        }
+        String status = response.substring(statusStart, totalStart - 1);
+        return new ChildResponse(Type.TIME_LEFT, response, null, remaining, status, total);
+    }
+    
+    /**
+     * Parse a signed decimal in s[start, end); returns Long.MIN_VALUE if malformed
+     */
+    static long parseLong(String s, int start, int end) {
+        if (start >= end) {
+            return Long.MIN_VALUE;
+        }
+        boolean negative = s.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 18) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+    
+    private static ChildResponse unknown(String response) {
+        return new ChildResponse(Type.UNKNOWN, response, response, -1, null, -1);
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * The original decrypted text
+     */
+    public String getRaw() {
+        return raw;
+    }
+    
+    /**
+     * Text after the type tag, for message-style responses
+     */
+    public String getMessage() {
+        return message;
+    }
+    
+    public long getRemainingMinutes() {
+        return remainingMinutes;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public long getTotalMinutes() {
+        return totalMinutes;
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.childscreentime.parent.core;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Several commands, or their responses, packed into one payload so a compound action costs a
+ * single encryption and a single round trip.
+ *
+ * Layout before encryption: flags(1) then the body, count(2) followed by length(2) and UTF-8
+ * text for each entry. With FLAG_DEFLATE the body is zlib-compressed; the sender only sets it
+ * when compression actually makes the body smaller. A child answers a TYPE_BATCH frame with a
+ * TYPE_BATCH_RESPONSE in the same layout, one response per command and in the same order.
+ */
+public final class CommandBatch {
+    
+    public static final int MAX_ENTRIES = 32;
+    
+    static final int FLAG_DEFLATE = 0x01;
+    // Shorter bodies rarely shrink enough to pay for the zlib header
+    static final int COMPRESS_THRESHOLD = 96;
+    // Bound on the inflated body, so a corrupt or hostile payload cannot exhaust memory
+    static final int MAX_BODY_LENGTH = 256 * 1024;
+    
+    private CommandBatch() {
+    }
+    
+    /**
+     * Pack entries into a batch payload, compressing the body when that makes it smaller
+     */
+    public static byte[] encode(List<String> entries) {
+        if (entries.isEmpty() || entries.size() > MAX_ENTRIES) {
+            throw new IllegalArgumentException("A batch holds 1 to " + MAX_ENTRIES + " entries, not " + entries.size());
+        }
+        List<byte[]> encoded = new ArrayList<>(entries.size());
+        int bodyLength = 2;
+        for (String entry : entries) {
+            byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("Batch entry too long: " + bytes.length + " bytes");
+            }
+            encoded.add(bytes);
+            bodyLength += 2 + bytes.length;
+        }
+        
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        body.putShort((short) encoded.size());
+        for (byte[] bytes : encoded) {
+            body.putShort((short) bytes.length);
+            body.put(bytes);
+        }
+        
+        byte[] plain = body.array();
+        if (plain.length >= COMPRESS_THRESHOLD) {
+            byte[] compressed = deflate(plain);
+            if (compressed.length < plain.length) {
+                return withFlags(FLAG_DEFLATE, compressed);
+            }
+        }
+        return withFlags(0, plain);
+    }
+    
+    /**
+     * Unpack a batch payload into its entries
+     */
+    public static List<String> decode(byte[] data, int offset, int length) throws ProtocolException {
+        if (length < 1) {
+            throw new ProtocolException("Empty batch");
+        }
+        int flags = data[offset] & 0xFF;
+        if ((flags & ~FLAG_DEFLATE) != 0) {
+            throw new ProtocolException("Unknown batch flags 0x" + Integer.toHexString(flags));
+        }
+        ByteBuffer body = (flags & FLAG_DEFLATE) != 0
+            ? ByteBuffer.wrap(inflate(data, offset + 1, length - 1))
+            : ByteBuffer.wrap(data, offset + 1, length - 1);
+        
+        if (body.remaining() < 2) {
+            throw new ProtocolException("Truncated batch");
+        }
+        int count = body.getShort() & 0xFFFF;
+        if (count == 0 || count > MAX_ENTRIES) {
+            throw new ProtocolException("Bad batch entry count " + count);
+        }
+        List<String> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (body.remaining() < 2) {
+                throw new ProtocolException("Truncated batch at entry " + i);
+            }
+            int entryLength = body.getShort() & 0xFFFF;
+            if (body.remaining() < entryLength) {
+                throw new ProtocolException("Truncated batch at entry " + i);
+            }
+            entries.add(new String(body.array(), body.arrayOffset() + body.position(), entryLength, StandardCharsets.UTF_8));
+            body.position(body.position() + entryLength);
+        }
+        return entries;
+    }
+    
+    private static byte[] withFlags(int flags, byte[] body) {
+        byte[] payload = new byte[1 + body.length];
+        payload[0] = (byte) flags;
+        System.arraycopy(body, 0, payload, 1, body.length);
+        return payload;
+    }
+    
+    private static byte[] deflate(byte[] plain) {
+        // Commands are short and sent one batch at a time; speed matters more than ratio
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length);
+            byte[] chunk = new byte[512];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    private static byte[] inflate(byte[] data, int offset, int length) throws ProtocolException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+            byte[] chunk = new byte[1024];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ProtocolException("Truncated compressed batch");
+                }
+                out.write(chunk, 0, inflated);
+                if (out.size() > MAX_BODY_LENGTH) {
+                    throw new ProtocolException("Compressed batch inflates beyond " + MAX_BODY_LENGTH + " bytes");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Corrupt compressed batch: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
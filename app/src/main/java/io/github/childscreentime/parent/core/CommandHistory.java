@@ -0,0 +1,554 @@
+package io.github.childscreentime.parent.core;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of every command sent to a child and its outcome.
+ *
+ * Records go into one segment file per UTC day, so a time-range query opens only the days it
+ * covers and streams them record by record through a Cursor. Appends are buffered on a writer
+ * thread and written with a single fsync once 8 KB accumulate or 5 seconds pass. Segments older
+ * than the retention period are deleted at startup.
+ */
+public class CommandHistory implements ChildCommandClient.Listener {
+    
+    static final String DIRECTORY_NAME = "history";
+    static final long BUCKET_MS = TimeUnit.DAYS.toMillis(1);
+    static final int RETENTION_DAYS = 180;
+    
+    private static final String TAG = "CommandHistory";
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAGIC = 0x43535448; // "CSTH"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 5;
+    private static final int FLUSH_BYTES = 8 * 1024;
+    private static final long FLUSH_DELAY_MS = 5000;
+    private static final int MAX_RECORD_LENGTH = 4096;
+    
+    private static CommandHistory instance;
+    
+    private final File directory;
+    private final ScheduledExecutorService writer;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long pendingBucket = -1;
+    private ScheduledFuture<?> scheduledFlush;
+    
+    CommandHistory(File directory) {
+        this.directory = directory;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cst-history");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.execute(this::prepareDirectory);
+    }
+    
+    public static synchronized CommandHistory getInstance(Context context) {
+        if (instance == null) {
+            instance = new CommandHistory(new File(context.getApplicationContext().getFilesDir(), DIRECTORY_NAME));
+        }
+        return instance;
+    }
+    
+    @Override
+    public void onCommandCompleted(CommandResult result) {
+        append(HistoryRecord.fromResult(result, System.currentTimeMillis()));
+    }
+    
+    public void append(HistoryRecord record) {
+        writer.execute(() -> appendOnWriter(record));
+    }
+    
+    /**
+     * Write everything buffered so far; resolves once it is on disk
+     */
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(this::flushOnWriter, writer);
+    }
+    
+    /**
+     * Stream the records with fromMs &lt;= time &lt;= toMs, oldest segment first. Includes
+     * everything appended before the call. Blocks on disk I/O, so call it off the UI thread
+     * and close the cursor when done.
+     */
+    public Cursor query(long fromMs, long toMs) {
+        flush().join();
+        return new Cursor(fromMs, toMs);
+    }
+    
+    public void forEach(long fromMs, long toMs, Consumer<HistoryRecord> action) {
+        try (Cursor cursor = query(fromMs, toMs)) {
+            while (cursor.hasNext()) {
+                action.accept(cursor.next());
+            }
+        }
+    }
+    
+    /**
+     * Total minutes successfully granted to a child with EXTEND_TIME in the range
+     */
+    public long sumExtensionMinutes(String deviceId, long fromMs, long toMs) {
+        long tag = HistoryRecord.deviceTag(deviceId);
+        long[] total = new long[1];
+        forEach(fromMs, toMs, record -> {
+            if (record.getDeviceTag() == tag && record.getKind() == HistoryRecord.Kind.EXTEND_TIME
+                    && record.getOutcome() == HistoryRecord.Outcome.OK) {
+                total[0] += record.getArgument();
+            }
+        });
+        return total[0];
+    }
+    
+    /**
+     * Feed every successful TIME_LEFT reading for a child in the range to the consumer, in order
+     */
+    public void forEachTimeLeft(String deviceId, long fromMs, long toMs, Consumer<HistoryRecord> action) {
+        long tag = HistoryRecord.deviceTag(deviceId);
+        forEach(fromMs, toMs, record -> {
+            if (record.getDeviceTag() == tag && record.getRemainingMinutes() >= 0
+                    && record.getOutcome() == HistoryRecord.Outcome.OK) {
+                action.accept(record);
+            }
+        });
+    }
+    
+    /**
+     * Plain-text summary of one child's commands in the range for the diagnostics screen.
+     * Blocks on disk I/O like query.
+     */
+    public String report(String deviceId, long fromMs, long toMs) {
+        long tag = HistoryRecord.deviceTag(deviceId);
+        long[] outcomes = new long[HistoryRecord.Outcome.values().length];
+        long[] extendedMinutes = new long[1];
+        long[] readings = new long[1];
+        HistoryRecord[] last = new HistoryRecord[1];
+        // One pass; the same tests as sumExtensionMinutes and forEachTimeLeft
+        forEach(fromMs, toMs, record -> {
+            if (record.getDeviceTag() != tag) {
+                return;
+            }
+            outcomes[record.getOutcome().ordinal()]++;
+            if (record.getOutcome() != HistoryRecord.Outcome.OK) {
+                return;
+            }
+            if (record.getKind() == HistoryRecord.Kind.EXTEND_TIME) {
+                extendedMinutes[0] += record.getArgument();
+            }
+            if (record.getRemainingMinutes() >= 0) {
+                readings[0]++;
+                last[0] = record;
+            }
+        });
+        
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "Command history over the last %d h%n",
+            TimeUnit.MILLISECONDS.toHours(toMs - fromMs)));
+        out.append(String.format(Locale.US, "  %-22s %d%n", "Succeeded", outcomes[HistoryRecord.Outcome.OK.ordinal()]));
+        out.append(String.format(Locale.US, "  %-22s %d%n", "Child errors", outcomes[HistoryRecord.Outcome.CHILD_ERROR.ordinal()]));
+        out.append(String.format(Locale.US, "  %-22s %d%n", "Failed", outcomes[HistoryRecord.Outcome.FAILED.ordinal()]));
+        out.append(String.format(Locale.US, "  %-22s %d%n", "Minutes extended", extendedMinutes[0]));
+        out.append(String.format(Locale.US, "  %-22s %d%n", "Time left readings", readings[0]));
+        if (last[0] != null) {
+            out.append(String.format(Locale.US, "  %-22s %d of %d min, %d min ago%n", "Last time left",
+                last[0].getRemainingMinutes(), last[0].getTotalMinutes(),
+                TimeUnit.MILLISECONDS.toMinutes(toMs - last[0].getTimeMs())));
+        }
+        return out.toString();
+    }
+    
+    // Writer thread from here on
+    
+    private void prepareDirectory() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Cannot create " + directory);
+            return;
+        }
+        long oldestKept = bucketOf(System.currentTimeMillis()) - RETENTION_DAYS;
+        long newest = -1;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            long bucket = parseBucket(file.getName());
+            if (bucket < 0) {
+                continue;
+            }
+            if (bucket < oldestKept) {
+                if (file.delete()) {
+                    Log.d(TAG, "Deleted expired history segment " + file.getName());
+                }
+            } else {
+                newest = Math.max(newest, bucket);
+            }
+        }
+        // Only the segment written last can end in a torn record
+        if (newest >= 0) {
+            repairTail(segmentFile(newest));
+        }
+    }
+    
+    private void appendOnWriter(HistoryRecord record) {
+        long bucket = bucketOf(record.getTimeMs());
+        if (bucket != pendingBucket && pending.size() > 0) {
+            flushOnWriter();
+        }
+        pendingBucket = bucket;
+        
+        byte[] body = encode(record, bucket * BUCKET_MS);
+        if (body.length > MAX_RECORD_LENGTH) {
+            Log.w(TAG, "Dropping oversized history record (" + body.length + " bytes)");
+            return;
+        }
+        try {
+            writeVarint(pending, body.length);
+            pending.write(body);
+            new DataOutputStream(pending).writeInt(checksum(body));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream does not throw
+        }
+        
+        if (pending.size() >= FLUSH_BYTES) {
+            flushOnWriter();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = writer.schedule(this::flushOnWriter, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void flushOnWriter() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.size() == 0) {
+            return;
+        }
+        File segment = segmentFile(pendingBucket);
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            if (segment.length() == 0) {
+                out.write(header());
+            }
+            pending.writeTo(out);
+            out.getFD().sync();
+        } catch (IOException e) {
+            // History is best effort; never let a full disk grow the buffer without bound
+            Log.e(TAG, "Failed to write history, dropping " + pending.size() + " bytes", e);
+        }
+        pending.reset();
+    }
+    
+    private void repairTail(File segment) {
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            if (!readHeader(in)) {
+                throw new IOException("Unrecognised history segment " + segment.getName());
+            }
+            validLength = HEADER_LENGTH;
+            while (true) {
+                int length = readVarint(in);
+                if (length < 0) {
+                    return; // Clean end of file
+                }
+                byte[] body = readBody(in, length);
+                if (body == null) {
+                    break;
+                }
+                validLength += varintSize(length) + length + 4;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "History segment " + segment.getName() + " unreadable: " + e.getMessage());
+        }
+        Log.w(TAG, "Truncating " + segment.getName() + " at " + validLength + " bytes");
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(validLength);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to repair " + segment.getName(), e);
+        }
+    }
+    
+    /**
+     * Streaming iterator over one time range; holds at most one open segment
+     */
+    public final class Cursor implements Iterator<HistoryRecord>, Closeable {
+        
+        private final long fromMs;
+        private final long toMs;
+        private final long lastBucket;
+        private long nextBucket;
+        private long segmentStartMs;
+        private DataInputStream in;
+        private HistoryRecord next;
+        
+        private Cursor(long fromMs, long toMs) {
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+            this.nextBucket = bucketOf(fromMs);
+            this.lastBucket = bucketOf(toMs);
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+        
+        @Override
+        public HistoryRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            HistoryRecord record = next;
+            next = null;
+            return record;
+        }
+        
+        @Override
+        public void close() {
+            closeSegment();
+            nextBucket = lastBucket + 1;
+        }
+        
+        private HistoryRecord advance() {
+            while (true) {
+                if (in == null && !openNextSegment()) {
+                    return null;
+                }
+                try {
+                    int length = readVarint(in);
+                    byte[] body = length < 0 ? null : readBody(in, length);
+                    if (body == null) {
+                        closeSegment();
+                        continue;
+                    }
+                    HistoryRecord record = decode(body, segmentStartMs);
+                    if (record.getTimeMs() >= fromMs && record.getTimeMs() <= toMs) {
+                        return record;
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Skipping rest of history segment: " + e.getMessage());
+                    closeSegment();
+                }
+            }
+        }
+        
+        private boolean openNextSegment() {
+            while (nextBucket <= lastBucket) {
+                long bucket = nextBucket++;
+                File segment = segmentFile(bucket);
+                if (!segment.isFile()) {
+                    continue;
+                }
+                try {
+                    DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+                    if (readHeader(stream)) {
+                        in = stream;
+                        segmentStartMs = bucket * BUCKET_MS;
+                        return true;
+                    }
+                    stream.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot open " + segment.getName() + ": " + e.getMessage());
+                }
+            }
+            return false;
+        }
+        
+        private void closeSegment() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing history segment", e);
+                }
+                in = null;
+            }
+        }
+    }
+    
+    private File segmentFile(long bucket) {
+        return new File(directory, SEGMENT_PREFIX + bucket + SEGMENT_SUFFIX);
+    }
+    
+    private static long parseBucket(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        long bucket = ChildResponse.parseLong(name, SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+        return bucket == Long.MIN_VALUE ? -1 : bucket;
+    }
+    
+    static long bucketOf(long timeMs) {
+        return Math.floorDiv(timeMs, BUCKET_MS);
+    }
+    
+    private static byte[] header() {
+        return new byte[] {
+            (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC, (byte) VERSION
+        };
+    }
+    
+    private static boolean readHeader(DataInputStream in) throws IOException {
+        try {
+            return in.readInt() == MAGIC && in.readUnsignedByte() == VERSION;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Body plus checksum, or null if the record is cut short or corrupt
+     */
+    private static byte[] readBody(DataInputStream in, int length) throws IOException {
+        if (length > MAX_RECORD_LENGTH) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        try {
+            in.readFully(body);
+            return in.readInt() == checksum(body) ? body : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+    
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+    
+    private static byte[] encode(HistoryRecord record, long segmentStartMs) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeVarint(out, record.getTimeMs() - segmentStartMs);
+            out.writeLong(record.getDeviceTag());
+            out.writeUTF(record.getAddress());
+            out.writeByte(record.getKind().ordinal());
+            writeSignedVarint(out, record.getArgument());
+            if (record.getKind() == HistoryRecord.Kind.OTHER) {
+                out.writeUTF(record.getCommandText());
+            }
+            out.writeByte(record.getOutcome().ordinal());
+            writeSignedVarint(out, record.getRemainingMinutes());
+            writeSignedVarint(out, record.getTotalMinutes());
+            out.writeUTF(record.getDetail() != null ? record.getDetail() : "");
+            writeVarint(out, record.getRoundTripMs());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static HistoryRecord decode(byte[] body, long segmentStartMs) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        long timeMs = segmentStartMs + readVarLong(in);
+        long deviceTag = in.readLong();
+        String address = in.readUTF();
+        HistoryRecord.Kind kind = enumAt(HistoryRecord.Kind.values(), in.readUnsignedByte());
+        long argument = readSignedVarint(in);
+        String command = kind == HistoryRecord.Kind.OTHER ? in.readUTF() : null;
+        HistoryRecord.Outcome outcome = enumAt(HistoryRecord.Outcome.values(), in.readUnsignedByte());
+        long remaining = readSignedVarint(in);
+        long total = readSignedVarint(in);
+        String detail = in.readUTF();
+        long roundTripMs = readVarLong(in);
+        return new HistoryRecord(timeMs, deviceTag, address, kind, argument, command, outcome,
+            remaining, total, detail.isEmpty() ? null : detail, roundTripMs);
+    }
+    
+    private static <E> E enumAt(E[] values, int ordinal) throws IOException {
+        if (ordinal >= values.length) {
+            throw new IOException("Unknown history code " + ordinal);
+        }
+        return values[ordinal];
+    }
+    
+    // LEB128 varints: seven bits per byte, high bit set on all but the last
+    
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    private static void writeSignedVarint(OutputStream out, long value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+    
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+    
+    private static long readSignedVarint(InputStream in) throws IOException {
+        long raw = readVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+    
+    /**
+     * Record length prefix, or -1 at a clean end of file
+     */
+    private static int readVarint(InputStream in) throws IOException {
+        in.mark(1);
+        if (in.read() < 0) {
+            return -1;
+        }
+        in.reset();
+        try {
+            long value = readVarLong(in);
+            return value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) value;
+        } catch (EOFException e) {
+            return Integer.MAX_VALUE; // Cut short: readBody rejects it as oversized
+        }
+    }
+    
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
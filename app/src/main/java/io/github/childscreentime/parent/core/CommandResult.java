@@ -0,0 +1,48 @@
+package io.github.childscreentime.parent.core;
+
+/**
+ * Outcome of one command to one child
+ */
+public final class CommandResult {
+    
+    private final CommandTarget target;
+    private final String command;
+    private final String response;
+    private final Throwable error;
+    private final long roundTripMs;
+    
+    CommandResult(CommandTarget target, String command, String response, Throwable error, long roundTripMs) {
+        this.target = target;
+        this.command = command;
+        this.response = response;
+        this.error = error;
+        this.roundTripMs = roundTripMs;
+    }
+    
+    public CommandTarget getTarget() {
+        return target;
+    }
+    
+    public String getCommand() {
+        return command;
+    }
+    
+    public boolean isSuccess() {
+        return error == null;
+    }
+    
+    /**
+     * Decrypted response text, or null if the command failed
+     */
+    public String getResponse() {
+        return response;
+    }
+    
+    public Throwable getError() {
+        return error;
+    }
+    
+    public long getRoundTripMs() {
+        return roundTripMs;
+    }
+}
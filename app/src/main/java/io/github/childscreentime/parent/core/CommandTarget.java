@@ -0,0 +1,55 @@
+package io.github.childscreentime.parent.core;
+
+/**
+ * Everything needed to address one child: where it is, its key, and the negotiated wire format
+ */
+public final class CommandTarget {
+    
+    private final String address;
+    private final String deviceId;
+    private final int frameVersion;
+    private final ParentEncryptionManager.CipherMode cipherMode;
+    
+    public CommandTarget(String address, String deviceId, int frameVersion, ParentEncryptionManager.CipherMode cipherMode) {
+        this.address = address;
+        this.deviceId = deviceId.trim();
+        this.frameVersion = frameVersion;
+        this.cipherMode = cipherMode;
+    }
+    
+    /**
+     * Target for a device ID at an address, using the capabilities discovery recorded for it if any
+     */
+    public static CommandTarget forAddress(String address, String deviceId, DeviceRegistry registry) {
+        DiscoveredDevice device = registry.findByAddress(address);
+        if (device == null) {
+            return new CommandTarget(address, deviceId, 0, ParentEncryptionManager.CipherMode.CBC);
+        }
+        return new CommandTarget(address, deviceId, device.getFrameVersion(), device.getCipherMode());
+    }
+    
+    public String getAddress() {
+        return address;
+    }
+    
+    public String getDeviceId() {
+        return deviceId;
+    }
+    
+    public int getFrameVersion() {
+        return frameVersion;
+    }
+    
+    public boolean usesFrames() {
+        return frameVersion >= WireFrame.VERSION_1;
+    }
+    
+    public ParentEncryptionManager.CipherMode getCipherMode() {
+        return cipherMode;
+    }
+    
+    @Override
+    public String toString() {
+        return address + (usesFrames() ? " (framed, " : " (legacy, ") + cipherMode + ")";
+    }
+}
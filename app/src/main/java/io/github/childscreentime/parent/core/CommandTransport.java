@@ -0,0 +1,469 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived UDP transport shared by all parent-to-child commands.
+ *
+ * One non-blocking DatagramChannel is serviced by a single selector thread that performs
+ * every send and receive. Each request is tagged with a correlation ID and resolves as a
+ * CompletableFuture, so commands to many devices can be in flight on the same socket.
+ * Framed replies are matched by the correlation ID in their header. Legacy text children
+ * do not echo it, so their responses go to the oldest outstanding legacy request for the
+ * sending address.
+ *
+ * Requests sent with retransmission enabled are resent with exponential backoff until a
+ * reply or the overall deadline, starting from a per-device timeout tracked by RttEstimator.
+ * Every retransmission is byte-identical to the original, repeating its correlation ID, so a
+ * framed child can recognise a duplicate and replay its earlier answer instead of running the
+ * command twice. Legacy requests are never retransmitted: their replies carry no ID, and a
+ * duplicate reply would complete the next request queued for the same address.
+ *
+ * A reply split into TYPE_FRAGMENT frames is reassembled per request and delivered as the
+ * original frame once complete; a retransmission prompts the child to resend any it lost.
+ *
+ * Datagrams land in a pooled direct buffer and are classified in place. Late duplicates and
+ * unsolicited datagrams are dropped without allocating; only a datagram that completes a request
+ * or carries an event is copied out, once, into an array sized to fit.
+ */
+public class CommandTransport implements Closeable {
+    
+    /**
+     * Receives pushed child events arriving on the command socket
+     */
+    public interface EventHandler {
+        void onEvent(InetSocketAddress source, byte[] data);
+    }
+    
+    private static final String TAG = "CommandTransport";
+    
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Thread selectorThread;
+    // Random start so IDs from a restarted parent do not collide with a child's duplicate cache
+    private final AtomicInteger nextCorrelationId = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+    private final Map<Integer, PendingCommand> pendingById = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, Queue<PendingCommand>> pendingByAddress = new ConcurrentHashMap<>();
+    private final Queue<PendingCommand> outbound = new ConcurrentLinkedQueue<>();
+    private final DelayQueue<PendingCommand> deadlines = new DelayQueue<>();
+    private final Map<InetSocketAddress, RttEstimator> estimators = new ConcurrentHashMap<>();
+    private final TransportMetrics metrics = TransportMetrics.getInstance();
+    private volatile EventHandler eventHandler;
+    private volatile boolean closed;
+    
+    public CommandTransport() throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(null);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        
+        selectorThread = new Thread(this::runSelectorLoop, "cst-command-transport");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+    
+    /**
+     * Queue a datagram for the target and resolve with the first response from that address.
+     * The future fails with SocketTimeoutException if nothing arrives within timeoutMs.
+     */
+    public CompletableFuture<byte[]> send(InetSocketAddress target, byte[] payload, long timeoutMs) {
+        return send(target, payload, timeoutMs, false);
+    }
+    
+    /**
+     * Like send, optionally retransmitting the same datagram until a response or the deadline.
+     * Only enable retransmission when running the command twice on the child is harmless and
+     * nothing else is queued for the address, since unframed replies are matched in order.
+     */
+    public CompletableFuture<byte[]> send(InetSocketAddress target, byte[] payload, long timeoutMs, boolean retransmit) {
+        PendingCommand command = new PendingCommand(nextCorrelationId.getAndIncrement(), target, payload,
+            false, retransmit, getRttEstimator(target), deviceMetrics(target), timeoutMs);
+        return enqueue(command);
+    }
+    
+    /**
+     * Wrap the payload in a WireFrame carrying a fresh correlation ID and send it.
+     * The future resolves with the raw response frame whose header echoes that ID.
+     */
+    public CompletableFuture<byte[]> sendFrame(InetSocketAddress target, byte type, byte[] payload, long timeoutMs) {
+        return sendFrame(target, type, payload, timeoutMs, false);
+    }
+    
+    /**
+     * Like sendFrame, optionally retransmitting the frame under the same correlation ID
+     */
+    public CompletableFuture<byte[]> sendFrame(InetSocketAddress target, byte type, byte[] payload,
+                                               long timeoutMs, boolean retransmit) {
+        int correlationId = nextCorrelationId.getAndIncrement();
+        byte[] frame = WireFrame.encode(type, correlationId, payload);
+        return enqueue(new PendingCommand(correlationId, target, frame,
+            true, retransmit, getRttEstimator(target), deviceMetrics(target), timeoutMs));
+    }
+    
+    /**
+     * Route unsolicited events (see ChildEvent) to the handler; it runs on the selector thread
+     */
+    public void setEventHandler(EventHandler handler) {
+        this.eventHandler = handler;
+    }
+    
+    /**
+     * Local address children should push events to; commands are sent from the same socket
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+    
+    /**
+     * Round-trip statistics for a device, created on first use
+     */
+    public RttEstimator getRttEstimator(InetSocketAddress target) {
+        return estimators.computeIfAbsent(target, key -> new RttEstimator());
+    }
+    
+    private TransportMetrics.DeviceMetrics deviceMetrics(InetSocketAddress target) {
+        return metrics.device(target.getAddress() != null ? target.getAddress().getHostAddress() : target.getHostString());
+    }
+    
+    private CompletableFuture<byte[]> enqueue(PendingCommand command) {
+        if (closed) {
+            command.future.completeExceptionally(new ClosedChannelException());
+            return command.future;
+        }
+        
+        // Register before the datagram leaves so a fast reply can never miss its request
+        pendingById.put(command.correlationId, command);
+        if (!command.framed) {
+            queueFor(command.target).add(command);
+        }
+        deadlines.add(command);
+        command.future.whenComplete((response, error) -> forget(command));
+        
+        outbound.add(command);
+        selector.wakeup();
+        return command.future;
+    }
+    
+    /**
+     * Number of commands still waiting for a response
+     */
+    public int getPendingCount() {
+        return pendingById.size();
+    }
+    
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing command channel", e);
+        }
+    }
+    
+    private Queue<PendingCommand> queueFor(InetSocketAddress address) {
+        return pendingByAddress.computeIfAbsent(address, key -> new ConcurrentLinkedQueue<>());
+    }
+    
+    private void forget(PendingCommand command) {
+        pendingById.remove(command.correlationId);
+        deadlines.remove(command);
+        Queue<PendingCommand> queue = pendingByAddress.get(command.target);
+        if (queue != null) {
+            queue.remove(command);
+        }
+    }
+    
+    private void runSelectorLoop() {
+        BufferPool pool = BufferPool.datagrams();
+        ByteBuffer receiveBuffer = pool.acquire();
+        
+        while (!closed) {
+            try {
+                selector.select(nextSelectTimeout());
+                if (closed) {
+                    break;
+                }
+                selector.selectedKeys().clear();
+                
+                flushOutbound();
+                
+                SocketAddress source;
+                while ((source = channel.receive(receiveBuffer)) != null) {
+                    receiveBuffer.flip();
+                    metrics.increment(TransportMetrics.Counter.PACKETS_RECEIVED);
+                    dispatchResponse((InetSocketAddress) source, receiveBuffer);
+                    receiveBuffer.clear();
+                }
+                
+                expireTimedOut();
+            } catch (ClosedChannelException | ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                Log.e(TAG, "Selector loop error", e);
+            }
+        }
+        
+        pool.release(receiveBuffer);
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing selector", e);
+        }
+        failAllPending();
+        Log.d(TAG, "Command transport stopped");
+    }
+    
+    private long nextSelectTimeout() {
+        PendingCommand next = deadlines.peek();
+        if (next == null) {
+            return 0; // Block until a send or a datagram wakes us up
+        }
+        return Math.max(1, next.getDelay(TimeUnit.MILLISECONDS));
+    }
+    
+    private void flushOutbound() {
+        PendingCommand command;
+        while ((command = outbound.poll()) != null) {
+            if (!command.future.isDone()) {
+                transmit(command);
+            }
+        }
+    }
+    
+    private void transmit(PendingCommand command) {
+        try {
+            int sent = channel.send(ByteBuffer.wrap(command.payload), command.target);
+            if (sent == 0) {
+                // A retransmission can wait for its next timer; a first send has nothing to fall back on
+                if (command.attempts == 0) {
+                    command.future.completeExceptionally(new IOException("Send buffer full"));
+                }
+                return;
+            }
+            if (command.attempts == 0) {
+                command.firstSentNanos = System.nanoTime();
+            }
+            command.attempts++;
+            metrics.increment(TransportMetrics.Counter.PACKETS_SENT);
+            if (command.attempts > 1) {
+                metrics.increment(TransportMetrics.Counter.RETRANSMISSIONS);
+            }
+            command.stats.recordTransmission(command.attempts);
+            Log.d(TAG, "Sent command #" + command.correlationId + " to " + command.target
+                + (command.attempts > 1 ? " (attempt " + command.attempts + ")" : ""));
+        } catch (IOException e) {
+            command.future.completeExceptionally(e);
+        }
+    }
+    
+    /**
+     * Route the datagram between the buffer's position and limit; the buffer is reused afterwards
+     */
+    private void dispatchResponse(InetSocketAddress source, ByteBuffer data) {
+        // Check events first: a legacy event must never be taken as the reply to a pending command
+        if (ChildEvent.isEvent(data)) {
+            EventHandler handler = eventHandler;
+            if (handler == null) {
+                Log.d(TAG, "Dropping event from " + source + " with no handler");
+                return;
+            }
+            try {
+                handler.onEvent(source, copyOf(data));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Event handler failed for " + source, e);
+            }
+            return;
+        }
+        
+        if (WireFrame.isFrame(data)) {
+            int correlationId = WireFrame.peekCorrelationId(data);
+            PendingCommand command = pendingById.get(correlationId);
+            if (command == null || !command.target.equals(source)) {
+                // Usually the late twin of a retransmitted request that was already answered
+                metrics.increment(TransportMetrics.Counter.UNEXPECTED_RESPONSES);
+                Log.d(TAG, "Dropping frame #" + correlationId + " from " + source + " with no matching request");
+                return;
+            }
+            if (WireFrame.peekType(data) == WireFrame.TYPE_FRAGMENT) {
+                byte[] frame = reassemble(command, data);
+                if (frame != null) {
+                    complete(command, frame);
+                }
+                return; // Otherwise wait for the remaining fragments
+            }
+            complete(command, copyOf(data));
+            return;
+        }
+        
+        Queue<PendingCommand> queue = pendingByAddress.get(source);
+        PendingCommand command = null;
+        if (queue != null) {
+            // Skip requests that already timed out; they are removed asynchronously
+            do {
+                command = queue.poll();
+            } while (command != null && command.future.isDone());
+        }
+        
+        if (command == null) {
+            metrics.increment(TransportMetrics.Counter.UNEXPECTED_RESPONSES);
+            Log.d(TAG, "Dropping unsolicited datagram from " + source);
+            return;
+        }
+        Log.d(TAG, "Response for command #" + command.correlationId + " from " + source);
+        complete(command, copyOf(data));
+    }
+    
+    /**
+     * Copy the datagram out of the receive buffer, consuming it
+     */
+    private static byte[] copyOf(ByteBuffer data) {
+        byte[] copy = new byte[data.remaining()];
+        data.get(copy);
+        return copy;
+    }
+    
+    /**
+     * Add a fragment to the command's reply; returns the whole reply frame once all have arrived
+     */
+    private byte[] reassemble(PendingCommand command, ByteBuffer data) {
+        if (command.fragments == null) {
+            command.fragments = new FragmentAssembler();
+        }
+        try {
+            byte[] frame = command.fragments.add(data);
+            Log.d(TAG, "Fragment " + command.fragments.getReceived() + "/" + command.fragments.getExpected()
+                + " for command #" + command.correlationId);
+            return frame;
+        } catch (ProtocolException e) {
+            metrics.increment(TransportMetrics.Counter.UNEXPECTED_RESPONSES);
+            command.future.completeExceptionally(e);
+            return null;
+        }
+    }
+    
+    private void complete(PendingCommand command, byte[] data) {
+        long elapsedNanos = System.nanoTime() - command.firstSentNanos;
+        if (!command.future.complete(data)) {
+            return;
+        }
+        // The histogram shows what the user waited, retransmissions included
+        command.stats.recordReply(elapsedNanos);
+        // Karn's rule: a reply to a retransmitted request cannot be attributed to one send
+        if (command.attempts == 1) {
+            command.rtt.addSample(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
+    }
+    
+    private void expireTimedOut() {
+        PendingCommand command;
+        while ((command = deadlines.poll()) != null) {
+            if (command.future.isDone()) {
+                continue;
+            }
+            long now = System.nanoTime();
+            if (now - command.deadlineNanos >= 0 || !command.retransmit) {
+                if (command.future.completeExceptionally(new SocketTimeoutException("Receive timed out"))) {
+                    metrics.increment(TransportMetrics.Counter.TIMEOUTS);
+                    command.stats.recordTimeout();
+                    Log.d(TAG, "Command #" + command.correlationId + " to " + command.target
+                        + " timed out after " + command.attempts + " attempt(s)");
+                }
+                continue;
+            }
+            
+            // Retransmission timer fired: resend and back off; polling removed it, so rescheduling is safe
+            transmit(command);
+            command.scheduleRetransmit(now);
+            deadlines.add(command);
+        }
+    }
+    
+    private void failAllPending() {
+        for (PendingCommand command : pendingById.values()) {
+            command.future.completeExceptionally(new ClosedChannelException());
+        }
+        outbound.clear();
+        deadlines.clear();
+    }
+    
+    /**
+     * A request waiting for its response, next retransmission or deadline
+     */
+    private static final class PendingCommand implements Delayed {
+        final int correlationId;
+        final InetSocketAddress target;
+        final byte[] payload;
+        final boolean framed;
+        final boolean retransmit;
+        final RttEstimator rtt;
+        final TransportMetrics.DeviceMetrics stats;
+        final long deadlineNanos;
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        
+        // Selector-thread state; wakeNanos only changes while the command is out of the DelayQueue
+        int attempts;
+        long firstSentNanos;
+        long wakeNanos;
+        FragmentAssembler fragments;
+        
+        PendingCommand(int correlationId, InetSocketAddress target, byte[] payload, boolean framed,
+                       boolean retransmit, RttEstimator rtt, TransportMetrics.DeviceMetrics stats, long timeoutMs) {
+            this.correlationId = correlationId;
+            this.target = target;
+            this.payload = payload;
+            this.framed = framed;
+            this.retransmit = retransmit;
+            this.rtt = rtt;
+            this.stats = stats;
+            long now = System.nanoTime();
+            this.deadlineNanos = now + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            this.wakeNanos = deadlineNanos;
+            if (retransmit) {
+                scheduleRetransmit(now);
+            }
+        }
+        
+        void scheduleRetransmit(long now) {
+            long rtoNanos = TimeUnit.MILLISECONDS.toNanos(rtt.getBackoffRtoMs(Math.max(0, attempts - 1)));
+            wakeNanos = deadlineNanos - (now + rtoNanos) < 0 ? deadlineNanos : now + rtoNanos;
+        }
+        
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(wakeNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(wakeNanos, ((PendingCommand) other).wakeNanos);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.childscreentime.parent.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authenticated identity carried by extended discovery replies.
+ *
+ * A child that knows its Device ID advertises FP=fingerprint and ends its reply with MAC=tag,
+ * an HMAC-SHA256 over everything before "|MAC=". Both are keyed by the PBKDF2 key commands are
+ * encrypted with (ParentEncryptionManager's GCM key), so testing a guessed Device ID against a
+ * captured reply costs a full key derivation. The fingerprint lets the parent pick the
+ * candidate among its paired devices without trying every key; the tag proves the child knows
+ * that Device ID. The signed text includes the NONCE= of the probe being answered, which
+ * DiscoveryEngine checks against the probes it recently sent, so an old reply cannot be replayed.
+ */
+public final class DeviceIdentity {
+    
+    public static final int FINGERPRINT_BYTES = 8;
+    public static final int MAC_BYTES = 16;
+    
+    public static final int NONCE_BYTES = 8;
+    
+    private static final byte[] FINGERPRINT_LABEL = "CST-FP-v2".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MAC_LABEL = "CST-DISCOVERY-v2".getBytes(StandardCharsets.UTF_8);
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    // Mac.getInstance is a provider lookup; do it once per thread, as for ciphers
+    private static final ThreadLocal<Mac> HMAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 unavailable", e);
+            }
+        }
+    };
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
+    private DeviceIdentity() {
+    }
+    
+    /**
+     * Public fingerprint of a Device ID, as hex
+     */
+    public static String fingerprint(String deviceId) {
+        return toHex(hmac(stretchedKey(deviceId), FINGERPRINT_LABEL), FINGERPRINT_BYTES);
+    }
+    
+    /**
+     * Fresh random value for one discovery probe, as hex
+     */
+    public static String newNonce() {
+        byte[] nonce = new byte[NONCE_BYTES];
+        RANDOM.nextBytes(nonce);
+        return toHex(nonce, NONCE_BYTES);
+    }
+    
+    /**
+     * Tag a child appends to its discovery reply, as hex
+     */
+    public static String sign(String deviceId, String signedText) {
+        return toHex(mac(deviceId, signedText), MAC_BYTES);
+    }
+    
+    /**
+     * Whether the hex tag was produced over signedText with the key for this Device ID
+     */
+    public static boolean verify(String deviceId, String signedText, String tag) {
+        byte[] expected = toHex(mac(deviceId, signedText), MAC_BYTES).getBytes(StandardCharsets.US_ASCII);
+        // Constant time, so a forger learns nothing from how quickly a guess is rejected
+        return MessageDigest.isEqual(expected, tag.toLowerCase().getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    private static byte[] mac(String deviceId, String signedText) {
+        byte[] key = hmac(stretchedKey(deviceId), MAC_LABEL);
+        return hmac(key, signedText.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * The child's PBKDF2 key, derived once per device and cached with its encryption manager
+     */
+    private static byte[] stretchedKey(String deviceId) {
+        return ParentEncryptionManager.forDevice(deviceId.trim(), ParentEncryptionManager.CipherMode.GCM).getKeyBytes();
+    }
+    
+    private static byte[] hmac(byte[] key, byte[] data) {
+        try {
+            Mac hmac = HMAC.get();
+            hmac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return hmac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Discovery MAC failed", e);
+        }
+    }
+    
+    private static String toHex(byte[] bytes, int length) {
+        char[] hex = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >>> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide registry of child devices found by discovery.
+ *
+ * Entries are updated incrementally: repeat sightings only refresh the last-seen time,
+ * a known device answering from a new IP is reported as an address change, and entries
+ * not seen within the TTL are evicted. Listeners receive only these diffs.
+ *
+ * Entries restored from the DiscoveryCache are listed straight away but marked as cached. The
+ * first live reply clears the mark; if none arrives, the usual TTL eviction removes them.
+ */
+public class DeviceRegistry {
+    
+    private static final String TAG = "DeviceRegistry";
+    private static final DeviceRegistry INSTANCE = new DeviceRegistry();
+    
+    /**
+     * Receives incremental registry changes; called on the discovery thread
+     */
+    public interface Listener {
+        void onDeviceAdded(DiscoveredDevice device);
+        
+        void onDeviceAddressChanged(DiscoveredDevice device, String previousAddress);
+        
+        void onDeviceRemoved(DiscoveredDevice device);
+        
+        /**
+         * A cached entry answered again from the same address
+         */
+        void onDeviceRevalidated(DiscoveredDevice device);
+    }
+    
+    private final Map<String, DiscoveredDevice> devices = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    
+    public static DeviceRegistry getInstance() {
+        return INSTANCE;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Record a discovery reply. Returns the updated entry.
+     */
+    public DiscoveredDevice record(String address, DiscoveryResponse response, long nowMs) {
+        String key = response.getInstanceId() != null ? "id:" + response.getInstanceId() : "ip:" + address;
+        DiscoveredDevice[] previous = new DiscoveredDevice[1];
+        
+        DiscoveredDevice updated = devices.compute(key, (k, existing) -> {
+            previous[0] = existing;
+            if (existing == null) {
+                return new DiscoveredDevice(k, address, null, response, nowMs, nowMs);
+            }
+            String previousAddress = existing.getAddress().equals(address)
+                ? existing.getPreviousAddress()
+                : existing.getAddress();
+            return new DiscoveredDevice(k, address, previousAddress, response, existing.getFirstSeenMs(), nowMs);
+        });
+        
+        DiscoveredDevice old = previous[0];
+        if (old == null) {
+            Log.d(TAG, "Device added: " + key + " at " + address);
+            for (Listener listener : listeners) {
+                listener.onDeviceAdded(updated);
+            }
+        } else if (!old.getAddress().equals(address)) {
+            Log.d(TAG, "Device " + key + " moved from " + old.getAddress() + " to " + address);
+            for (Listener listener : listeners) {
+                listener.onDeviceAddressChanged(updated, old.getAddress());
+            }
+        } else if (old.isCached()) {
+            Log.d(TAG, "Cached device " + key + " confirmed at " + address);
+            for (Listener listener : listeners) {
+                listener.onDeviceRevalidated(updated);
+            }
+        }
+        return updated;
+    }
+    
+    /**
+     * Add a cached entry from an earlier run unless discovery already knows the device.
+     * Returns false if it was already present.
+     */
+    boolean restore(DiscoveredDevice device) {
+        if (devices.putIfAbsent(device.getKey(), device) != null) {
+            return false;
+        }
+        Log.d(TAG, "Device restored from cache: " + device.getKey() + " at " + device.getAddress());
+        for (Listener listener : listeners) {
+            listener.onDeviceAdded(device);
+        }
+        return true;
+    }
+    
+    /**
+     * Remove every device last seen before the cutoff and notify listeners
+     */
+    public List<DiscoveredDevice> evictOlderThan(long cutoffMs) {
+        List<DiscoveredDevice> evicted = new ArrayList<>();
+        for (DiscoveredDevice device : devices.values()) {
+            if (device.getLastSeenMs() < cutoffMs && devices.remove(device.getKey(), device)) {
+                evicted.add(device);
+            }
+        }
+        for (DiscoveredDevice device : evicted) {
+            Log.d(TAG, "Device evicted after TTL: " + device.getKey() + " at " + device.getAddress());
+            for (Listener listener : listeners) {
+                listener.onDeviceRemoved(device);
+            }
+        }
+        return evicted;
+    }
+    
+    /**
+     * Find the current entry for an IP address, or null
+     */
+    public DiscoveredDevice findByAddress(String address) {
+        for (DiscoveredDevice device : devices.values()) {
+            if (device.getAddress().equals(address)) {
+                return device;
+            }
+        }
+        return null;
+    }
+    
+    public Collection<DiscoveredDevice> getDevices() {
+        return Collections.unmodifiableCollection(devices.values());
+    }
+    
+    public int size() {
+        return devices.size();
+    }
+}
@@ -0,0 +1,469 @@
+package io.github.childscreentime.parent.core;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of paired children: Device IDs, last-known addresses, negotiated
+ * capabilities and cached derived keys.
+ *
+ * The file is an append-only log of checksummed records, so each change writes only its own
+ * record and a torn final write is detected and dropped on the next load. A bad record with
+ * more records after it is damage rather than a torn write: it is skipped, the file kept aside
+ * and the log rewritten from what still reads. Changes queued close together share one write
+ * and fsync. Once the log is mostly superseded records it is rewritten as a snapshot. All file
+ * I/O happens on one background thread; reads hit the in-memory cache and see a change once
+ * that thread has applied it.
+ */
+public class DeviceStore {
+    
+    static final String FILE_NAME = "paired_devices.bin";
+    
+    private static final String TAG = "DeviceStore";
+    private static final int MAGIC = 0x43535444; // "CSTD"
+    private static final int VERSION = 1;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_SELECT = 3;
+    private static final int MAX_RECORD_LENGTH = 0xFFFF;
+    // Compact when the log holds this many times more records than live entries
+    private static final int COMPACT_RATIO = 4;
+    private static final int COMPACT_MIN_RECORDS = 64;
+    
+    private static DeviceStore instance;
+    
+    private final File file;
+    private final ExecutorService executor;
+    private final Map<String, PairedDevice> devices = new ConcurrentHashMap<>();
+    private final ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+    private final CompletableFuture<List<PairedDevice>> loaded = new CompletableFuture<>();
+    private volatile String selectedDeviceId;
+    private boolean loadStarted;
+    private boolean flushQueued;
+    private int recordCount;
+    
+    DeviceStore(File file) {
+        this.file = file;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cst-device-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Shared store in the app's no-backup directory, since it holds key material
+     */
+    public static synchronized DeviceStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeviceStore(new File(context.getApplicationContext().getNoBackupFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+    
+    /**
+     * Read the file in the background. Resolves with every paired device once the cache is
+     * filled and cached keys are installed; later calls return the same future.
+     */
+    public synchronized CompletableFuture<List<PairedDevice>> load() {
+        if (!loadStarted) {
+            loadStarted = true;
+            executor.execute(() -> {
+                try {
+                    readLog();
+                } catch (IOException e) {
+                    // Set the unreadable file aside so new records do not land after garbage
+                    Log.e(TAG, "Failed to read device store, starting empty", e);
+                    devices.clear();
+                    selectedDeviceId = null;
+                    recordCount = 0;
+                    if (!file.renameTo(new File(file.getPath() + ".corrupt"))) {
+                        file.delete();
+                    }
+                }
+                for (PairedDevice device : devices.values()) {
+                    if (device.getDerivedKey() != null) {
+                        ParentEncryptionManager.restoreKey(device.getDeviceId(), device.getCipherMode(), device.getDerivedKey());
+                    }
+                }
+                loaded.complete(getDevices());
+            });
+        }
+        return loaded;
+    }
+    
+    public List<PairedDevice> getDevices() {
+        return new ArrayList<>(devices.values());
+    }
+    
+    public PairedDevice get(String deviceId) {
+        return devices.get(deviceId.trim());
+    }
+    
+    public PairedDevice findByAddress(String address) {
+        for (PairedDevice device : devices.values()) {
+            if (device.getAddress().equals(address)) {
+                return device;
+            }
+        }
+        return null;
+    }
+    
+    public PairedDevice findByRegistryKey(String registryKey) {
+        for (PairedDevice device : devices.values()) {
+            if (registryKey.equals(device.getRegistryKey())) {
+                return device;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Find the paired device whose Device ID has this discovery fingerprint, or null
+     */
+    public PairedDevice findByFingerprint(String fingerprint) {
+        for (PairedDevice device : devices.values()) {
+            if (fingerprint.equals(DeviceIdentity.fingerprint(device.getDeviceId()))) {
+                return device;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Device ID the user last selected, or null
+     */
+    public String getSelectedDeviceId() {
+        return selectedDeviceId;
+    }
+    
+    /**
+     * Add or update a device. Writes nothing if only its last-seen time changed.
+     */
+    public void put(PairedDevice device) {
+        submit(() -> {
+            PairedDevice previous = devices.put(device.getDeviceId(), device);
+            if (!device.hasSameState(previous)) {
+                appendRecord(OP_PUT, encodeDevice(device));
+            }
+        });
+    }
+    
+    public void remove(String deviceId) {
+        submit(() -> {
+            String id = deviceId.trim();
+            if (devices.remove(id) != null) {
+                appendRecord(OP_REMOVE, encodeString(id));
+            }
+            if (id.equals(selectedDeviceId)) {
+                selectedDeviceId = null;
+                appendRecord(OP_SELECT, encodeString(""));
+            }
+        });
+    }
+    
+    public void setSelected(String deviceId) {
+        submit(() -> {
+            String id = deviceId != null ? deviceId.trim() : "";
+            if (!id.equals(selectedDeviceId == null ? "" : selectedDeviceId)) {
+                selectedDeviceId = id.isEmpty() ? null : id;
+                appendRecord(OP_SELECT, encodeString(id));
+            }
+        });
+    }
+    
+    /**
+     * Persist the manager's derived key for the device so the next launch can skip derivation
+     */
+    public void cacheKey(String deviceId, ParentEncryptionManager encryptionManager) {
+        submit(() -> {
+            PairedDevice device = devices.get(deviceId.trim());
+            if (device == null || device.getCipherMode() != encryptionManager.getCipherMode()) {
+                return;
+            }
+            byte[] key = encryptionManager.getKeyBytes();
+            if (!Arrays.equals(key, device.getDerivedKey())) {
+                PairedDevice updated = device.withDerivedKey(key);
+                devices.put(updated.getDeviceId(), updated);
+                appendRecord(OP_PUT, encodeDevice(updated));
+            }
+        });
+    }
+    
+    /**
+     * Resolves once every change made before the call is on disk
+     */
+    CompletableFuture<Void> sync() {
+        load();
+        return CompletableFuture.runAsync(this::flush, executor);
+    }
+    
+    private void submit(Runnable change) {
+        // Changes queue behind the initial read so they are never overwritten by it
+        load();
+        executor.execute(change);
+    }
+    
+    // Runs on the store thread
+    private void appendRecord(byte op, byte[] body) {
+        if (body.length > MAX_RECORD_LENGTH) {
+            Log.e(TAG, "Dropping oversized record (" + body.length + " bytes)");
+            return;
+        }
+        writeRecord(pendingRecords, op, body);
+        recordCount++;
+        
+        // Queued behind any changes already waiting, so one flush covers the whole burst
+        if (!flushQueued) {
+            flushQueued = true;
+            executor.execute(this::flush);
+        }
+    }
+    
+    private void flush() {
+        flushQueued = false;
+        try {
+            if (recordCount > COMPACT_MIN_RECORDS && recordCount > COMPACT_RATIO * (devices.size() + 1)) {
+                compact();
+                return;
+            }
+            boolean needsHeader = file.length() == 0;
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                if (needsHeader) {
+                    out.write(header());
+                }
+                pendingRecords.writeTo(out);
+                out.getFD().sync();
+            }
+            pendingRecords.reset();
+        } catch (IOException e) {
+            // Keep the records buffered; the next change retries the write
+            Log.e(TAG, "Failed to write device store", e);
+        }
+    }
+    
+    private void compact() throws IOException {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        snapshot.write(header());
+        int snapshotRecords = 0;
+        for (PairedDevice device : devices.values()) {
+            writeRecord(snapshot, OP_PUT, encodeDevice(device));
+            snapshotRecords++;
+        }
+        if (selectedDeviceId != null) {
+            writeRecord(snapshot, OP_SELECT, encodeString(selectedDeviceId));
+            snapshotRecords++;
+        }
+        
+        // Write aside and rename so a crash leaves either the old log or the new snapshot
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            snapshot.writeTo(out);
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+        pendingRecords.reset();
+        recordCount = snapshotRecords;
+        Log.d(TAG, "Compacted device store to " + recordCount + " records");
+    }
+    
+    private static void writeRecord(ByteArrayOutputStream buffer, byte op, byte[] body) {
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            out.writeByte(op);
+            out.writeShort(body.length);
+            out.write(body);
+            out.writeInt(checksum(op, body));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream does not throw
+        }
+    }
+    
+    private static int checksum(byte op, byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(body.length >>> 8);
+        crc.update(body.length & 0xFF);
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+    
+    private void readLog() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long fileLength = file.length();
+        long validLength = 0;
+        boolean damaged = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Unrecognised device store format");
+            }
+            validLength = 5;
+            long position = validLength;
+            
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = in.readUnsignedShort();
+                byte[] body = new byte[length];
+                in.readFully(body);
+                int storedCrc = in.readInt();
+                long recordStart = position;
+                position += 1 + 2 + length + 4;
+                
+                if (checksum(op, body) != storedCrc) {
+                    if (position >= fileLength) {
+                        throw new EOFException("Checksum mismatch in the last record");
+                    }
+                    // Records follow, so this is damage rather than a torn append; keep the rest
+                    Log.e(TAG, "Skipping corrupt device store record at byte " + recordStart);
+                    damaged = true;
+                    continue;
+                }
+                applyRecord(op, body);
+                recordCount++;
+                validLength = position;
+            }
+        } catch (EOFException e) {
+            if (damaged) {
+                Log.e(TAG, "Device store ends mid-record after damage: " + e.getMessage());
+            } else {
+                // A write was cut short; drop the partial record so appends start from a clean end
+                Log.w(TAG, "Truncating device store at " + validLength + " bytes: " + e.getMessage());
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(validLength);
+                }
+            }
+        }
+        if (damaged) {
+            recoverDamagedLog();
+        }
+        Log.d(TAG, "Loaded " + devices.size() + " paired device(s) from " + recordCount + " records");
+    }
+    
+    /**
+     * Keep the damaged log aside for inspection and replace it with a snapshot of the records
+     * that still read, so new appends do not land behind the damage
+     */
+    private void recoverDamagedLog() {
+        File copy = new File(file.getPath() + ".corrupt");
+        try {
+            Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            compact();
+            Log.e(TAG, "Recovered " + devices.size() + " paired device(s) from a damaged store; original kept as "
+                + copy.getName());
+        } catch (IOException e) {
+            // The damaged log stays in place and is read the same way next time
+            Log.e(TAG, "Failed to rewrite damaged device store", e);
+        }
+    }
+    
+    private void applyRecord(byte op, byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        switch (op) {
+            case OP_PUT:
+                PairedDevice device = decodeDevice(in);
+                devices.put(device.getDeviceId(), device);
+                break;
+            case OP_REMOVE:
+                devices.remove(in.readUTF());
+                break;
+            case OP_SELECT:
+                String id = in.readUTF();
+                selectedDeviceId = id.isEmpty() ? null : id;
+                break;
+            default:
+                Log.w(TAG, "Skipping unknown record type " + op);
+        }
+    }
+    
+    private static byte[] header() {
+        return new byte[] {
+            (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC, (byte) VERSION
+        };
+    }
+    
+    private static byte[] encodeDevice(PairedDevice device) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(device.getDeviceId());
+            out.writeUTF(device.getAddress());
+            out.writeUTF(device.getRegistryKey() != null ? device.getRegistryKey() : "");
+            out.writeByte(device.getFrameVersion());
+            out.writeByte(device.getCipherMode().ordinal());
+            byte[] key = device.getDerivedKey();
+            out.writeByte(key != null ? key.length : 0);
+            if (key != null) {
+                out.write(key);
+            }
+            out.writeLong(device.getLastSeenMs());
+            out.writeBoolean(device.hasSigned());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static PairedDevice decodeDevice(DataInputStream in) throws IOException {
+        String deviceId = in.readUTF();
+        String address = in.readUTF();
+        String registryKey = in.readUTF();
+        int frameVersion = in.readUnsignedByte();
+        int cipherOrdinal = in.readUnsignedByte();
+        ParentEncryptionManager.CipherMode[] modes = ParentEncryptionManager.CipherMode.values();
+        if (cipherOrdinal >= modes.length) {
+            throw new IOException("Unknown cipher mode " + cipherOrdinal);
+        }
+        int keyLength = in.readUnsignedByte();
+        byte[] key = null;
+        if (keyLength > 0) {
+            key = new byte[keyLength];
+            in.readFully(key);
+        }
+        long lastSeenMs = in.readLong();
+        // Records written before the signed flag existed end at the last-seen time
+        boolean signed = in.available() > 0 && in.readBoolean();
+        return new PairedDevice(deviceId, address, registryKey.isEmpty() ? null : registryKey,
+            frameVersion, modes[cipherOrdinal], key, lastSeenMs, signed);
+    }
+    
+    private static byte[] encodeString(String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try {
+            new DataOutputStream(bytes).writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
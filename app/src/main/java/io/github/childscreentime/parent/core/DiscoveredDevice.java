@@ -0,0 +1,144 @@
+package io.github.childscreentime.parent.core;
+
+/**
+ * Immutable snapshot of a child device as last seen by discovery, or as restored from the
+ * DiscoveryCache at launch until the child answers again
+ */
+public final class DiscoveredDevice {
+    
+    private final String key;
+    private final String address;
+    private final String previousAddress;
+    private final int frameVersion;
+    private final ParentEncryptionManager.CipherMode cipherMode;
+    private final String fingerprint;
+    private final String name;
+    private final int capabilities;
+    private final long firstSeenMs;
+    private final long lastSeenMs;
+    private final boolean cached;
+    // Kept only to verify the reply's tag; null for entries restored from the cache
+    private final DiscoveryResponse response;
+    
+    DiscoveredDevice(String key, String address, String previousAddress, DiscoveryResponse response,
+                     long firstSeenMs, long lastSeenMs) {
+        this(key, address, previousAddress, response.getFrameVersion(), response.getCipherMode(),
+            response.getFingerprint(), response.getName(), response.getCapabilities(),
+            firstSeenMs, lastSeenMs, false, response);
+    }
+    
+    DiscoveredDevice(String key, String address, String previousAddress, int frameVersion,
+                     ParentEncryptionManager.CipherMode cipherMode, String fingerprint, String name,
+                     int capabilities, long firstSeenMs, long lastSeenMs, boolean cached) {
+        this(key, address, previousAddress, frameVersion, cipherMode, fingerprint, name, capabilities,
+            firstSeenMs, lastSeenMs, cached, null);
+    }
+    
+    private DiscoveredDevice(String key, String address, String previousAddress, int frameVersion,
+                             ParentEncryptionManager.CipherMode cipherMode, String fingerprint, String name,
+                             int capabilities, long firstSeenMs, long lastSeenMs, boolean cached,
+                             DiscoveryResponse response) {
+        this.key = key;
+        this.address = address;
+        this.previousAddress = previousAddress;
+        this.frameVersion = frameVersion;
+        this.cipherMode = cipherMode;
+        this.fingerprint = fingerprint;
+        this.name = name;
+        this.capabilities = capabilities;
+        this.firstSeenMs = firstSeenMs;
+        this.lastSeenMs = lastSeenMs;
+        this.cached = cached;
+        this.response = response;
+    }
+    
+    /**
+     * Stable registry key: the child's advertised instance ID, or its address for legacy children
+     */
+    public String getKey() {
+        return key;
+    }
+    
+    public String getAddress() {
+        return address;
+    }
+    
+    /**
+     * Address the device had before its most recent IP change, or null
+     */
+    public String getPreviousAddress() {
+        return previousAddress;
+    }
+    
+    public int getFrameVersion() {
+        return frameVersion;
+    }
+    
+    public ParentEncryptionManager.CipherMode getCipherMode() {
+        return cipherMode;
+    }
+    
+    /**
+     * Advertised Device ID fingerprint, or null; only trustworthy once isSignedBy succeeds
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+    
+    /**
+     * Friendly name the child advertised, or null
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * DiscoveryResponse.CAPABILITY_* flags, or CAPABILITIES_UNKNOWN
+     */
+    public int getCapabilities() {
+        return capabilities;
+    }
+    
+    /**
+     * Whether the child may support a feature; children that advertise nothing are assumed to
+     */
+    public boolean supports(int capability) {
+        return capabilities == DiscoveryResponse.CAPABILITIES_UNKNOWN || (capabilities & capability) != 0;
+    }
+    
+    /**
+     * Whether the last reply carried an authentication tag
+     */
+    public boolean isSigned() {
+        return response != null && response.isSigned();
+    }
+    
+    /**
+     * Whether the last reply was signed with the key for this Device ID
+     */
+    public boolean isSignedBy(String deviceId) {
+        return response != null && response.isSignedBy(deviceId);
+    }
+    
+    public long getFirstSeenMs() {
+        return firstSeenMs;
+    }
+    
+    public long getLastSeenMs() {
+        return lastSeenMs;
+    }
+    
+    /**
+     * True while this entry comes from an earlier run and the child has not answered since
+     */
+    public boolean isCached() {
+        return cached;
+    }
+    
+    public String getDisplayName() {
+        if (name != null) {
+            return name + " (" + address + ")";
+        }
+        return "Child Device: " + address;
+    }
+}
@@ -0,0 +1,244 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Last-known discovery results, kept across launches so the device list can be shown before
+ * the first broadcast is answered (stale-while-revalidate).
+ *
+ * On restore, entries younger than MAX_AGE_MS go into the DeviceRegistry marked as cached;
+ * DiscoveryEngine probes their addresses by unicast and the registry's TTL eviction removes
+ * the ones that stay silent. The whole registry is written back as one checksummed snapshot
+ * whenever it changes. Unlike DeviceStore this holds no key material, so it lives in the
+ * cache directory and losing it only costs one normal discovery.
+ */
+public class DiscoveryCache implements DeviceRegistry.Listener {
+    
+    static final String FILE_NAME = "discovered_devices.bin";
+    // Older sightings are more likely a reassigned address than the same child
+    public static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    
+    private static final String TAG = "DiscoveryCache";
+    private static final int MAGIC = 0x43535443; // "CSTC"
+    private static final int VERSION = 2;
+    private static final int MAX_ENTRIES = 64;
+    
+    private static DiscoveryCache instance;
+    
+    private final File file;
+    private final DeviceRegistry registry;
+    private final ExecutorService executor;
+    private final CompletableFuture<Integer> restored = new CompletableFuture<>();
+    private boolean restoreStarted;
+    private boolean saveQueued;
+    
+    DiscoveryCache(File file, DeviceRegistry registry) {
+        this.file = file;
+        this.registry = registry;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cst-discovery-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Shared cache for the process-wide registry, kept in the given cache directory
+     */
+    public static synchronized DiscoveryCache getInstance(File cacheDir) {
+        if (instance == null) {
+            instance = new DiscoveryCache(new File(cacheDir, FILE_NAME),
+                DeviceRegistry.getInstance());
+        }
+        return instance;
+    }
+    
+    /**
+     * Read the file in the background and restore its entries into the registry, then follow
+     * registry changes. Resolves with the number of entries restored; later calls return the
+     * same future.
+     */
+    public synchronized CompletableFuture<Integer> restore() {
+        if (!restoreStarted) {
+            restoreStarted = true;
+            executor.execute(() -> {
+                int count = 0;
+                long cutoffMs = System.currentTimeMillis() - MAX_AGE_MS;
+                for (DiscoveredDevice device : read()) {
+                    if (device.getLastSeenMs() >= cutoffMs && registry.restore(device)) {
+                        count++;
+                    }
+                }
+                registry.addListener(this);
+                Log.d(TAG, "Restored " + count + " cached device(s)");
+                restored.complete(count);
+            });
+        }
+        return restored;
+    }
+    
+    /**
+     * Write the registry out in the background; calls close together share one write
+     */
+    public void save() {
+        // Queued behind the restore so an early save never overwrites the entries still to be read
+        restore();
+        executor.execute(() -> {
+            if (!saveQueued) {
+                saveQueued = true;
+                executor.execute(this::write);
+            }
+        });
+    }
+    
+    @Override
+    public void onDeviceAdded(DiscoveredDevice device) {
+        save();
+    }
+    
+    @Override
+    public void onDeviceAddressChanged(DiscoveredDevice device, String previousAddress) {
+        save();
+    }
+    
+    @Override
+    public void onDeviceRemoved(DiscoveredDevice device) {
+        save();
+    }
+    
+    @Override
+    public void onDeviceRevalidated(DiscoveredDevice device) {
+        save();
+    }
+    
+    // Runs on the cache thread
+    private List<DiscoveredDevice> read() {
+        List<DiscoveredDevice> devices = new ArrayList<>();
+        if (!file.exists()) {
+            return devices;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Unrecognised discovery cache format");
+            }
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Bad discovery cache length " + length);
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            if (checksum(body) != in.readInt()) {
+                throw new IOException("Checksum mismatch");
+            }
+            
+            DataInputStream entries = new DataInputStream(new ByteArrayInputStream(body));
+            ParentEncryptionManager.CipherMode[] modes = ParentEncryptionManager.CipherMode.values();
+            int count = entries.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                String key = entries.readUTF();
+                String address = entries.readUTF();
+                int frameVersion = entries.readUnsignedByte();
+                int cipherOrdinal = entries.readUnsignedByte();
+                long firstSeenMs = entries.readLong();
+                long lastSeenMs = entries.readLong();
+                String fingerprint = readOptional(entries);
+                String name = readOptional(entries);
+                int capabilities = entries.readInt();
+                if (cipherOrdinal >= modes.length) {
+                    throw new IOException("Unknown cipher mode " + cipherOrdinal);
+                }
+                devices.add(new DiscoveredDevice(key, address, null, WireFrame.negotiateVersion(frameVersion),
+                    modes[cipherOrdinal], fingerprint, name, capabilities, firstSeenMs, lastSeenMs, true));
+            }
+        } catch (IOException e) {
+            // Only a cache: start from discovery alone
+            Log.w(TAG, "Ignoring unreadable discovery cache: " + e.getMessage());
+            file.delete();
+            devices.clear();
+        }
+        return devices;
+    }
+    
+    private void write() {
+        saveQueued = false;
+        List<DiscoveredDevice> devices = new ArrayList<>(registry.getDevices());
+        // Keep the most recently seen when a busy network has filled the registry
+        Collections.sort(devices, (a, b) -> Long.compare(b.getLastSeenMs(), a.getLastSeenMs()));
+        if (devices.size() > MAX_ENTRIES) {
+            devices = devices.subList(0, MAX_ENTRIES);
+        }
+        
+        ByteArrayOutputStream body = new ByteArrayOutputStream(32 + devices.size() * 96);
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeShort(devices.size());
+            for (DiscoveredDevice device : devices) {
+                out.writeUTF(device.getKey());
+                out.writeUTF(device.getAddress());
+                out.writeByte(device.getFrameVersion());
+                out.writeByte(device.getCipherMode().ordinal());
+                out.writeLong(device.getFirstSeenMs());
+                out.writeLong(device.getLastSeenMs());
+                writeOptional(out, device.getFingerprint());
+                writeOptional(out, device.getName());
+                out.writeInt(device.getCapabilities());
+            }
+            byte[] bytes = body.toByteArray();
+            DataOutputStream header = new DataOutputStream(snapshot);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            header.writeInt(bytes.length);
+            header.write(bytes);
+            header.writeInt(checksum(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // ByteArrayOutputStream does not throw
+        }
+        
+        // Write aside and rename so a crash leaves either the old snapshot or the new one
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                snapshot.writeTo(out);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write discovery cache", e);
+        }
+    }
+    
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,388 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Continuous child discovery feeding the DeviceRegistry.
+ *
+ * A single thread re-broadcasts CST_PARENT_DISCOVERY on an exponential backoff schedule
+ * (1 s doubling up to 60 s) and listens for replies in between, evicting devices that
+ * have not answered within the TTL. A manual rescan resets the backoff.
+ *
+ * Each round goes to the directed broadcast address of every active IPv4 interface as well
+ * as 255.255.255.255. If two rounds get no reply at all, the /24 of each interface is swept
+ * with unicast probes, paced in small batches. Entries restored from the DiscoveryCache also
+ * get a unicast probe every round until they answer or are evicted, so a known child is
+ * confirmed even where broadcasts are filtered. Replies from all paths merge in the registry.
+ *
+ * Replies are read into a pooled direct buffer and checked in place. A child repeats the same
+ * reply every round, so one byte-identical to the last reply from that address reuses the
+ * earlier parse instead of decoding it again; only new or changed replies become Strings.
+ *
+ * Every broadcast round sends a new probe nonce. A signed reply is only recorded if it echoes
+ * the nonce of this round or the previous one, and only from the first address that sent that
+ * exact reply, so a captured reply replayed from elsewhere cannot move a paired child.
+ */
+public class DiscoveryEngine {
+    
+    public static final int DISCOVERY_PORT = 8888;
+    public static final long DEVICE_TTL_MS = 3 * 60 * 1000;
+    
+    private static final String TAG = "DiscoveryEngine";
+    private static final long INITIAL_INTERVAL_MS = 1000;
+    private static final long MAX_INTERVAL_MS = 60 * 1000;
+    private static final long EVICTION_INTERVAL_MS = 15 * 1000;
+    private static final byte[] EXPECTED_RESPONSE_BYTES =
+        DiscoveryResponse.EXPECTED_RESPONSE.getBytes(StandardCharsets.US_ASCII);
+    private static final int SWEEP_AFTER_SILENT_ROUNDS = 2;
+    private static final int SWEEP_BATCH_SIZE = 32;
+    private static final long SWEEP_BATCH_INTERVAL_MS = 25;
+    
+    private static final DiscoveryEngine INSTANCE = new DiscoveryEngine(DeviceRegistry.getInstance());
+    
+    private final DeviceRegistry registry;
+    private final int port;
+    private final DiscoveryTargetSource targetSource;
+    private volatile Thread thread;
+    private volatile Selector backgroundSelector;
+    private volatile boolean running;
+    private volatile boolean rescanRequested;
+    
+    public DiscoveryEngine(DeviceRegistry registry) {
+        this(registry, DISCOVERY_PORT, DiscoveryTargets.SYSTEM);
+    }
+    
+    /**
+     * Engine probing custom targets on a custom port, e.g. simulated children on loopback
+     */
+    public DiscoveryEngine(DeviceRegistry registry, int port, DiscoveryTargetSource targetSource) {
+        this.registry = registry;
+        this.port = port;
+        this.targetSource = targetSource;
+    }
+    
+    /**
+     * Engine bound to the process-wide registry
+     */
+    public static DiscoveryEngine getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Start continuous discovery on a background thread; no-op if already running
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(() -> discover(Long.MAX_VALUE, true), "cst-discovery");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public synchronized void stop() {
+        running = false;
+        wakeUp();
+        thread = null;
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Broadcast immediately and restart the backoff schedule from its shortest interval
+     */
+    public void rescanNow() {
+        rescanRequested = true;
+        wakeUp();
+    }
+    
+    /**
+     * Run a bounded discovery pass on the calling thread, for background workers.
+     * If continuous discovery is already running it just triggers a rescan.
+     */
+    public void runSweep(long durationMs) {
+        if (running) {
+            rescanNow();
+            return;
+        }
+        discover(durationMs, false);
+    }
+    
+    private void wakeUp() {
+        Selector selector = backgroundSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+    
+    private void discover(long durationMs, boolean background) {
+        long startMs = System.currentTimeMillis();
+        long deadline = durationMs == Long.MAX_VALUE ? Long.MAX_VALUE : startMs + durationMs;
+        ByteBuffer buffer = BufferPool.datagrams().acquire();
+        Map<InetSocketAddress, KnownReply> knownReplies = new HashMap<>();
+        
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.configureBlocking(false);
+            channel.bind(null);
+            channel.register(selector, SelectionKey.OP_READ);
+            if (background) {
+                backgroundSelector = selector;
+            }
+            Log.d(TAG, "Discovery started" + (background ? " (continuous)" : " (sweep " + durationMs + " ms)"));
+            
+            ProbeNonces nonces = new ProbeNonces();
+            ByteBuffer probe = nonces.probe();
+            long interval = INITIAL_INTERVAL_MS;
+            long nextBroadcast = startMs;
+            long nextEviction = startMs + EVICTION_INTERVAL_MS;
+            
+            // Per-cycle state for the unicast fallback; a rescan starts a new cycle
+            Deque<InetSocketAddress> sweepQueue = new ArrayDeque<>();
+            long nextSweepBatch = 0;
+            int silentRounds = 0;
+            int replies = 0;
+            boolean sweepStarted = false;
+            
+            // A restarted engine replaces the thread; the old one notices and exits
+            while (!background || (running && thread == Thread.currentThread())) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    break;
+                }
+                if (rescanRequested) {
+                    rescanRequested = false;
+                    interval = INITIAL_INTERVAL_MS;
+                    nextBroadcast = now;
+                    silentRounds = 0;
+                    replies = 0;
+                    sweepStarted = false;
+                }
+                if (now >= nextBroadcast) {
+                    if (replies == 0 && silentRounds >= SWEEP_AFTER_SILENT_ROUNDS && !sweepStarted) {
+                        sweepStarted = true;
+                        sweepQueue.addAll(targetSource.unicastSweepTargets(port));
+                        nextSweepBatch = now;
+                        Log.d(TAG, "No broadcast replies, sweeping " + sweepQueue.size() + " hosts by unicast");
+                    }
+                    nonces.rotate();
+                    probe = nonces.probe();
+                    sendBroadcastRound(channel, probe);
+                    revalidateCached(channel, probe);
+                    if (replies == 0) {
+                        silentRounds++;
+                    }
+                    nextBroadcast = now + interval;
+                    interval = Math.min(interval * 2, MAX_INTERVAL_MS);
+                }
+                if (!sweepQueue.isEmpty() && now >= nextSweepBatch) {
+                    // Bounded batches keep the sweep from flooding the AP or the ARP table
+                    for (int i = 0; i < SWEEP_BATCH_SIZE && !sweepQueue.isEmpty(); i++) {
+                        sendProbe(channel, probe, sweepQueue.poll());
+                    }
+                    nextSweepBatch = now + SWEEP_BATCH_INTERVAL_MS;
+                }
+                if (now >= nextEviction) {
+                    registry.evictOlderThan(now - DEVICE_TTL_MS);
+                    nextEviction = now + EVICTION_INTERVAL_MS;
+                }
+                
+                long wakeAt = Math.min(Math.min(nextBroadcast, nextEviction), deadline);
+                if (!sweepQueue.isEmpty()) {
+                    wakeAt = Math.min(wakeAt, nextSweepBatch);
+                }
+                selector.select(Math.max(1, wakeAt - now));
+                selector.selectedKeys().clear();
+                
+                SocketAddress source;
+                while ((source = channel.receive(buffer)) != null) {
+                    buffer.flip();
+                    if (handleReply((InetSocketAddress) source, buffer, knownReplies, nonces)) {
+                        replies++;
+                    }
+                    buffer.clear();
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Discovery error: " + e.getMessage(), e);
+        } finally {
+            BufferPool.datagrams().release(buffer);
+            if (background && thread == Thread.currentThread()) {
+                backgroundSelector = null;
+                running = false;
+            }
+        }
+        Log.d(TAG, "Discovery stopped. Devices known: " + registry.size());
+    }
+    
+    private void sendBroadcastRound(DatagramChannel channel, ByteBuffer probe) {
+        // Interfaces come and go (Wi-Fi roaming, hotspot), so re-enumerate every round
+        List<InetSocketAddress> targets = targetSource.broadcastTargets(port);
+        int sent = 0;
+        for (InetSocketAddress target : targets) {
+            if (sendProbe(channel, probe, target)) {
+                sent++;
+            }
+        }
+        Log.d(TAG, "Sent discovery broadcast to " + sent + "/" + targets.size() + " targets " + targets);
+    }
+    
+    private void revalidateCached(DatagramChannel channel, ByteBuffer probe) {
+        int sent = 0;
+        for (DiscoveredDevice device : registry.getDevices()) {
+            if (device.isCached() && sendProbe(channel, probe, new InetSocketAddress(device.getAddress(), port))) {
+                sent++;
+            }
+        }
+        if (sent > 0) {
+            Log.d(TAG, "Probed " + sent + " cached device(s) by unicast");
+        }
+    }
+    
+    private boolean sendProbe(DatagramChannel channel, ByteBuffer probe, InetSocketAddress target) {
+        try {
+            probe.rewind();
+            if (channel.send(probe, target) == 0) {
+                return false;
+            }
+            TransportMetrics.getInstance().increment(TransportMetrics.Counter.DISCOVERY_PROBES);
+            return true;
+        } catch (IOException e) {
+            // Typically no route on that interface; keep the schedule and try again next round
+            Log.w(TAG, "Failed to send discovery probe to " + target + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Record the reply between the buffer's position and limit; returns false if it was not
+     * from a child app or is a stale or replayed signed reply
+     */
+    private boolean handleReply(InetSocketAddress source, ByteBuffer reply, Map<InetSocketAddress, KnownReply> knownReplies,
+                                ProbeNonces nonces) {
+        KnownReply known = knownReplies.get(source);
+        if (known == null || !known.matches(reply)) {
+            known = null;
+            DiscoveryResponse discoveryResponse = startsWith(reply, EXPECTED_RESPONSE_BYTES)
+                ? DiscoveryResponse.parse(StandardCharsets.UTF_8.decode(reply).toString())
+                : null;
+            if (discoveryResponse == null) {
+                TransportMetrics.getInstance().increment(TransportMetrics.Counter.UNEXPECTED_RESPONSES);
+                Log.d(TAG, "✗ Unexpected " + reply.limit() + "-byte response from " + source);
+                return false;
+            }
+            reply.rewind();
+            known = new KnownReply(reply, source.getAddress().getHostAddress(), discoveryResponse);
+            knownReplies.put(source, known);
+        }
+        if (!nonces.accepts(known.response, known.address)) {
+            TransportMetrics.getInstance().increment(TransportMetrics.Counter.UNEXPECTED_RESPONSES);
+            Log.w(TAG, "✗ Stale or replayed signed reply from " + source);
+            return false;
+        }
+        TransportMetrics.getInstance().increment(TransportMetrics.Counter.DISCOVERY_REPLIES);
+        registry.record(known.address, known.response, System.currentTimeMillis());
+        return true;
+    }
+    
+    private static boolean startsWith(ByteBuffer data, byte[] prefix) {
+        if (data.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data.get(data.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Probe nonces of the current and previous round, with the address that first sent each
+     * signed reply to them. Replies to the previous round may still be in flight.
+     */
+    private static final class ProbeNonces {
+        private String current = DeviceIdentity.newNonce();
+        private String previous;
+        private Map<String, String> currentSigners = new HashMap<>();
+        private Map<String, String> previousSigners = new HashMap<>();
+        
+        ByteBuffer probe() {
+            return ByteBuffer.wrap(DiscoveryResponse.probe(current).getBytes(StandardCharsets.UTF_8));
+        }
+        
+        void rotate() {
+            previous = current;
+            previousSigners = currentSigners;
+            current = DeviceIdentity.newNonce();
+            currentSigners = new HashMap<>();
+        }
+        
+        /**
+         * Unsigned replies prove nothing and always pass; signed ones must be fresh and first
+         */
+        boolean accepts(DiscoveryResponse response, String address) {
+            if (!response.isSigned()) {
+                return true;
+            }
+            String nonce = response.getNonce();
+            Map<String, String> signers;
+            if (current.equals(nonce)) {
+                signers = currentSigners;
+            } else if (previous != null && previous.equals(nonce)) {
+                signers = previousSigners;
+            } else {
+                return false;
+            }
+            String firstAddress = signers.putIfAbsent(response.getTag(), address);
+            return firstAddress == null || firstAddress.equals(address);
+        }
+    }
+    
+    /**
+     * Last parsed reply from one address, kept for the lifetime of a discovery pass
+     */
+    private static final class KnownReply {
+        final byte[] raw;
+        final String address;
+        final DiscoveryResponse response;
+        
+        KnownReply(ByteBuffer reply, String address, DiscoveryResponse response) {
+            this.raw = new byte[reply.remaining()];
+            reply.duplicate().get(raw);
+            this.address = address;
+            this.response = response;
+        }
+        
+        boolean matches(ByteBuffer reply) {
+            if (reply.remaining() != raw.length) {
+                return false;
+            }
+            int offset = reply.position();
+            for (int i = 0; i < raw.length; i++) {
+                if (reply.get(offset + i) != raw[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package io.github.childscreentime.parent.core;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * Parsed child reply to a CST_PARENT_DISCOVERY broadcast.
+ *
+ * Legacy children answer with the bare CST_CHILD_RESPONSE constant. Newer children append
+ * "|FRAME=n" to advertise the highest binary frame version they understand and
+ * "|CIPHER=GCM" when they accept authenticated AES-GCM instead of AES-CBC. An optional
+ * "|ID=token" carries a stable instance ID so the device can be tracked across IP changes.
+ *
+ * The probe carries "|NONCE=" with a fresh random value per round. Children that know their
+ * Device ID also send "|FP=" with its fingerprint, "|NAME=" with a URL-encoded friendly name,
+ * "|CAPS=" with hex capability flags and "|NONCE=" echoing the probe, and end the reply with
+ * "|MAC=" authenticating everything before it (see DeviceIdentity). Those fields are only
+ * trusted once isSignedBy confirms the tag for a known Device ID, and the nonce is only
+ * fresh if DiscoveryEngine sent it recently.
+ */
+public final class DiscoveryResponse {
+    
+    public static final String DISCOVERY_MESSAGE = "CST_PARENT_DISCOVERY";
+    public static final String EXPECTED_RESPONSE = "CST_CHILD_RESPONSE";
+    private static final String FRAME_ATTRIBUTE = "FRAME=";
+    private static final String CIPHER_ATTRIBUTE = "CIPHER=";
+    private static final String ID_ATTRIBUTE = "ID=";
+    private static final String FINGERPRINT_ATTRIBUTE = "FP=";
+    private static final String NAME_ATTRIBUTE = "NAME=";
+    private static final String CAPABILITIES_ATTRIBUTE = "CAPS=";
+    private static final String NONCE_ATTRIBUTE = "NONCE=";
+    private static final String MAC_ATTRIBUTE = "|MAC=";
+    
+    /** Child accepts SUBSCRIBE and pushes status events */
+    public static final int CAPABILITY_SUBSCRIPTIONS = 0x01;
+    /** Child runs TYPE_BATCH frames */
+    public static final int CAPABILITY_BATCH = 0x02;
+    /** The child did not advertise capabilities, so every feature has to be tried */
+    public static final int CAPABILITIES_UNKNOWN = -1;
+    
+    private final int frameVersion;
+    private final ParentEncryptionManager.CipherMode cipherMode;
+    private final String instanceId;
+    private final String fingerprint;
+    private final String name;
+    private final int capabilities;
+    private final String nonce;
+    private final String signedText;
+    private final String mac;
+    // Repeat replies reuse the parsed response, so one successful check covers them all
+    private volatile String verifiedDeviceId;
+    
+    private DiscoveryResponse(int frameVersion, ParentEncryptionManager.CipherMode cipherMode, String instanceId) {
+        this(frameVersion, cipherMode, instanceId, null, null, CAPABILITIES_UNKNOWN, null, null, null);
+    }
+    
+    private DiscoveryResponse(int frameVersion, ParentEncryptionManager.CipherMode cipherMode, String instanceId,
+                              String fingerprint, String name, int capabilities, String nonce,
+                              String signedText, String mac) {
+        this.frameVersion = frameVersion;
+        this.cipherMode = cipherMode;
+        this.instanceId = instanceId;
+        this.fingerprint = fingerprint;
+        this.name = name;
+        this.capabilities = capabilities;
+        this.nonce = nonce;
+        this.signedText = signedText;
+        this.mac = mac;
+    }
+    
+    /**
+     * Probe text for one discovery round
+     */
+    public static String probe(String nonce) {
+        return DISCOVERY_MESSAGE + '|' + NONCE_ATTRIBUTE + nonce;
+    }
+    
+    /**
+     * Parse a discovery reply, returning null if it did not come from a child app
+     */
+    public static DiscoveryResponse parse(String response) {
+        if (!response.startsWith(EXPECTED_RESPONSE)) {
+            return null;
+        }
+        if (response.length() == EXPECTED_RESPONSE.length()) {
+            return new DiscoveryResponse(0, ParentEncryptionManager.CipherMode.CBC, null);
+        }
+        if (response.charAt(EXPECTED_RESPONSE.length()) != '|') {
+            return null;
+        }
+        
+        // The tag covers everything before it, so it must be the last attribute
+        String mac = null;
+        int attributesEnd = response.length();
+        int macStart = response.lastIndexOf(MAC_ATTRIBUTE);
+        if (macStart > 0) {
+            mac = response.substring(macStart + MAC_ATTRIBUTE.length()).trim();
+            attributesEnd = macStart;
+        }
+        
+        int advertised = 0;
+        ParentEncryptionManager.CipherMode cipherMode = ParentEncryptionManager.CipherMode.CBC;
+        String instanceId = null;
+        String fingerprint = null;
+        String name = null;
+        int capabilities = CAPABILITIES_UNKNOWN;
+        String nonce = null;
+        int start = EXPECTED_RESPONSE.length() + 1;
+        while (start <= attributesEnd) {
+            int end = response.indexOf('|', start);
+            if (end < 0 || end > attributesEnd) {
+                end = attributesEnd;
+            }
+            if (response.startsWith(FRAME_ATTRIBUTE, start)) {
+                try {
+                    advertised = Integer.parseInt(response.substring(start + FRAME_ATTRIBUTE.length(), end));
+                } catch (NumberFormatException e) {
+                    advertised = 0;
+                }
+            } else if (response.startsWith(CIPHER_ATTRIBUTE + "GCM", start)) {
+                cipherMode = ParentEncryptionManager.CipherMode.GCM;
+            } else if (response.startsWith(ID_ATTRIBUTE, start) && end > start + ID_ATTRIBUTE.length()) {
+                instanceId = response.substring(start + ID_ATTRIBUTE.length(), end);
+            } else if (response.startsWith(FINGERPRINT_ATTRIBUTE, start) && end > start + FINGERPRINT_ATTRIBUTE.length()) {
+                fingerprint = response.substring(start + FINGERPRINT_ATTRIBUTE.length(), end).toLowerCase();
+            } else if (response.startsWith(NAME_ATTRIBUTE, start) && end > start + NAME_ATTRIBUTE.length()) {
+                name = decodeName(response.substring(start + NAME_ATTRIBUTE.length(), end));
+            } else if (response.startsWith(CAPABILITIES_ATTRIBUTE, start)) {
+                try {
+                    capabilities = Integer.parseInt(response.substring(start + CAPABILITIES_ATTRIBUTE.length(), end), 16);
+                } catch (NumberFormatException e) {
+                    capabilities = CAPABILITIES_UNKNOWN;
+                }
+            } else if (response.startsWith(NONCE_ATTRIBUTE, start) && end > start + NONCE_ATTRIBUTE.length()) {
+                nonce = response.substring(start + NONCE_ATTRIBUTE.length(), end).toLowerCase();
+            }
+            start = end + 1;
+        }
+        return new DiscoveryResponse(WireFrame.negotiateVersion(advertised), cipherMode, instanceId,
+            fingerprint, name, capabilities, nonce, mac != null ? response.substring(0, attributesEnd) : null, mac);
+    }
+    
+    private static String decodeName(String encoded) {
+        try {
+            String name = URLDecoder.decode(encoded, "UTF-8").trim();
+            return name.isEmpty() ? null : name;
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Negotiated frame version for this child; 0 means legacy CST_CMD:/CST_RESP: text
+     */
+    public int getFrameVersion() {
+        return frameVersion;
+    }
+    
+    public boolean supportsFrames() {
+        return frameVersion >= WireFrame.VERSION_1;
+    }
+    
+    /**
+     * Cipher mode to use with this child; CBC unless it advertised GCM
+     */
+    public ParentEncryptionManager.CipherMode getCipherMode() {
+        return cipherMode;
+    }
+    
+    /**
+     * Stable instance ID advertised by the child, or null for legacy children
+     */
+    public String getInstanceId() {
+        return instanceId;
+    }
+    
+    /**
+     * Advertised Device ID fingerprint, or null; unverified until isSignedBy succeeds
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+    
+    /**
+     * Friendly name chosen on the child, or null
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * CAPABILITY_* flags, or CAPABILITIES_UNKNOWN
+     */
+    public int getCapabilities() {
+        return capabilities;
+    }
+    
+    /**
+     * Probe nonce the child echoed, or null
+     */
+    public String getNonce() {
+        return nonce;
+    }
+    
+    /**
+     * Authentication tag as sent, or null; identifies one signed reply
+     */
+    String getTag() {
+        return mac;
+    }
+    
+    /**
+     * Whether the reply carries an authentication tag at all
+     */
+    public boolean isSigned() {
+        return mac != null;
+    }
+    
+    /**
+     * Whether the reply was signed with the key for this Device ID
+     */
+    public boolean isSignedBy(String deviceId) {
+        if (mac == null || deviceId == null) {
+            return false;
+        }
+        String id = deviceId.trim();
+        if (id.equals(verifiedDeviceId)) {
+            return true;
+        }
+        if (fingerprint != null && !fingerprint.equals(DeviceIdentity.fingerprint(id))) {
+            return false;
+        }
+        if (!DeviceIdentity.verify(id, signedText, mac)) {
+            return false;
+        }
+        verifiedDeviceId = id;
+        return true;
+    }
+}
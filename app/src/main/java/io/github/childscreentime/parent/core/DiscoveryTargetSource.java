@@ -0,0 +1,21 @@
+package io.github.childscreentime.parent.core;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Where DiscoveryEngine sends its probes. The default is DiscoveryTargets.SYSTEM, built from
+ * the device's network interfaces; a simulator can substitute its own loopback addresses.
+ */
+public interface DiscoveryTargetSource {
+    
+    /**
+     * Targets probed on every round
+     */
+    List<InetSocketAddress> broadcastTargets(int port);
+    
+    /**
+     * Hosts probed one by one when broadcast rounds stay silent
+     */
+    List<InetSocketAddress> unicastSweepTargets(int port);
+}
@@ -0,0 +1,121 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Computes where discovery probes go: the directed broadcast address of every active IPv4
+ * interface (many routers and mesh systems drop 255.255.255.255), and, as a fallback,
+ * every host of each interface's /24.
+ */
+public final class DiscoveryTargets {
+    
+    private static final String TAG = "DiscoveryTargets";
+    private static final String LIMITED_BROADCAST = "255.255.255.255";
+    private static final int SWEEP_PREFIX_LENGTH = 24;
+    
+    /**
+     * Targets derived from this device's active network interfaces
+     */
+    public static final DiscoveryTargetSource SYSTEM = new DiscoveryTargetSource() {
+        @Override
+        public List<InetSocketAddress> broadcastTargets(int port) {
+            return DiscoveryTargets.broadcastTargets(port);
+        }
+        
+        @Override
+        public List<InetSocketAddress> unicastSweepTargets(int port) {
+            return DiscoveryTargets.unicastSweepTargets(port);
+        }
+    };
+    
+    private DiscoveryTargets() {
+    }
+    
+    /**
+     * Directed broadcast address for each active IPv4 interface, followed by the limited broadcast
+     */
+    public static List<InetSocketAddress> broadcastTargets(int port) {
+        Set<InetSocketAddress> targets = new LinkedHashSet<>();
+        for (InterfaceAddress address : activeIpv4Addresses()) {
+            InetAddress broadcast = address.getBroadcast();
+            if (broadcast != null) {
+                targets.add(new InetSocketAddress(broadcast, port));
+            }
+        }
+        targets.add(new InetSocketAddress(LIMITED_BROADCAST, port));
+        return new ArrayList<>(targets);
+    }
+    
+    /**
+     * Every other host address in the /24 (or smaller subnet) of each active IPv4 interface
+     */
+    public static List<InetSocketAddress> unicastSweepTargets(int port) {
+        Set<InetSocketAddress> targets = new LinkedHashSet<>();
+        for (InterfaceAddress address : activeIpv4Addresses()) {
+            int own = toInt(address.getAddress());
+            int prefixLength = Math.max(address.getNetworkPrefixLength(), SWEEP_PREFIX_LENGTH);
+            if (prefixLength >= 31) {
+                continue; // Point-to-point links have no other hosts to sweep
+            }
+            int mask = -1 << (32 - prefixLength);
+            int network = own & mask;
+            int broadcast = network | ~mask;
+            for (int host = network + 1; host < broadcast; host++) {
+                if (host != own) {
+                    targets.add(new InetSocketAddress(toAddress(host), port));
+                }
+            }
+        }
+        return new ArrayList<>(targets);
+    }
+    
+    private static List<InterfaceAddress> activeIpv4Addresses() {
+        List<InterfaceAddress> result = new ArrayList<>();
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            if (interfaces == null) {
+                return result;
+            }
+            for (NetworkInterface networkInterface : Collections.list(interfaces)) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                for (InterfaceAddress address : networkInterface.getInterfaceAddresses()) {
+                    if (address.getAddress() instanceof Inet4Address) {
+                        result.add(address);
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            Log.w(TAG, "Failed to enumerate network interfaces: " + e.getMessage());
+        }
+        return result;
+    }
+    
+    private static int toInt(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+    
+    private static InetAddress toAddress(int value) {
+        byte[] bytes = {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e); // Only thrown for a wrong-length array
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.childscreentime.parent.core;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Collects the TYPE_FRAGMENT frames of one reply and rebuilds the original frame once every
+ * fragment has arrived, in any order. Repeated fragments, from a retransmitted request that the
+ * child answered twice, are ignored. Fragments are read straight from the receive buffer, so
+ * only the slices themselves are copied. Used on the transport's selector thread only.
+ */
+final class FragmentAssembler {
+    
+    private byte innerType;
+    private byte[][] parts;
+    private int received;
+    private int totalLength;
+    
+    /**
+     * Add the fragment frame starting at the buffer's position; returns the reassembled frame
+     * once complete, otherwise null. The buffer's position is not moved.
+     */
+    byte[] add(ByteBuffer fragment) throws ProtocolException {
+        int length = WireFrame.checkHeader(fragment);
+        int offset = fragment.position() + WireFrame.HEADER_LENGTH;
+        if (length < WireFrame.FRAGMENT_HEADER_LENGTH) {
+            throw new ProtocolException("Truncated fragment header");
+        }
+        byte type = fragment.get(offset);
+        int index = fragment.get(offset + 1) & 0xFF;
+        int count = fragment.get(offset + 2) & 0xFF;
+        if (type == WireFrame.TYPE_FRAGMENT || count == 0 || count > WireFrame.MAX_FRAGMENTS || index >= count) {
+            throw new ProtocolException("Bad fragment " + index + "/" + count + " of type " + type);
+        }
+        if (parts == null) {
+            parts = new byte[count][];
+            innerType = type;
+        } else if (count != parts.length || type != innerType) {
+            throw new ProtocolException("Fragment " + index + "/" + count + " does not match the earlier ones");
+        }
+        if (parts[index] != null) {
+            return null;
+        }
+        
+        int chunkLength = length - WireFrame.FRAGMENT_HEADER_LENGTH;
+        if (totalLength + chunkLength > WireFrame.MAX_PAYLOAD_LENGTH) {
+            throw new ProtocolException("Reassembled reply exceeds " + WireFrame.MAX_PAYLOAD_LENGTH + " bytes");
+        }
+        parts[index] = new byte[chunkLength];
+        int start = fragment.position();
+        fragment.position(offset + WireFrame.FRAGMENT_HEADER_LENGTH);
+        fragment.get(parts[index]);
+        fragment.position(start);
+        totalLength += chunkLength;
+        if (++received < parts.length) {
+            return null;
+        }
+        
+        byte[] payload = new byte[totalLength];
+        int position = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, payload, position, part.length);
+            position += part.length;
+        }
+        return WireFrame.encode(innerType, WireFrame.peekCorrelationId(fragment), payload);
+    }
+    
+    int getReceived() {
+        return received;
+    }
+    
+    int getExpected() {
+        return parts != null ? parts.length : 0;
+    }
+}
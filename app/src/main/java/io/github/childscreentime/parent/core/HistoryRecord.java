@@ -0,0 +1,197 @@
+package io.github.childscreentime.parent.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * One logged command and its outcome, as stored by CommandHistory.
+ *
+ * Well-known commands are kept as a kind plus numeric argument and TIME_LEFT replies as numbers,
+ * so a poll costs a few dozen bytes. Children are identified by a tag hashed from their Device ID
+ * rather than the ID itself, which is the encryption secret.
+ */
+public final class HistoryRecord {
+    
+    public enum Kind {
+        OTHER,
+        GET_TIME_LEFT,
+        LOCK_DEVICE,
+        EXTEND_TIME,
+        SUBSCRIBE
+    }
+    
+    public enum Outcome {
+        OK,
+        CHILD_ERROR,
+        FAILED
+    }
+    
+    private static final String EXTEND_PREFIX = "EXTEND_TIME:";
+    private static final byte[] TAG_SALT = "CST-HISTORY:".getBytes(StandardCharsets.UTF_8);
+    
+    private final long timeMs;
+    private final long deviceTag;
+    private final String address;
+    private final Kind kind;
+    private final long argument;
+    private final String command;
+    private final Outcome outcome;
+    private final long remainingMinutes;
+    private final long totalMinutes;
+    private final String detail;
+    private final long roundTripMs;
+    
+    HistoryRecord(long timeMs, long deviceTag, String address, Kind kind, long argument, String command,
+                  Outcome outcome, long remainingMinutes, long totalMinutes, String detail, long roundTripMs) {
+        this.timeMs = timeMs;
+        this.deviceTag = deviceTag;
+        this.address = address;
+        this.kind = kind;
+        this.argument = argument;
+        this.command = command;
+        this.outcome = outcome;
+        this.remainingMinutes = remainingMinutes;
+        this.totalMinutes = totalMinutes;
+        this.detail = detail;
+        this.roundTripMs = roundTripMs;
+    }
+    
+    static HistoryRecord fromResult(CommandResult result, long timeMs) {
+        CommandTarget target = result.getTarget();
+        String command = result.getCommand();
+        Kind kind = Kind.OTHER;
+        long argument = -1;
+        if (command.equals("GET_TIME_LEFT")) {
+            kind = Kind.GET_TIME_LEFT;
+        } else if (command.equals("LOCK_DEVICE")) {
+            kind = Kind.LOCK_DEVICE;
+        } else if (command.startsWith(EXTEND_PREFIX)) {
+            argument = ChildResponse.parseLong(command, EXTEND_PREFIX.length(), command.length());
+            kind = argument >= 0 ? Kind.EXTEND_TIME : Kind.OTHER;
+        } else if (command.startsWith(StatusSubscriptions.SUBSCRIBE_COMMAND)) {
+            argument = ChildResponse.parseLong(command, StatusSubscriptions.SUBSCRIBE_COMMAND.length(), command.length());
+            kind = argument >= 0 ? Kind.SUBSCRIBE : Kind.OTHER;
+        }
+        if (kind == Kind.OTHER) {
+            argument = -1;
+        }
+        
+        Outcome outcome;
+        long remaining = -1;
+        long total = -1;
+        String detail;
+        if (!result.isSuccess()) {
+            outcome = Outcome.FAILED;
+            detail = String.valueOf(result.getError().getMessage());
+        } else {
+            ChildResponse response = ChildResponse.parse(result.getResponse());
+            if (response.getType() == ChildResponse.Type.ERROR) {
+                outcome = Outcome.CHILD_ERROR;
+                detail = response.getMessage();
+            } else if (response.getType() == ChildResponse.Type.TIME_LEFT) {
+                outcome = Outcome.OK;
+                remaining = response.getRemainingMinutes();
+                total = response.getTotalMinutes();
+                detail = response.getStatus();
+            } else {
+                outcome = Outcome.OK;
+                detail = result.getResponse();
+            }
+        }
+        return new HistoryRecord(timeMs, deviceTag(target.getDeviceId()), target.getAddress(), kind, argument,
+            kind == Kind.OTHER ? command : null, outcome, remaining, total, detail, result.getRoundTripMs());
+    }
+    
+    /**
+     * Stable 64-bit tag for a Device ID; salted so it reveals nothing about the CBC key
+     */
+    public static long deviceTag(String deviceId) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(TAG_SALT);
+            byte[] hash = digest.digest(deviceId.trim().getBytes(StandardCharsets.UTF_8));
+            long tag = 0;
+            for (int i = 0; i < 8; i++) {
+                tag = (tag << 8) | (hash[i] & 0xFF);
+            }
+            return tag;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+    
+    public long getTimeMs() {
+        return timeMs;
+    }
+    
+    public long getDeviceTag() {
+        return deviceTag;
+    }
+    
+    public String getAddress() {
+        return address;
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    /**
+     * Minutes for EXTEND_TIME, lease seconds for SUBSCRIBE, otherwise -1
+     */
+    public long getArgument() {
+        return argument;
+    }
+    
+    /**
+     * The command text as it was sent
+     */
+    public String getCommand() {
+        switch (kind) {
+            case GET_TIME_LEFT:
+                return "GET_TIME_LEFT";
+            case LOCK_DEVICE:
+                return "LOCK_DEVICE";
+            case EXTEND_TIME:
+                return EXTEND_PREFIX + argument;
+            case SUBSCRIBE:
+                return StatusSubscriptions.SUBSCRIBE_COMMAND + argument;
+            default:
+                return command;
+        }
+    }
+    
+    /**
+     * Free-form text for OTHER commands, otherwise null
+     */
+    String getCommandText() {
+        return command;
+    }
+    
+    public Outcome getOutcome() {
+        return outcome;
+    }
+    
+    /**
+     * Remaining minutes from a TIME_LEFT reply, otherwise -1
+     */
+    public long getRemainingMinutes() {
+        return remainingMinutes;
+    }
+    
+    public long getTotalMinutes() {
+        return totalMinutes;
+    }
+    
+    /**
+     * TIME_LEFT status, the child's message, or the failure reason
+     */
+    public String getDetail() {
+        return detail;
+    }
+    
+    public long getRoundTripMs() {
+        return roundTripMs;
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.childscreentime.parent.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with HDR-style log-linear buckets.
+ *
+ * Values in microseconds below 128 get exact buckets; above that every power of two is split
+ * into 64 linear sub-buckets, so any recorded value is reported within 1.6% of itself. The
+ * range tops out at MAX_MICROS (longer values are clamped) in 1331 counters, about 10 KB.
+ * Recording is a handful of atomic adds and never blocks, so it is safe on the selector thread.
+ */
+public final class LatencyHistogram {
+    
+    public static final long MAX_MICROS = 60L * 1000 * 1000;
+    
+    private static final int LINEAR_BUCKETS = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int BUCKET_COUNT = indexOf(MAX_MICROS) + 1;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    
+    /**
+     * Record one latency in microseconds; negative values count as zero
+     */
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_MICROS));
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // Retry until no smaller value has been stored concurrently
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until no larger value has been stored concurrently
+        }
+    }
+    
+    /**
+     * Point-in-time copy for reporting. Concurrent records may be partly included.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum(), min.get(), max.get());
+    }
+    
+    static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        // Shift so the top seven bits remain, leaving a sub-bucket in [64, 128)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+    
+    /**
+     * Largest value that lands in the same bucket as index
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+    
+    /**
+     * Immutable view of a histogram at one moment
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+        
+        Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+        
+        public long getCount() {
+            return count;
+        }
+        
+        /**
+         * Smallest recorded value in microseconds, or 0 if empty
+         */
+        public long getMinMicros() {
+            return count == 0 ? 0 : min;
+        }
+        
+        /**
+         * Largest recorded value in microseconds, or 0 if empty
+         */
+        public long getMaxMicros() {
+            return count == 0 ? 0 : max;
+        }
+        
+        public double getMeanMicros() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+        
+        /**
+         * Value in microseconds that percentile percent of recordings are at or below, e.g. 99.0
+         */
+        public long getValueAtPercentile(double percent) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(percent, 100.0) / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // The bucket bound can overshoot the true maximum; never report more than was seen
+                    return Math.min(highestEquivalentValue(i), getMaxMicros());
+                }
+            }
+            return getMaxMicros();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.childscreentime.parent.core;
+
+/**
+ * Symmetric message protection shared by a parent and one child.
+ * Implementations are thread-safe; failures surface as RuntimeException.
+ */
+public interface MessageCipher {
+    
+    /**
+     * Encrypt raw bytes, returning IV || ciphertext
+     */
+    byte[] encrypt(byte[] plaintext);
+    
+    /**
+     * Decrypt IV || ciphertext held in data[offset, offset + length)
+     */
+    byte[] decrypt(byte[] data, int offset, int length);
+    
+    /**
+     * Encrypt text for the legacy protocol, returning Base64
+     */
+    String encryptMessage(String message);
+    
+    /**
+     * Decrypt Base64 text from the legacy protocol
+     */
+    String decryptMessage(String encryptedMessage);
+    
+    /**
+     * Decrypt IV || ciphertext held in data[offset, offset + length) into UTF-8 text
+     */
+    String decryptText(byte[] data, int offset, int length);
+    
+    /**
+     * Decrypt legacy Base64 text held as bytes in data[offset, offset + length)
+     */
+    String decryptMessage(byte[] data, int offset, int length);
+}
@@ -0,0 +1,355 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Process-wide owner of parent networking work, independent of any Activity.
+ *
+ * Holds the shared CommandTransport and ChildCommandClient, a small fixed worker pool for the
+ * CPU work around a command (key derivation, encryption) and one timer thread shared by the
+ * background pollers. Commands submitted here are limited to MAX_IN_FLIGHT at once, with up to
+ * MAX_WAITING more queued in order; beyond that they fail fast with RejectedExecutionException
+ * instead of piling up. Read-only commands (GET_*) are deduplicated per device: while one is in
+ * flight, identical requests share its result. Callers tie requests to a Scope and cancel it
+ * when their screen goes away, which also abandons the requests on the wire.
+ */
+public final class NetworkScheduler {
+    
+    static final int WORKER_THREADS = 2;
+    static final int MAX_QUEUED_TASKS = 64;
+    public static final int MAX_IN_FLIGHT = 16;
+    public static final int MAX_WAITING = 64;
+    
+    private static final String TAG = "NetworkScheduler";
+    private static final NetworkScheduler INSTANCE = new NetworkScheduler();
+    
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Object lock = new Object();
+    private final Queue<QueuedCommand<?>> waiting = new ArrayDeque<>();
+    private final Map<String, CompletableFuture<String>> sharedReads = new ConcurrentHashMap<>();
+    private int inFlight;
+    private CommandTransport transport;
+    private ChildCommandClient client;
+    
+    private NetworkScheduler() {
+        workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_TASKS), daemonThreads("cst-network"));
+        workers.allowCoreThreadTimeOut(true);
+        timer = new ScheduledThreadPoolExecutor(1, daemonThreads("cst-network-timer"));
+        // Cancelled polls and renewals must not linger in the queue until their delay runs out
+        timer.setRemoveOnCancelPolicy(true);
+    }
+    
+    /**
+     * Scheduler over a caller-owned transport and client instead of the shared ones, for tools
+     * and tests that talk to children on another port. Its threads are daemons; closing the
+     * transport is up to the caller.
+     */
+    public NetworkScheduler(CommandTransport transport, ChildCommandClient client) {
+        this();
+        this.transport = transport;
+        this.client = client;
+    }
+    
+    public static NetworkScheduler getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * The shared command client, opening the transport on first use
+     */
+    public ChildCommandClient getClient() throws IOException {
+        synchronized (lock) {
+            if (client == null) {
+                transport = new CommandTransport();
+                client = new ChildCommandClient(transport);
+            }
+            return client;
+        }
+    }
+    
+    /**
+     * The transport behind getClient(), for event handlers and diagnostics
+     */
+    public CommandTransport getTransport() throws IOException {
+        getClient();
+        synchronized (lock) {
+            return transport;
+        }
+    }
+    
+    /**
+     * Single shared timer for periodic work; tasks must be short and never block
+     */
+    public ScheduledExecutorService getTimer() {
+        return timer;
+    }
+    
+    /**
+     * Run short background work on the bounded worker pool.
+     * Throws RejectedExecutionException when the queue is full.
+     */
+    public void execute(Runnable task) {
+        workers.execute(task);
+    }
+    
+    /**
+     * New scope for one screen or job; cancel it when that owner goes away
+     */
+    public Scope newScope() {
+        return new Scope();
+    }
+    
+    /**
+     * Send a command subject to the in-flight limit, sharing any identical read already in flight.
+     * Resolves with the decrypted response; fails with RejectedExecutionException under overload
+     * and is cancelled along with its scope.
+     */
+    public CompletableFuture<String> submit(Scope scope, CommandTarget target, String command, long timeoutMs) {
+        if (scope.isCancelled()) {
+            return cancelled();
+        }
+        if (!isReadOnly(command)) {
+            return scope.track(start(client -> client.send(target, command, timeoutMs)));
+        }
+        
+        String key = target.getDeviceId() + '|' + target.getAddress() + '|' + command;
+        CompletableFuture<String> shared = sharedReads.get(key);
+        if (shared == null) {
+            CompletableFuture<String> created = new CompletableFuture<>();
+            shared = sharedReads.putIfAbsent(key, created);
+            if (shared == null) {
+                shared = created;
+                created.whenComplete((response, error) -> sharedReads.remove(key, created));
+                startInto(created, client -> client.send(target, command, timeoutMs));
+            } else {
+                Log.d(TAG, "Joining in-flight " + command + " to " + target);
+            }
+        } else {
+            Log.d(TAG, "Joining in-flight " + command + " to " + target);
+        }
+        // Each caller gets its own view, so one screen cancelling does not fail the others
+        return scope.track(shared.thenApply(response -> response));
+    }
+    
+    /**
+     * Run several commands on one child in order as a single request (see ChildCommandClient.sendBatch).
+     * Takes one in-flight slot however many commands it holds, and is cancelled along with its scope.
+     */
+    public CompletableFuture<List<String>> submitBatch(Scope scope, CommandTarget target, List<String> commands,
+                                                      long timeoutMs) {
+        if (scope.isCancelled()) {
+            return cancelled();
+        }
+        return scope.track(start(client -> client.sendBatch(target, commands, timeoutMs)));
+    }
+    
+    /**
+     * Submit one command to every target. Resolves once all have finished, with one result per
+     * target in target order; targets beyond the in-flight limit wait their turn.
+     */
+    public CompletableFuture<List<CommandResult>> submitToAll(Scope scope, List<CommandTarget> targets,
+                                                              String command, long timeoutMs) {
+        List<CompletableFuture<CommandResult>> pending = new ArrayList<>(targets.size());
+        for (CommandTarget target : targets) {
+            long startNanos = System.nanoTime();
+            pending.add(submit(scope, target, command, timeoutMs).handle((response, error) -> new CommandResult(
+                target, command, response, ChildCommandClient.unwrap(error),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))));
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<CommandResult> results = new ArrayList<>(pending.size());
+            for (CompletableFuture<CommandResult> future : pending) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+    
+    /**
+     * Commands that only read state, so concurrent duplicates can share one answer
+     */
+    static boolean isReadOnly(String command) {
+        return command.startsWith("GET_");
+    }
+    
+    /**
+     * Commands running or waiting, for diagnostics
+     */
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return inFlight + waiting.size();
+        }
+    }
+    
+    private static <T> CompletableFuture<T> cancelled() {
+        CompletableFuture<T> cancelled = new CompletableFuture<>();
+        cancelled.cancel(false);
+        return cancelled;
+    }
+    
+    private <T> CompletableFuture<T> start(Function<ChildCommandClient, CompletableFuture<T>> action) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        startInto(result, action);
+        return result;
+    }
+    
+    private <T> void startInto(CompletableFuture<T> result, Function<ChildCommandClient, CompletableFuture<T>> action) {
+        QueuedCommand<T> queued = new QueuedCommand<>(result, action);
+        synchronized (lock) {
+            if (inFlight >= MAX_IN_FLIGHT) {
+                if (waiting.size() >= MAX_WAITING) {
+                    result.completeExceptionally(new RejectedExecutionException("Too many pending commands"));
+                    return;
+                }
+                waiting.add(queued);
+                // A caller giving up while queued frees its place straight away
+                result.whenComplete((response, error) -> {
+                    if (result.isCancelled()) {
+                        synchronized (lock) {
+                            waiting.remove(queued);
+                        }
+                    }
+                });
+                return;
+            }
+            inFlight++;
+        }
+        dispatch(queued);
+    }
+    
+    /**
+     * Hand a command that holds an in-flight slot to the workers
+     */
+    private void dispatch(QueuedCommand<?> queued) {
+        try {
+            workers.execute(() -> run(queued));
+        } catch (RejectedExecutionException e) {
+            queued.result.completeExceptionally(e);
+            release();
+        }
+    }
+    
+    private <T> void run(QueuedCommand<T> queued) {
+        if (queued.result.isDone()) {
+            release();
+            return;
+        }
+        CompletableFuture<T> sent;
+        try {
+            sent = queued.action.apply(getClient());
+        } catch (IOException | RuntimeException e) {
+            queued.result.completeExceptionally(e);
+            release();
+            return;
+        }
+        // Cancelling the caller's future abandons the request on the wire as well
+        queued.result.whenComplete((response, error) -> {
+            if (queued.result.isCancelled()) {
+                sent.cancel(false);
+            }
+        });
+        sent.whenComplete((response, error) -> {
+            if (error != null) {
+                queued.result.completeExceptionally(ChildCommandClient.unwrap(error));
+            } else {
+                queued.result.complete(response);
+            }
+            release();
+        });
+    }
+    
+    /**
+     * Give up an in-flight slot, passing it straight to the oldest waiting command if any
+     */
+    private void release() {
+        QueuedCommand<?> next;
+        synchronized (lock) {
+            do {
+                next = waiting.poll();
+            } while (next != null && next.result.isDone());
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        dispatch(next);
+    }
+    
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    /**
+     * Requests belonging to one owner, such as an Activity. Cancelling the scope cancels every
+     * request still outstanding and rejects new ones.
+     */
+    public static final class Scope {
+        private final Set<CompletableFuture<?>> outstanding = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+        
+        <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+            if (cancelled) {
+                future.cancel(false);
+                return future;
+            }
+            outstanding.add(future);
+            future.whenComplete((result, error) -> outstanding.remove(future));
+            // cancel() may have run between the check and the add
+            if (cancelled) {
+                future.cancel(false);
+            }
+            return future;
+        }
+        
+        public void cancel() {
+            cancelled = true;
+            for (CompletableFuture<?> future : outstanding) {
+                future.cancel(false);
+            }
+            outstanding.clear();
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        public int getOutstandingCount() {
+            return outstanding.size();
+        }
+    }
+    
+    private static final class QueuedCommand<T> {
+        final CompletableFuture<T> result;
+        final Function<ChildCommandClient, CompletableFuture<T>> action;
+        
+        QueuedCommand(CompletableFuture<T> result, Function<ChildCommandClient, CompletableFuture<T>> action) {
+            this.result = result;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.childscreentime.parent.core;
+
+import java.util.Arrays;
+
+/**
+ * A child the parent has been given a Device ID for, as kept by DeviceStore.
+ * Instances are immutable; the with* methods return updated copies.
+ */
+public final class PairedDevice {
+    
+    private final String deviceId;
+    private final String address;
+    private final String registryKey;
+    private final int frameVersion;
+    private final ParentEncryptionManager.CipherMode cipherMode;
+    private final byte[] derivedKey;
+    private final long lastSeenMs;
+    private final boolean signed;
+    
+    public PairedDevice(String deviceId, String address) {
+        this(deviceId.trim(), address, null, 0, ParentEncryptionManager.CipherMode.CBC, null, System.currentTimeMillis(), false);
+    }
+    
+    PairedDevice(String deviceId, String address, String registryKey, int frameVersion,
+                 ParentEncryptionManager.CipherMode cipherMode, byte[] derivedKey, long lastSeenMs, boolean signed) {
+        this.deviceId = deviceId;
+        this.address = address;
+        this.registryKey = registryKey;
+        this.frameVersion = frameVersion;
+        this.cipherMode = cipherMode;
+        this.derivedKey = derivedKey;
+        this.lastSeenMs = lastSeenMs;
+        this.signed = signed;
+    }
+    
+    public String getDeviceId() {
+        return deviceId;
+    }
+    
+    /**
+     * Last address the child answered from
+     */
+    public String getAddress() {
+        return address;
+    }
+    
+    /**
+     * DeviceRegistry key of the child, or null if it has not been discovered since pairing
+     */
+    public String getRegistryKey() {
+        return registryKey;
+    }
+    
+    public int getFrameVersion() {
+        return frameVersion;
+    }
+    
+    public ParentEncryptionManager.CipherMode getCipherMode() {
+        return cipherMode;
+    }
+    
+    /**
+     * Cached key bytes for getCipherMode(), or null if not derived yet
+     */
+    byte[] getDerivedKey() {
+        return derivedKey;
+    }
+    
+    public long getLastSeenMs() {
+        return lastSeenMs;
+    }
+    
+    /**
+     * Whether the child has ever sent a discovery reply signed for this Device ID. From then on
+     * only signed replies may move it to another address.
+     */
+    public boolean hasSigned() {
+        return signed;
+    }
+    
+    public String getDisplayName() {
+        return "Child Device: " + address;
+    }
+    
+    /**
+     * Target at the last-known address, for when discovery is not running
+     */
+    public CommandTarget toCommandTarget() {
+        return new CommandTarget(address, deviceId, frameVersion, cipherMode);
+    }
+    
+    /**
+     * Copy with the capabilities discovery last reported. A cipher change drops the cached key.
+     */
+    public PairedDevice withDiscovery(DiscoveredDevice device) {
+        byte[] key = device.getCipherMode() == cipherMode ? derivedKey : null;
+        return new PairedDevice(deviceId, device.getAddress(), device.getKey(), device.getFrameVersion(),
+            device.getCipherMode(), key, device.getLastSeenMs(), signed || device.isSignedBy(deviceId));
+    }
+    
+    PairedDevice withDerivedKey(byte[] key) {
+        return new PairedDevice(deviceId, address, registryKey, frameVersion, cipherMode, key, lastSeenMs, signed);
+    }
+    
+    /**
+     * Whether persisting other instead of this would change nothing but the last-seen time
+     */
+    boolean hasSameState(PairedDevice other) {
+        return other != null
+            && deviceId.equals(other.deviceId)
+            && address.equals(other.address)
+            && (registryKey == null ? other.registryKey == null : registryKey.equals(other.registryKey))
+            && frameVersion == other.frameVersion
+            && cipherMode == other.cipherMode
+            && signed == other.signed
+            && Arrays.equals(derivedKey, other.derivedKey);
+    }
+}
@@ -1,26 +1,141 @@
 package io.github.childscreentime.parent.core;
 
-import android.util.Base64;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.MessageDigest;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.crypto.spec.IvParameterSpec;
 
 /**
  * Manages encryption for parent-child communication using child device ID
  */
-public class ParentEncryptionManager {
+public class ParentEncryptionManager implements MessageCipher {
+    
+    /**
+     * Cipher suite used with a child. CBC is the original unauthenticated format; GCM adds
+     * an authentication tag so tampered datagrams fail before any plaintext is produced.
+     */
+    public enum CipherMode {
+        CBC("AES/CBC/PKCS5Padding", 16, 0),
+        GCM("AES/GCM/NoPadding", 12, 16);
+        
+        final String transformation;
+        final int ivLength;
+        final int tagLength;
+        
+        CipherMode(String transformation, int ivLength, int tagLength) {
+            this.transformation = transformation;
+            this.ivLength = ivLength;
+            this.tagLength = tagLength;
+        }
+    }
     
     private static final String ALGORITHM = "AES";
-    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final int AES_BLOCK_SIZE = 16;
+    
+    // Same text as android.util.Base64.DEFAULT (76-char lines, trailing newline) in plain Java
+    private static final Base64.Encoder BASE64_ENCODER = Base64.getMimeEncoder(76, new byte[] {'\n'});
+    private static final Base64.Decoder BASE64_DECODER = Base64.getMimeDecoder();
+    
+    // PBKDF2 parameters for GCM keys; the child derives the same key from the same inputs
+    private static final String KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final byte[] KDF_SALT = "CST-GCM-v1".getBytes(StandardCharsets.UTF_8);
+    private static final int KDF_ITERATIONS = 10000;
+    private static final int GCM_KEY_BITS = 256;
+    
+    // Derived keys and managers are immutable, so one instance per device and mode is shared by all
+    // threads. This doubles as the key-derivation cache: PBKDF2 runs once per device per process.
+    private static final Map<String, ParentEncryptionManager> MANAGERS = new ConcurrentHashMap<>();
     
+    // Cipher.getInstance and SecureRandom seeding are provider lookups; do them once per thread
+    private static final ThreadLocal<Cipher> CBC_CIPHER = cipherThreadLocal(CipherMode.CBC);
+    private static final ThreadLocal<Cipher> GCM_CIPHER = cipherThreadLocal(CipherMode.GCM);
+    private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+    private static final ThreadLocal<byte[]> IV_SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[AES_BLOCK_SIZE];
+        }
+    };
+    // Replies only become text for the UI, so plaintext is decrypted into a reused per-thread
+    // array; a rare oversized reply gets its own array rather than pinning a large one
+    private static final int PLAINTEXT_SCRATCH_SIZE = 2048;
+    private static final ThreadLocal<byte[]> PLAINTEXT_SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[PLAINTEXT_SCRATCH_SIZE];
+        }
+    };
+    
+    private final CipherMode mode;
     private SecretKey encryptionKey;
     
     public ParentEncryptionManager(String childDeviceId) {
-        this.encryptionKey = createKeyFromDeviceId(childDeviceId);
+        this(childDeviceId, CipherMode.CBC);
+    }
+    
+    public ParentEncryptionManager(String childDeviceId, CipherMode mode) {
+        this.mode = mode;
+        this.encryptionKey = mode == CipherMode.GCM
+            ? deriveGcmKey(childDeviceId)
+            : createKeyFromDeviceId(childDeviceId);
+    }
+    
+    private ParentEncryptionManager(CipherMode mode, SecretKey encryptionKey) {
+        this.mode = mode;
+        this.encryptionKey = encryptionKey;
+    }
+    
+    /**
+     * Get the shared legacy CBC manager for a child device, deriving its key only on first use
+     */
+    public static ParentEncryptionManager forDevice(String childDeviceId) {
+        return forDevice(childDeviceId, CipherMode.CBC);
+    }
+    
+    /**
+     * Get the shared manager for a child device and cipher mode, deriving its key only on first use
+     */
+    public static ParentEncryptionManager forDevice(String childDeviceId, CipherMode mode) {
+        return MANAGERS.computeIfAbsent(mode.name() + ':' + childDeviceId,
+            key -> new ParentEncryptionManager(childDeviceId, mode));
+    }
+    
+    /**
+     * Install a key derived in an earlier run so the first command skips PBKDF2
+     */
+    public static void restoreKey(String childDeviceId, CipherMode mode, byte[] keyBytes) {
+        MANAGERS.putIfAbsent(mode.name() + ':' + childDeviceId,
+            new ParentEncryptionManager(mode, new SecretKeySpec(keyBytes, ALGORITHM)));
+    }
+    
+    private static ThreadLocal<Cipher> cipherThreadLocal(final CipherMode mode) {
+        return new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                try {
+                    return Cipher.getInstance(mode.transformation);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("Cipher " + mode.transformation + " unavailable", e);
+                }
+            }
+        };
     }
     
     /**
@@ -33,38 +148,121 @@ public class ParentEncryptionManager {
             byte[] keyBytes = digest.digest(deviceId.getBytes(StandardCharsets.UTF_8));
             
             // Use first 16 bytes for AES-128
-            byte[] aesKeyBytes = new byte[16];
-            System.arraycopy(keyBytes, 0, aesKeyBytes, 0, 16);
-            
-            return new SecretKeySpec(aesKeyBytes, ALGORITHM);
+            return new SecretKeySpec(keyBytes, 0, 16, ALGORITHM);
         } catch (Exception e) {
             android.util.Log.e("ParentEncryptionManager", "Failed to create encryption key - parent discovery disabled", e);
             throw new RuntimeException("Key creation failed", e);
         }
     }
     
+    /**
+     * Stretch the device ID into an AES-256 key with PBKDF2-HMAC-SHA256
+     */
+    private SecretKey deriveGcmKey(String deviceId) {
+        PBEKeySpec spec = new PBEKeySpec(deviceId.toCharArray(), KDF_SALT, KDF_ITERATIONS, GCM_KEY_BITS);
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(KDF_ALGORITHM);
+            byte[] keyBytes = factory.generateSecret(spec).getEncoded();
+            return new SecretKeySpec(keyBytes, ALGORITHM);
+        } catch (Exception e) {
+            android.util.Log.e("ParentEncryptionManager", "Failed to derive GCM key - parent discovery disabled", e);
+            throw new RuntimeException("Key derivation failed", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+    
+    public CipherMode getCipherMode() {
+        return mode;
+    }
+    
+    /**
+     * Raw key bytes, for DeviceStore's key cache
+     */
+    byte[] getKeyBytes() {
+        return encryptionKey.getEncoded();
+    }
+    
     /**
      * Encrypt a message using the child device's encryption key
      */
+    @Override
     public String encryptMessage(String message) {
+        byte[] encryptedWithIv = encrypt(message.getBytes(StandardCharsets.UTF_8));
+        return BASE64_ENCODER.encodeToString(encryptedWithIv) + "\n";
+    }
+    
+    /**
+     * Decrypt a message using the child device's encryption key
+     */
+    @Override
+    public String decryptMessage(String encryptedMessage) {
+        byte[] encryptedWithIv;
         try {
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            
-            // Generate IV for CBC mode
-            byte[] iv = new byte[16]; // AES block size
-            new SecureRandom().nextBytes(iv);
-            IvParameterSpec ivSpec = new IvParameterSpec(iv);
-            
-            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, ivSpec);
-            
-            byte[] encryptedBytes = cipher.doFinal(message.getBytes(StandardCharsets.UTF_8));
+            encryptedWithIv = BASE64_DECODER.decode(encryptedMessage);
+        } catch (IllegalArgumentException e) {
+            android.util.Log.e("ParentEncryptionManager", "Failed to decrypt message - parent discovery disabled", e);
+            throw new RuntimeException("Message decryption failed", e);
+        }
+        byte[] decryptedBytes = decrypt(encryptedWithIv, 0, encryptedWithIv.length);
+        return new String(decryptedBytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Decrypt Base64 text held in data[offset, offset + length) without first building a String
+     */
+    @Override
+    public String decryptMessage(byte[] data, int offset, int length) {
+        ByteBuffer encryptedWithIv;
+        try {
+            encryptedWithIv = BASE64_DECODER.decode(ByteBuffer.wrap(data, offset, length));
+        } catch (IllegalArgumentException e) {
+            android.util.Log.e("ParentEncryptionManager", "Failed to decrypt message - parent discovery disabled", e);
+            throw new RuntimeException("Message decryption failed", e);
+        }
+        return decryptText(encryptedWithIv.array(), encryptedWithIv.arrayOffset(), encryptedWithIv.remaining());
+    }
+    
+    /**
+     * Decrypt IV || ciphertext held in data[offset, offset + length) straight into UTF-8 text
+     */
+    @Override
+    public String decryptText(byte[] data, int offset, int length) {
+        try {
+            checkCiphertextLength(length);
+            Cipher cipher = cipherForMode();
+            cipher.init(Cipher.DECRYPT_MODE, encryptionKey, parameterSpec(data, offset));
+            int inputLength = length - mode.ivLength;
+            int outputSize = cipher.getOutputSize(inputLength);
+            byte[] output = outputSize <= PLAINTEXT_SCRATCH_SIZE ? PLAINTEXT_SCRATCH.get() : new byte[outputSize];
+            int written = cipher.doFinal(data, offset + mode.ivLength, inputLength, output, 0);
+            return new String(output, 0, written, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            android.util.Log.e("ParentEncryptionManager", "Failed to decrypt message - parent discovery disabled", e);
+            throw new RuntimeException("Message decryption failed", e);
+        }
+    }
+    
+    /**
+     * Encrypt raw bytes, returning IV || ciphertext in a single array
+     */
+    @Override
+    public byte[] encrypt(byte[] plaintext) {
+        try {
+            byte[] iv = IV_SCRATCH.get();
+            Cipher cipher = initEncryptCipher(iv);
             
-            // Prepend IV to encrypted data
-            byte[] encryptedWithIv = new byte[iv.length + encryptedBytes.length];
-            System.arraycopy(iv, 0, encryptedWithIv, 0, iv.length);
-            System.arraycopy(encryptedBytes, 0, encryptedWithIv, iv.length, encryptedBytes.length);
+            // Write the IV and ciphertext straight into the output instead of concatenating afterwards
+            byte[] output = new byte[mode.ivLength + cipher.getOutputSize(plaintext.length)];
+            System.arraycopy(iv, 0, output, 0, mode.ivLength);
+            int written = cipher.doFinal(plaintext, 0, plaintext.length, output, mode.ivLength);
             
-            return Base64.encodeToString(encryptedWithIv, Base64.DEFAULT);
+            if (mode.ivLength + written == output.length) {
+                return output;
+            }
+            byte[] trimmed = new byte[mode.ivLength + written];
+            System.arraycopy(output, 0, trimmed, 0, trimmed.length);
+            return trimmed;
         } catch (Exception e) {
             android.util.Log.e("ParentEncryptionManager", "Failed to encrypt message - parent discovery disabled", e);
             throw new RuntimeException("Message encryption failed", e);
@@ -72,28 +270,90 @@ public class ParentEncryptionManager {
     }
     
     /**
-     * Decrypt a message using the child device's encryption key
+     * Decrypt IV || ciphertext held in data[offset, offset + length).
+     * In GCM mode a forged or corrupted message fails the tag check before any plaintext is returned.
      */
-    public String decryptMessage(String encryptedMessage) {
+    @Override
+    public byte[] decrypt(byte[] data, int offset, int length) {
         try {
-            byte[] encryptedWithIv = Base64.decode(encryptedMessage, Base64.DEFAULT);
-            
-            // Extract IV from the beginning
-            byte[] iv = new byte[16]; // AES block size
-            byte[] encryptedBytes = new byte[encryptedWithIv.length - 16];
-            
-            System.arraycopy(encryptedWithIv, 0, iv, 0, 16);
-            System.arraycopy(encryptedWithIv, 16, encryptedBytes, 0, encryptedBytes.length);
-            
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            IvParameterSpec ivSpec = new IvParameterSpec(iv);
-            cipher.init(Cipher.DECRYPT_MODE, encryptionKey, ivSpec);
-            
-            byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
-            return new String(decryptedBytes, StandardCharsets.UTF_8);
+            checkCiphertextLength(length);
+            Cipher cipher = cipherForMode();
+            cipher.init(Cipher.DECRYPT_MODE, encryptionKey, parameterSpec(data, offset));
+            return cipher.doFinal(data, offset + mode.ivLength, length - mode.ivLength);
+        } catch (Exception e) {
+            android.util.Log.e("ParentEncryptionManager", "Failed to decrypt message - parent discovery disabled", e);
+            throw new RuntimeException("Message decryption failed", e);
+        }
+    }
+    
+    /**
+     * Encrypt the remaining bytes of plaintext into output as IV || ciphertext.
+     * Returns the number of bytes written; output must have room for getEncryptedSize bytes.
+     */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer output) {
+        try {
+            byte[] iv = IV_SCRATCH.get();
+            Cipher cipher = initEncryptCipher(iv);
+            output.put(iv, 0, mode.ivLength);
+            return mode.ivLength + cipher.doFinal(plaintext, output);
+        } catch (Exception e) {
+            android.util.Log.e("ParentEncryptionManager", "Failed to encrypt message - parent discovery disabled", e);
+            throw new RuntimeException("Message encryption failed", e);
+        }
+    }
+    
+    /**
+     * Decrypt the remaining IV || ciphertext bytes of input into output.
+     * Returns the number of plaintext bytes written.
+     */
+    public int decrypt(ByteBuffer input, ByteBuffer output) {
+        try {
+            checkCiphertextLength(input.remaining());
+            byte[] iv = IV_SCRATCH.get();
+            input.get(iv, 0, mode.ivLength);
+            Cipher cipher = cipherForMode();
+            cipher.init(Cipher.DECRYPT_MODE, encryptionKey, parameterSpec(iv, 0));
+            return cipher.doFinal(input, output);
         } catch (Exception e) {
             android.util.Log.e("ParentEncryptionManager", "Failed to decrypt message - parent discovery disabled", e);
             throw new RuntimeException("Message decryption failed", e);
         }
     }
+    
+    /**
+     * Upper bound on the IV || ciphertext size for a plaintext of the given length
+     */
+    public int getEncryptedSize(int plaintextLength) {
+        if (mode == CipherMode.GCM) {
+            return mode.ivLength + plaintextLength + mode.tagLength;
+        }
+        return mode.ivLength + (plaintextLength / AES_BLOCK_SIZE + 1) * AES_BLOCK_SIZE;
+    }
+    
+    private void checkCiphertextLength(int length) {
+        // CBC needs at least one padded block, GCM at least the tag
+        int minimum = mode.ivLength + (mode == CipherMode.GCM ? mode.tagLength : AES_BLOCK_SIZE);
+        if (length < minimum) {
+            throw new IllegalArgumentException("Ciphertext too short: " + length + " bytes");
+        }
+    }
+    
+    private Cipher cipherForMode() {
+        return mode == CipherMode.GCM ? GCM_CIPHER.get() : CBC_CIPHER.get();
+    }
+    
+    private AlgorithmParameterSpec parameterSpec(byte[] iv, int offset) {
+        if (mode == CipherMode.GCM) {
+            return new GCMParameterSpec(mode.tagLength * 8, iv, offset, mode.ivLength);
+        }
+        return new IvParameterSpec(iv, offset, mode.ivLength);
+    }
+    
+    private Cipher initEncryptCipher(byte[] iv) throws GeneralSecurityException {
+        // Fresh random IV per message; GCM uses the first 12 bytes as its nonce
+        RANDOM.get().nextBytes(iv);
+        Cipher cipher = cipherForMode();
+        cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, parameterSpec(iv, 0));
+        return cipher;
+    }
 }
@@ -0,0 +1,70 @@
+package io.github.childscreentime.parent.core;
+
+/**
+ * Per-device round-trip estimator following RFC 6298: SRTT and RTTVAR are smoothed from
+ * samples taken only on first transmissions (Karn's rule), and the retransmission timeout
+ * is SRTT + 4 * RTTVAR, clamped to bounds suited to a home LAN.
+ */
+public class RttEstimator {
+    
+    static final long INITIAL_RTO_MS = 500;
+    static final long MIN_RTO_MS = 100;
+    static final long MAX_RTO_MS = 2000;
+    
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    
+    private double srttMs = -1;
+    private double rttvarMs;
+    private long rtoMs = INITIAL_RTO_MS;
+    private int samples;
+    
+    /**
+     * Feed one RTT measurement from a request that was answered without retransmission
+     */
+    public synchronized void addSample(long rttMs) {
+        if (srttMs < 0) {
+            srttMs = rttMs;
+            rttvarMs = rttMs / 2.0;
+        } else {
+            rttvarMs = (1 - BETA) * rttvarMs + BETA * Math.abs(srttMs - rttMs);
+            srttMs = (1 - ALPHA) * srttMs + ALPHA * rttMs;
+        }
+        samples++;
+        rtoMs = clamp(Math.round(srttMs + Math.max(1, 4 * rttvarMs)));
+    }
+    
+    /**
+     * Current retransmission timeout for a first transmission
+     */
+    public synchronized long getRtoMs() {
+        return rtoMs;
+    }
+    
+    /**
+     * Timeout for the given retransmission attempt (0 = first send), doubling each time
+     */
+    public long getBackoffRtoMs(int attempt) {
+        long rto = getRtoMs();
+        return clamp(rto << Math.min(attempt, 5));
+    }
+    
+    /**
+     * Smoothed RTT, or -1 before the first sample
+     */
+    public synchronized long getSmoothedRttMs() {
+        return srttMs < 0 ? -1 : Math.round(srttMs);
+    }
+    
+    public synchronized long getRttVarianceMs() {
+        return Math.round(rttvarMs);
+    }
+    
+    public synchronized int getSampleCount() {
+        return samples;
+    }
+    
+    private static long clamp(long rto) {
+        return Math.max(MIN_RTO_MS, Math.min(MAX_RTO_MS, rto));
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.childscreentime.parent.core;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+
+/**
+ * A parent-defined rule that sends one command to one child, either at a time of day on chosen
+ * weekdays ("LOCK_DEVICE at 21:00 on weekdays") or when the child reports an event ("EXTEND_TIME:15
+ * once a day when time runs out"). Instances are immutable; ActionScheduler keeps the run state.
+ */
+public final class ScheduleRule {
+    
+    public enum Trigger {
+        AT_TIME,
+        ON_EVENT
+    }
+    
+    /** Day bits, Monday first, as DayOfWeek.getValue() - 1 */
+    public static final int WEEKDAYS = 0x1F;
+    public static final int WEEKENDS = 0x60;
+    public static final int EVERY_DAY = 0x7F;
+    /** No limit on how often an event rule may run per day */
+    public static final int UNLIMITED = 0;
+    
+    private final String id;
+    private final String deviceId;
+    private final String command;
+    private final Trigger trigger;
+    private final int minuteOfDay;
+    private final int days;
+    private final ChildEvent.Type eventType;
+    private final int maxRunsPerDay;
+    
+    ScheduleRule(String id, String deviceId, String command, Trigger trigger, int minuteOfDay, int days,
+                 ChildEvent.Type eventType, int maxRunsPerDay) {
+        this.id = id;
+        this.deviceId = deviceId;
+        this.command = command;
+        this.trigger = trigger;
+        this.minuteOfDay = minuteOfDay;
+        this.days = days;
+        this.eventType = eventType;
+        this.maxRunsPerDay = maxRunsPerDay;
+    }
+    
+    /**
+     * Send the command at the given local time on each day in the days mask
+     */
+    public static ScheduleRule atTime(String deviceId, int hour, int minute, int days, String command) {
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            throw new IllegalArgumentException("Bad time " + hour + ":" + minute);
+        }
+        if ((days & EVERY_DAY) == 0) {
+            throw new IllegalArgumentException("No days selected");
+        }
+        return new ScheduleRule(UUID.randomUUID().toString(), deviceId.trim(), command, Trigger.AT_TIME,
+            hour * 60 + minute, days & EVERY_DAY, null, 1);
+    }
+    
+    /**
+     * Send the command when the child pushes an event of this type, at most maxRunsPerDay times
+     * a day (UNLIMITED for no limit)
+     */
+    public static ScheduleRule onEvent(String deviceId, ChildEvent.Type eventType, int maxRunsPerDay, String command) {
+        if (eventType == ChildEvent.Type.UNKNOWN || maxRunsPerDay < 0 || maxRunsPerDay > 255) {
+            throw new IllegalArgumentException("Bad event rule " + eventType + " x" + maxRunsPerDay);
+        }
+        return new ScheduleRule(UUID.randomUUID().toString(), deviceId.trim(), command, Trigger.ON_EVENT,
+            0, EVERY_DAY, eventType, maxRunsPerDay);
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public String getDeviceId() {
+        return deviceId;
+    }
+    
+    /**
+     * Command sent through the normal command path, e.g. "LOCK_DEVICE" or "EXTEND_TIME:15"
+     */
+    public String getCommand() {
+        return command;
+    }
+    
+    public Trigger getTrigger() {
+        return trigger;
+    }
+    
+    /**
+     * Local time of an AT_TIME rule, in minutes after midnight
+     */
+    public int getMinuteOfDay() {
+        return minuteOfDay;
+    }
+    
+    public int getDays() {
+        return days;
+    }
+    
+    /**
+     * Event type of an ON_EVENT rule, or null
+     */
+    public ChildEvent.Type getEventType() {
+        return eventType;
+    }
+    
+    public int getMaxRunsPerDay() {
+        return maxRunsPerDay;
+    }
+    
+    public boolean runsOn(DayOfWeek day) {
+        return (days & (1 << (day.getValue() - 1))) != 0;
+    }
+    
+    /**
+     * First occurrence of an AT_TIME rule strictly after the given time, or Long.MAX_VALUE
+     */
+    public long nextTimeAfter(long afterMs, ZoneId zone) {
+        if (trigger != Trigger.AT_TIME) {
+            return Long.MAX_VALUE;
+        }
+        LocalDate date = Instant.ofEpochMilli(afterMs).atZone(zone).toLocalDate();
+        // Eight days covers a rule for one weekday whose time today has already passed
+        for (int i = 0; i <= 7; i++, date = date.plusDays(1)) {
+            long atMs = occurrenceOn(date, zone);
+            if (atMs > afterMs && runsOn(date.getDayOfWeek())) {
+                return atMs;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    /**
+     * Latest occurrence of an AT_TIME rule at or before the given time, or Long.MIN_VALUE
+     */
+    public long lastTimeAtOrBefore(long atOrBeforeMs, ZoneId zone) {
+        if (trigger != Trigger.AT_TIME) {
+            return Long.MIN_VALUE;
+        }
+        LocalDate date = Instant.ofEpochMilli(atOrBeforeMs).atZone(zone).toLocalDate();
+        for (int i = 0; i <= 7; i++, date = date.minusDays(1)) {
+            long atMs = occurrenceOn(date, zone);
+            if (atMs <= atOrBeforeMs && runsOn(date.getDayOfWeek())) {
+                return atMs;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+    
+    private long occurrenceOn(LocalDate date, ZoneId zone) {
+        // A time skipped by a DST change moves forward to the first valid instant
+        return ZonedDateTime.of(date, LocalTime.of(minuteOfDay / 60, minuteOfDay % 60), zone).toInstant().toEpochMilli();
+    }
+    
+    public String getDescription() {
+        if (trigger == Trigger.AT_TIME) {
+            return command + " at " + String.format("%02d:%02d", minuteOfDay / 60, minuteOfDay % 60) + " " + describeDays();
+        }
+        String limit = maxRunsPerDay == UNLIMITED ? "" : maxRunsPerDay == 1 ? " once a day" : " up to " + maxRunsPerDay + "x a day";
+        return command + " on " + eventType + limit;
+    }
+    
+    private String describeDays() {
+        switch (days) {
+            case EVERY_DAY:
+                return "every day";
+            case WEEKDAYS:
+                return "on weekdays";
+            case WEEKENDS:
+                return "at weekends";
+            default:
+                StringBuilder names = new StringBuilder("on");
+                for (DayOfWeek day : DayOfWeek.values()) {
+                    if (runsOn(day)) {
+                        names.append(' ').append(day.name().substring(0, 3));
+                    }
+                }
+                return names.toString();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return deviceId + ": " + getDescription();
+    }
+}
@@ -0,0 +1,264 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscribes to pushed status events from children and dispatches them to listeners.
+ *
+ * A child that accepts "SUBSCRIBE:&lt;seconds&gt;" answers "SUBSCRIBED|&lt;seconds&gt;" and then sends
+ * encrypted ChildEvents to the socket the command came from, i.e. the shared CommandTransport.
+ * Subscriptions are leases: they are renewed at half the granted lease, and a child that never
+ * hears a renewal simply stops pushing. Children that reject the command stay pull-only.
+ * Subscribes and renewals go through NetworkScheduler under this object's own Scope, which
+ * shutdown cancels.
+ */
+public class StatusSubscriptions {
+    
+    public interface Listener {
+        void onChildEvent(ChildEvent event);
+        
+        /**
+         * Push delivery for a child started or stopped; pollers can slow down while it is active
+         */
+        void onSubscriptionChanged(CommandTarget target, boolean active);
+    }
+    
+    static final String SUBSCRIBE_COMMAND = "SUBSCRIBE:";
+    static final String UNSUBSCRIBE_COMMAND = "UNSUBSCRIBE";
+    static final long LEASE_SECONDS = 300;
+    // Renewal failures are retried on this delay before the subscription is given up
+    static final long RETRY_DELAY_MS = 15000;
+    
+    private static final String TAG = "StatusSubscriptions";
+    
+    private final NetworkScheduler networkScheduler;
+    private final NetworkScheduler.Scope scope;
+    private final long timeoutMs;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    
+    public StatusSubscriptions(CommandTransport transport, NetworkScheduler networkScheduler, long timeoutMs) {
+        this.networkScheduler = networkScheduler;
+        this.scope = networkScheduler.newScope();
+        this.timeoutMs = timeoutMs;
+        this.scheduler = networkScheduler.getTimer();
+        transport.setEventHandler(this::onEvent);
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Subscribe to a child's events, keyed by device ID. Resolves true if the child accepted.
+     * Subscribing again after the child moved re-subscribes from its new address.
+     */
+    public CompletableFuture<Boolean> subscribe(CommandTarget target) {
+        Subscription subscription = subscriptions.computeIfAbsent(target.getDeviceId(), key -> new Subscription(target));
+        synchronized (subscription) {
+            if (subscription.active && subscription.target.getAddress().equals(target.getAddress())) {
+                CompletableFuture<Boolean> accepted = new CompletableFuture<>();
+                accepted.complete(true);
+                return accepted;
+            }
+            subscription.target = target;
+        }
+        return renew(subscription);
+    }
+    
+    /**
+     * Stop a child's events; the child is told so it can drop the lease early
+     */
+    public void unsubscribe(String deviceId) {
+        unsubscribe(deviceId, scope);
+    }
+    
+    private void unsubscribe(String deviceId, NetworkScheduler.Scope requestScope) {
+        Subscription subscription = subscriptions.remove(deviceId.trim());
+        if (subscription == null) {
+            return;
+        }
+        boolean wasActive;
+        synchronized (subscription) {
+            subscription.cancelRenewal();
+            wasActive = subscription.active;
+            subscription.active = false;
+        }
+        if (wasActive) {
+            networkScheduler.submit(requestScope, subscription.target, UNSUBSCRIBE_COMMAND, timeoutMs);
+            notifySubscriptionChanged(subscription.target, false);
+        }
+    }
+    
+    public boolean isSubscribed(String deviceId) {
+        Subscription subscription = subscriptions.get(deviceId.trim());
+        return subscription != null && subscription.active;
+    }
+    
+    /**
+     * Release every lease and stop renewing
+     */
+    public void shutdown() {
+        // Abandon subscribes still on the wire; the goodbyes go out under a scope of their own
+        scope.cancel();
+        NetworkScheduler.Scope farewell = networkScheduler.newScope();
+        for (String deviceId : subscriptions.keySet()) {
+            unsubscribe(deviceId, farewell);
+        }
+    }
+    
+    private CompletableFuture<Boolean> renew(Subscription subscription) {
+        CommandTarget target = subscription.target;
+        CompletableFuture<String> sent = networkScheduler.submit(scope, target, SUBSCRIBE_COMMAND + LEASE_SECONDS, timeoutMs);
+        return sent.handle((response, failure) -> {
+            if (sent.isCancelled()) {
+                return false; // Shut down; the subscription is being released anyway
+            }
+            long leaseSeconds = failure == null ? grantedLease(response) : -1;
+            if (failure != null) {
+                Log.d(TAG, "Subscription to " + target + " failed: " + ChildCommandClient.unwrap(failure).getMessage());
+            } else if (leaseSeconds <= 0) {
+                Log.d(TAG, target + " does not support subscriptions: " + response);
+            }
+            onRenewed(subscription, target, leaseSeconds, failure != null);
+            return leaseSeconds > 0;
+        });
+    }
+    
+    private void onRenewed(Subscription subscription, CommandTarget target, long leaseSeconds, boolean networkError) {
+        boolean changed;
+        synchronized (subscription) {
+            if (subscriptions.get(target.getDeviceId()) != subscription) {
+                return; // Unsubscribed while the request was in flight
+            }
+            boolean wasActive = subscription.active;
+            subscription.cancelRenewal();
+            if (leaseSeconds > 0) {
+                subscription.active = true;
+                subscription.retried = false;
+                scheduleRenewal(subscription, TimeUnit.SECONDS.toMillis(leaseSeconds) / 2);
+            } else if (networkError && wasActive && !subscription.retried) {
+                // One lost renewal does not end the lease yet; try once more before it runs out
+                subscription.retried = true;
+                scheduleRenewal(subscription, RETRY_DELAY_MS);
+            } else {
+                subscription.active = false;
+            }
+            changed = wasActive != subscription.active;
+        }
+        if (changed) {
+            notifySubscriptionChanged(target, subscription.active);
+        }
+    }
+    
+    private void scheduleRenewal(Subscription subscription, long delayMs) {
+        try {
+            subscription.renewal = scheduler.schedule(() -> renew(subscription), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "Subscriptions shut down, not renewing " + subscription.target);
+        }
+    }
+    
+    private static long grantedLease(String response) {
+        ChildResponse parsed = ChildResponse.parse(response);
+        if (parsed.getType() != ChildResponse.Type.SUBSCRIBED) {
+            return -1;
+        }
+        String lease = parsed.getMessage();
+        long seconds = ChildResponse.parseLong(lease, 0, lease.length());
+        // A child may grant a shorter lease than asked; never renew more often than every few seconds
+        return seconds == Long.MIN_VALUE ? LEASE_SECONDS : Math.max(10, seconds);
+    }
+    
+    private void onEvent(InetSocketAddress source, byte[] data) {
+        TransportMetrics metrics = TransportMetrics.getInstance();
+        Subscription subscription = findByAddress(source.getAddress().getHostAddress());
+        if (subscription == null) {
+            metrics.increment(TransportMetrics.Counter.UNEXPECTED_RESPONSES);
+            Log.d(TAG, "Dropping event from unsubscribed " + source);
+            return;
+        }
+        
+        CommandTarget target = subscription.target;
+        String plaintext;
+        try {
+            plaintext = decrypt(target, data);
+        } catch (RuntimeException | ProtocolException e) {
+            // Wrong key or, in GCM mode, a forged datagram
+            metrics.increment(TransportMetrics.Counter.DECRYPT_FAILURES);
+            Log.w(TAG, "Rejected event from " + source + ": " + e.getMessage());
+            return;
+        }
+        
+        metrics.increment(TransportMetrics.Counter.EVENTS_RECEIVED);
+        ChildEvent event = ChildEvent.parse(target, plaintext, System.currentTimeMillis());
+        Log.d(TAG, "Event from " + target + ": " + plaintext);
+        for (Listener listener : listeners) {
+            listener.onChildEvent(event);
+        }
+    }
+    
+    private Subscription findByAddress(String address) {
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.target.getAddress().equals(address)) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+    
+    private static String decrypt(CommandTarget target, byte[] data) throws ProtocolException {
+        MessageCipher encryptionManager =
+            ParentEncryptionManager.forDevice(target.getDeviceId(), target.getCipherMode());
+        if (WireFrame.isFrame(data, 0, data.length)) {
+            WireFrame frame = WireFrame.decode(data, 0, data.length);
+            return encryptionManager.decryptText(frame.getBuffer(), frame.getPayloadOffset(), frame.getPayloadLength());
+        }
+        // isEvent already matched the ASCII prefix; the MIME decoder skips the trailing newline
+        int prefixLength = ChildEvent.EVENT_PREFIX.length();
+        return encryptionManager.decryptMessage(data, prefixLength, data.length - prefixLength);
+    }
+    
+    private void notifySubscriptionChanged(CommandTarget target, boolean active) {
+        for (Listener listener : listeners) {
+            listener.onSubscriptionChanged(target, active);
+        }
+    }
+    
+    /**
+     * Lease state for one child
+     */
+    private static final class Subscription {
+        volatile CommandTarget target;
+        volatile boolean active;
+        boolean retried;
+        ScheduledFuture<?> renewal;
+        
+        Subscription(CommandTarget target) {
+            this.target = target;
+        }
+        
+        void cancelRenewal() {
+            if (renewal != null) {
+                renewal.cancel(false);
+                renewal = null;
+            }
+        }
+    }
+}
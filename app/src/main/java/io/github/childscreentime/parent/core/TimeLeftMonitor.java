@@ -0,0 +1,359 @@
+package io.github.childscreentime.parent.core;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a cached TIME_LEFT snapshot for every watched child by polling it in the background.
+ *
+ * Each child gets its own interval: short when its time is running out, long once its remaining
+ * time stops moving or it stops answering. At most one GET_TIME_LEFT is in flight per child;
+ * a refresh requested while a poll is outstanding shares that poll's result. Listeners hear
+ * about a child only when its snapshot actually changes. Children that push their status
+ * (see StatusSubscriptions) are only polled at the maximum interval as a safety net. Polls go
+ * through NetworkScheduler under the monitor's own Scope, so they count against its in-flight
+ * limit and share an answer with a GET_TIME_LEFT the user sends at the same moment.
+ */
+public class TimeLeftMonitor {
+    
+    public interface Listener {
+        void onSnapshotChanged(TimeLeftSnapshot snapshot);
+    }
+    
+    public static final String POLL_COMMAND = "GET_TIME_LEFT";
+    static final long MIN_INTERVAL_MS = 5000;
+    static final long ACTIVE_INTERVAL_MS = 60000;
+    static final long MAX_INTERVAL_MS = 120000;
+    static final long ERROR_INTERVAL_MS = 10000;
+    // While time is being used, poll every 2 s per remaining minute (5 min left -> every 10 s)
+    static final long INTERVAL_PER_REMAINING_MINUTE_MS = 2000;
+    // Remaining time that has not moved for this long means nobody is using the child
+    static final long IDLE_AFTER_MS = 150000;
+    
+    private static final String TAG = "TimeLeftMonitor";
+    
+    private final NetworkScheduler networkScheduler;
+    private final NetworkScheduler.Scope scope;
+    private final long timeoutMs;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+    
+    public TimeLeftMonitor(NetworkScheduler networkScheduler, long timeoutMs) {
+        this.networkScheduler = networkScheduler;
+        this.scope = networkScheduler.newScope();
+        this.timeoutMs = timeoutMs;
+        this.scheduler = networkScheduler.getTimer();
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Start or update polling for a child, keyed by its device ID. Re-watching with a new
+     * address (after a DHCP change) keeps the cached snapshot and schedule.
+     */
+    public void watch(CommandTarget target) {
+        Watch created = null;
+        synchronized (watches) {
+            Watch watch = watches.get(target.getDeviceId());
+            if (watch == null) {
+                created = new Watch(target);
+                watches.put(target.getDeviceId(), created);
+            } else {
+                watch.target = target;
+            }
+        }
+        if (created != null && running) {
+            schedule(created, 0);
+        }
+    }
+    
+    public void unwatch(String deviceId) {
+        Watch watch = watches.remove(deviceId.trim());
+        if (watch != null) {
+            synchronized (watch) {
+                watch.cancelScheduled();
+            }
+        }
+    }
+    
+    /**
+     * Mark a child as pushing its own status changes, stretching its polls to the maximum interval
+     */
+    public void setPushActive(String deviceId, boolean active) {
+        Watch watch = watches.get(deviceId.trim());
+        if (watch == null) {
+            return;
+        }
+        synchronized (watch) {
+            watch.pushActive = active;
+            if (active) {
+                watch.intervalMs = MAX_INTERVAL_MS;
+            }
+        }
+        if (running) {
+            // Push just stopped: poll now rather than waiting out the long interval
+            schedule(watch, active ? MAX_INTERVAL_MS : 0);
+        }
+    }
+    
+    /**
+     * Fold a pushed event into the cached snapshot. Events without time fields trigger a poll.
+     */
+    public void applyEvent(ChildEvent event) {
+        Watch watch = watches.get(event.getSource().getDeviceId());
+        if (watch == null) {
+            return;
+        }
+        if (!event.hasTimeLeft()) {
+            poll(watch);
+            return;
+        }
+        
+        TimeLeftSnapshot snapshot = new TimeLeftSnapshot(event.getSource().getDeviceId(), event.getSource().getAddress(),
+            event.getRemainingMinutes(), event.getTotalMinutes(), event.getStatus(), null, event.getReceivedAtMs());
+        update(watch, snapshot, event.getReceivedAtMs());
+    }
+    
+    /**
+     * Fold a GET_TIME_LEFT response obtained outside the poll schedule, such as the last part of
+     * a batch, into the cached snapshot. Other responses are ignored.
+     */
+    public void applyResponse(CommandTarget target, String response) {
+        Watch watch = watches.get(target.getDeviceId());
+        ChildResponse parsed = ChildResponse.parse(response);
+        if (watch == null || parsed.getType() != ChildResponse.Type.TIME_LEFT) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        update(watch, TimeLeftSnapshot.fromResponse(target, parsed, now), now);
+    }
+    
+    private void update(Watch watch, TimeLeftSnapshot snapshot, long nowMs) {
+        TimeLeftSnapshot previous;
+        synchronized (watch) {
+            previous = watch.snapshot;
+            if (previous == null || snapshot.getRemainingMinutes() != previous.getRemainingMinutes()) {
+                watch.remainingChangedAtMs = nowMs;
+            }
+            watch.snapshot = snapshot;
+        }
+        if (!snapshot.hasSameState(previous)) {
+            for (Listener listener : listeners) {
+                listener.onSnapshotChanged(snapshot);
+            }
+        }
+    }
+    
+    /**
+     * Begin background polling; every watched child is refreshed immediately
+     */
+    public void start() {
+        running = true;
+        for (Watch watch : watches.values()) {
+            schedule(watch, 0);
+        }
+    }
+    
+    /**
+     * Pause background polling, keeping cached snapshots. Explicit refreshes still work.
+     */
+    public void stop() {
+        running = false;
+        for (Watch watch : watches.values()) {
+            synchronized (watch) {
+                watch.cancelScheduled();
+            }
+        }
+    }
+    
+    /**
+     * Stop polling for good and abandon polls still on the wire; the shared timer keeps running
+     * for everyone else
+     */
+    public void shutdown() {
+        stop();
+        watches.clear();
+        scope.cancel();
+    }
+    
+    /**
+     * Poll a watched child now, joining the poll already in flight if there is one
+     */
+    public CompletableFuture<TimeLeftSnapshot> refresh(String deviceId) {
+        Watch watch = watches.get(deviceId.trim());
+        if (watch == null) {
+            CompletableFuture<TimeLeftSnapshot> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException("Device not watched: " + deviceId));
+            return failed;
+        }
+        return poll(watch);
+    }
+    
+    /**
+     * Cached snapshot for a child, or null if it has not been polled yet
+     */
+    public TimeLeftSnapshot getSnapshot(String deviceId) {
+        Watch watch = watches.get(deviceId.trim());
+        return watch != null ? watch.snapshot : null;
+    }
+    
+    public List<TimeLeftSnapshot> getSnapshots() {
+        List<TimeLeftSnapshot> snapshots = new ArrayList<>();
+        for (Watch watch : watches.values()) {
+            TimeLeftSnapshot snapshot = watch.snapshot;
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        return snapshots;
+    }
+    
+    private void schedule(Watch watch, long delayMs) {
+        synchronized (watch) {
+            if (watch.inFlight != null) {
+                return; // The outstanding poll reschedules on completion
+            }
+            watch.cancelScheduled();
+            try {
+                watch.scheduled = scheduler.schedule(() -> poll(watch), delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                Log.d(TAG, "Monitor shut down, not scheduling " + watch.target);
+            }
+        }
+    }
+    
+    private CompletableFuture<TimeLeftSnapshot> poll(Watch watch) {
+        CompletableFuture<TimeLeftSnapshot> result;
+        CommandTarget target;
+        synchronized (watch) {
+            if (watch.inFlight != null) {
+                return watch.inFlight;
+            }
+            watch.cancelScheduled();
+            result = new CompletableFuture<>();
+            watch.inFlight = result;
+            target = watch.target;
+        }
+        
+        networkScheduler.submit(scope, target, POLL_COMMAND, timeoutMs)
+            .whenComplete((response, failure) -> onPolled(watch, target, result, response, failure));
+        return result;
+    }
+    
+    private void onPolled(Watch watch, CommandTarget target, CompletableFuture<TimeLeftSnapshot> result,
+                          String response, Throwable failure) {
+        long now = System.currentTimeMillis();
+        Throwable error = failure != null ? ChildCommandClient.unwrap(failure) : null;
+        if (error instanceof CancellationException) {
+            // Shut down mid-poll; the child was not unreachable, so leave its snapshot alone
+            synchronized (watch) {
+                watch.inFlight = null;
+            }
+            result.completeExceptionally(error);
+            return;
+        }
+        TimeLeftSnapshot previous = watch.snapshot;
+        TimeLeftSnapshot snapshot;
+        
+        if (error == null) {
+            ChildResponse parsed = ChildResponse.parse(response);
+            if (parsed.getType() == ChildResponse.Type.TIME_LEFT) {
+                snapshot = TimeLeftSnapshot.fromResponse(target, parsed, now);
+            } else {
+                error = new IllegalStateException(parsed.getType() == ChildResponse.Type.ERROR
+                    ? parsed.getMessage() : "Unexpected response: " + response);
+                snapshot = TimeLeftSnapshot.unreachable(target, previous, error.getMessage(), now);
+            }
+        } else {
+            snapshot = TimeLeftSnapshot.unreachable(target, previous, error.getMessage(), now);
+        }
+        
+        boolean changed = !snapshot.hasSameState(previous);
+        synchronized (watch) {
+            if (previous == null || snapshot.getRemainingMinutes() != previous.getRemainingMinutes()) {
+                watch.remainingChangedAtMs = now;
+            }
+            watch.snapshot = snapshot;
+            watch.intervalMs = watch.pushActive && snapshot.isReachable()
+                ? MAX_INTERVAL_MS
+                : nextInterval(snapshot, now - watch.remainingChangedAtMs, watch.intervalMs);
+            watch.inFlight = null;
+        }
+        
+        if (running && watches.get(target.getDeviceId()) == watch) {
+            schedule(watch, watch.intervalMs);
+        }
+        if (changed) {
+            for (Listener listener : listeners) {
+                listener.onSnapshotChanged(snapshot);
+            }
+        }
+        
+        if (error != null) {
+            result.completeExceptionally(error);
+        } else {
+            result.complete(snapshot);
+        }
+    }
+    
+    /**
+     * Pick the delay before the next poll from the latest snapshot
+     */
+    static long nextInterval(TimeLeftSnapshot snapshot, long unchangedForMs, long previousIntervalMs) {
+        if (!snapshot.isReachable()) {
+            return clamp(Math.max(ERROR_INTERVAL_MS, previousIntervalMs * 2));
+        }
+        if (snapshot.getRemainingMinutes() <= 0 || unchangedForMs >= IDLE_AFTER_MS) {
+            // Locked, out of time or not in use: back off towards the maximum
+            return clamp(Math.max(ACTIVE_INTERVAL_MS, previousIntervalMs * 2));
+        }
+        long byRemaining = snapshot.getRemainingMinutes() * INTERVAL_PER_REMAINING_MINUTE_MS;
+        return Math.max(MIN_INTERVAL_MS, Math.min(ACTIVE_INTERVAL_MS, byRemaining));
+    }
+    
+    private static long clamp(long intervalMs) {
+        return Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, intervalMs));
+    }
+    
+    /**
+     * Polling state for one child
+     */
+    private static final class Watch {
+        volatile CommandTarget target;
+        volatile TimeLeftSnapshot snapshot;
+        CompletableFuture<TimeLeftSnapshot> inFlight;
+        ScheduledFuture<?> scheduled;
+        long intervalMs = MIN_INTERVAL_MS;
+        long remainingChangedAtMs;
+        boolean pushActive;
+        
+        Watch(CommandTarget target) {
+            this.target = target;
+        }
+        
+        void cancelScheduled() {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+        }
+    }
+}
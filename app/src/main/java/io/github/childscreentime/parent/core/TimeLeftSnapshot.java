@@ -0,0 +1,96 @@
+package io.github.childscreentime.parent.core;
+
+/**
+ * Last known remaining-time state of one child, as cached by TimeLeftMonitor
+ */
+public final class TimeLeftSnapshot {
+    
+    private final String deviceId;
+    private final String address;
+    private final long remainingMinutes;
+    private final long totalMinutes;
+    private final String status;
+    private final String error;
+    private final long updatedAtMs;
+    
+    TimeLeftSnapshot(String deviceId, String address, long remainingMinutes, long totalMinutes,
+                     String status, String error, long updatedAtMs) {
+        this.deviceId = deviceId;
+        this.address = address;
+        this.remainingMinutes = remainingMinutes;
+        this.totalMinutes = totalMinutes;
+        this.status = status;
+        this.error = error;
+        this.updatedAtMs = updatedAtMs;
+    }
+    
+    static TimeLeftSnapshot fromResponse(CommandTarget target, ChildResponse response, long nowMs) {
+        return new TimeLeftSnapshot(target.getDeviceId(), target.getAddress(), response.getRemainingMinutes(),
+            response.getTotalMinutes(), response.getStatus(), null, nowMs);
+    }
+    
+    /**
+     * Failed poll: keep the last known numbers so the UI can still show them as stale
+     */
+    static TimeLeftSnapshot unreachable(CommandTarget target, TimeLeftSnapshot previous, String error, long nowMs) {
+        if (previous == null) {
+            return new TimeLeftSnapshot(target.getDeviceId(), target.getAddress(), -1, -1, null, error, nowMs);
+        }
+        return new TimeLeftSnapshot(target.getDeviceId(), target.getAddress(), previous.remainingMinutes,
+            previous.totalMinutes, previous.status, error, nowMs);
+    }
+    
+    public String getDeviceId() {
+        return deviceId;
+    }
+    
+    public String getAddress() {
+        return address;
+    }
+    
+    /**
+     * Remaining minutes, or -1 if the child has never answered
+     */
+    public long getRemainingMinutes() {
+        return remainingMinutes;
+    }
+    
+    public long getTotalMinutes() {
+        return totalMinutes;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public boolean isReachable() {
+        return error == null;
+    }
+    
+    /**
+     * Why the last poll failed, or null if it succeeded
+     */
+    public String getError() {
+        return error;
+    }
+    
+    public long getUpdatedAtMs() {
+        return updatedAtMs;
+    }
+    
+    /**
+     * Whether the other snapshot would render identically; the timestamp is ignored
+     */
+    public boolean hasSameState(TimeLeftSnapshot other) {
+        return other != null
+            && remainingMinutes == other.remainingMinutes
+            && totalMinutes == other.totalMinutes
+            && isReachable() == other.isReachable()
+            && equal(status, other.status)
+            && equal(address, other.address);
+    }
+    
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
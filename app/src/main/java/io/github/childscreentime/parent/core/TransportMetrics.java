@@ -0,0 +1,225 @@
+package io.github.childscreentime.parent.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and per-device latency histograms for discovery and commands.
+ *
+ * Everything is recorded with LongAdder and LatencyHistogram, so the transport's selector
+ * thread never waits on a reader. Per-device numbers are keyed by child IP address, the only
+ * identity the transport sees. The report answers the WIFI_TROUBLESHOOTING.md questions directly:
+ * how often datagrams are lost and how slow the slowest commands are.
+ */
+public final class TransportMetrics {
+    
+    private static final TransportMetrics INSTANCE = new TransportMetrics();
+    
+    public enum Counter {
+        PACKETS_SENT("Packets sent"),
+        PACKETS_RECEIVED("Packets received"),
+        RETRANSMISSIONS("Retransmissions"),
+        TIMEOUTS("Timeouts"),
+        DECRYPT_FAILURES("Decrypt failures"),
+        UNEXPECTED_RESPONSES("Unexpected responses"),
+        EVENTS_RECEIVED("Events received"),
+        DISCOVERY_PROBES("Discovery probes sent"),
+        DISCOVERY_REPLIES("Discovery replies");
+        
+        private final String label;
+        
+        Counter(String label) {
+            this.label = label;
+        }
+        
+        public String getLabel() {
+            return label;
+        }
+    }
+    
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final Map<String, DeviceMetrics> devices = new ConcurrentHashMap<>();
+    private volatile long sinceMs = System.currentTimeMillis();
+    
+    private TransportMetrics() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+    
+    public static TransportMetrics getInstance() {
+        return INSTANCE;
+    }
+    
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+    
+    public long get(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+    
+    /**
+     * Numbers for one child address, created on first use
+     */
+    public DeviceMetrics device(String address) {
+        return devices.computeIfAbsent(address, DeviceMetrics::new);
+    }
+    
+    /**
+     * Every device seen since the last reset, ordered by address
+     */
+    public List<DeviceMetrics> getDevices() {
+        List<DeviceMetrics> result = new ArrayList<>(devices.values());
+        Collections.sort(result, (a, b) -> a.address.compareTo(b.address));
+        return result;
+    }
+    
+    /**
+     * Wall-clock time of the last reset, or of process start
+     */
+    public long getSinceMs() {
+        return sinceMs;
+    }
+    
+    /**
+     * Start counting from zero, e.g. before reproducing a problem
+     */
+    public void reset() {
+        for (LongAdder counter : counters) {
+            counter.reset();
+        }
+        devices.clear();
+        sinceMs = System.currentTimeMillis();
+    }
+    
+    /**
+     * Plain-text report for the diagnostics screen and for pasting into a support request
+     */
+    public void writeReport(Appendable out, long nowMs) throws IOException {
+        out.append(String.format(Locale.US, "Transport metrics over the last %d s%n",
+            TimeUnit.MILLISECONDS.toSeconds(nowMs - sinceMs)));
+        for (Counter counter : Counter.values()) {
+            out.append(String.format(Locale.US, "  %-22s %d%n", counter.getLabel(), get(counter)));
+        }
+        long sent = get(Counter.PACKETS_SENT);
+        if (sent > 0) {
+            out.append(String.format(Locale.US, "  %-22s %.1f%%%n", "Retransmitted",
+                100.0 * get(Counter.RETRANSMISSIONS) / sent));
+        }
+        
+        List<DeviceMetrics> deviceList = getDevices();
+        if (deviceList.isEmpty()) {
+            out.append(String.format(Locale.US, "%nNo commands sent yet%n"));
+            return;
+        }
+        for (DeviceMetrics device : deviceList) {
+            LatencyHistogram.Snapshot rtt = device.latency.snapshot();
+            out.append(String.format(Locale.US, "%n%s%n", device.address));
+            out.append(String.format(Locale.US, "  commands %d, replies %d, timeouts %d, retransmissions %d%n",
+                device.commands.sum(), device.replies.sum(), device.timeouts.sum(), device.retransmissions.sum()));
+            out.append(String.format(Locale.US, "  datagram loss ~%.1f%%%n", 100 * device.getLossRate()));
+            if (rtt.getCount() > 0) {
+                out.append(String.format(Locale.US,
+                    "  rtt ms: min %.1f  p50 %.1f  p90 %.1f  p99 %.1f  max %.1f  (n=%d)%n",
+                    rtt.getMinMicros() / 1000.0, rtt.getValueAtPercentile(50) / 1000.0,
+                    rtt.getValueAtPercentile(90) / 1000.0, rtt.getValueAtPercentile(99) / 1000.0,
+                    rtt.getMaxMicros() / 1000.0, rtt.getCount()));
+            }
+        }
+    }
+    
+    /**
+     * Report as a string, for sharing
+     */
+    public String report(long nowMs) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeReport(builder, nowMs);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilder never throws
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Command numbers for one child address
+     */
+    public static final class DeviceMetrics {
+        private final String address;
+        private final LongAdder commands = new LongAdder();
+        private final LongAdder transmissions = new LongAdder();
+        private final LongAdder retransmissions = new LongAdder();
+        private final LongAdder replies = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        
+        DeviceMetrics(String address) {
+            this.address = address;
+        }
+        
+        /**
+         * A datagram left for this device; attempt is 1 for the first send of a command
+         */
+        void recordTransmission(int attempt) {
+            transmissions.increment();
+            if (attempt == 1) {
+                commands.increment();
+            } else {
+                retransmissions.increment();
+            }
+        }
+        
+        /**
+         * A command was answered, elapsedNanos after its first send
+         */
+        void recordReply(long elapsedNanos) {
+            replies.increment();
+            latency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+        }
+        
+        void recordTimeout() {
+            timeouts.increment();
+        }
+        
+        public String getAddress() {
+            return address;
+        }
+        
+        public long getCommands() {
+            return commands.sum();
+        }
+        
+        public long getRetransmissions() {
+            return retransmissions.sum();
+        }
+        
+        public long getReplies() {
+            return replies.sum();
+        }
+        
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+        
+        /**
+         * Share of datagrams to this device that produced no reply. Counts request and reply
+         * loss together, since UDP cannot tell them apart.
+         */
+        public double getLossRate() {
+            long sent = transmissions.sum();
+            return sent == 0 ? 0 : Math.max(0, 1 - (double) replies.sum() / sent);
+        }
+        
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency.snapshot();
+        }
+    }
+}
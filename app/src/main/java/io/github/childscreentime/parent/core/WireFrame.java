@@ -0,0 +1,237 @@
+package io.github.childscreentime.parent.core;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned binary frame carrying raw ciphertext between parent and child.
+ *
+ * Layout (big-endian): magic(2) version(1) type(1) correlationId(4) length(2) payload(length).
+ * The first magic byte is outside the ASCII range, so a frame can never be mistaken for
+ * one of the legacy CST_CMD:/CST_RESP: text messages arriving on the same port.
+ * The parent may resend a command frame unchanged; a child that sees a correlation ID it
+ * has already answered from the same sender replays that answer instead of re-executing.
+ *
+ * Version 2 adds batches (see CommandBatch) and fragments. A reply too large for one datagram
+ * is split into TYPE_FRAGMENT frames under the request's correlation ID, each carrying
+ * innerType(1) index(1) count(1) and a slice of the reply payload. The header version is the
+ * lowest version that defines the frame type, so version 1 children keep getting version 1 frames.
+ */
+public final class WireFrame {
+    
+    public static final int MAGIC = 0xC57F;
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+    public static final int CURRENT_VERSION = VERSION_2;
+    public static final int HEADER_LENGTH = 10;
+    public static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+    
+    public static final byte TYPE_COMMAND = 0x01;
+    public static final byte TYPE_RESPONSE = 0x02;
+    public static final byte TYPE_EVENT = 0x03;
+    public static final byte TYPE_BATCH = 0x04;
+    public static final byte TYPE_BATCH_RESPONSE = 0x05;
+    public static final byte TYPE_FRAGMENT = 0x06;
+    
+    public static final int FRAGMENT_HEADER_LENGTH = 3;
+    public static final int MAX_FRAGMENTS = 64;
+    
+    private final int version;
+    private final byte type;
+    private final int correlationId;
+    private final byte[] buffer;
+    private final int payloadOffset;
+    private final int payloadLength;
+    
+    private WireFrame(int version, byte type, int correlationId, byte[] buffer, int payloadOffset, int payloadLength) {
+        this.version = version;
+        this.type = type;
+        this.correlationId = correlationId;
+        this.buffer = buffer;
+        this.payloadOffset = payloadOffset;
+        this.payloadLength = payloadLength;
+    }
+    
+    /**
+     * Encode a frame into a new array sized exactly for the header and payload
+     */
+    public static byte[] encode(byte type, int correlationId, byte[] payload) {
+        byte[] frame = new byte[HEADER_LENGTH + payload.length];
+        encode(ByteBuffer.wrap(frame), type, correlationId, payload, 0, payload.length);
+        return frame;
+    }
+    
+    /**
+     * Write a frame at the current position of out
+     */
+    public static void encode(ByteBuffer out, byte type, int correlationId, byte[] payload, int offset, int length) {
+        if (length > MAX_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("Payload too large for a frame: " + length + " bytes");
+        }
+        out.putShort((short) MAGIC);
+        out.put((byte) minimumVersion(type));
+        out.put(type);
+        out.putInt(correlationId);
+        out.putShort((short) length);
+        out.put(payload, offset, length);
+    }
+    
+    /**
+     * Lowest frame version that defines the type, written into the header
+     */
+    public static int minimumVersion(byte type) {
+        return type >= TYPE_BATCH ? VERSION_2 : VERSION_1;
+    }
+    
+    /**
+     * Encode a frame, splitting it into fragments if the whole frame would exceed maxDatagramSize
+     */
+    public static List<byte[]> encodeFragmented(byte type, int correlationId, byte[] payload, int maxDatagramSize) {
+        List<byte[]> datagrams = new ArrayList<>();
+        if (HEADER_LENGTH + payload.length <= maxDatagramSize) {
+            datagrams.add(encode(type, correlationId, payload));
+            return datagrams;
+        }
+        int chunkSize = maxDatagramSize - HEADER_LENGTH - FRAGMENT_HEADER_LENGTH;
+        int count = (payload.length + chunkSize - 1) / chunkSize;
+        if (chunkSize <= 0 || count > MAX_FRAGMENTS) {
+            throw new IllegalArgumentException("Payload too large to fragment: " + payload.length + " bytes");
+        }
+        for (int index = 0; index < count; index++) {
+            int offset = index * chunkSize;
+            int length = Math.min(chunkSize, payload.length - offset);
+            byte[] fragment = new byte[FRAGMENT_HEADER_LENGTH + length];
+            fragment[0] = type;
+            fragment[1] = (byte) index;
+            fragment[2] = (byte) count;
+            System.arraycopy(payload, offset, fragment, FRAGMENT_HEADER_LENGTH, length);
+            datagrams.add(encode(TYPE_FRAGMENT, correlationId, fragment));
+        }
+        return datagrams;
+    }
+    
+    /**
+     * Cheap check for the frame magic, used to tell frames from legacy text datagrams
+     */
+    public static boolean isFrame(byte[] data, int offset, int length) {
+        return length >= HEADER_LENGTH
+            && (data[offset] & 0xFF) == (MAGIC >>> 8)
+            && (data[offset + 1] & 0xFF) == (MAGIC & 0xFF);
+    }
+    
+    /**
+     * Read the frame type without decoding the rest of the frame
+     */
+    public static byte peekType(byte[] data, int offset) {
+        return data[offset + 3];
+    }
+    
+    /**
+     * Read the correlation ID without decoding the rest of the frame
+     */
+    public static int peekCorrelationId(byte[] data, int offset) {
+        return ((data[offset + 4] & 0xFF) << 24)
+            | ((data[offset + 5] & 0xFF) << 16)
+            | ((data[offset + 6] & 0xFF) << 8)
+            | (data[offset + 7] & 0xFF);
+    }
+    
+    /**
+     * Like isFrame, for the frame starting at the buffer's position; the position is not moved
+     */
+    public static boolean isFrame(ByteBuffer data) {
+        int offset = data.position();
+        return data.remaining() >= HEADER_LENGTH
+            && (data.get(offset) & 0xFF) == (MAGIC >>> 8)
+            && (data.get(offset + 1) & 0xFF) == (MAGIC & 0xFF);
+    }
+    
+    /**
+     * Like peekType, for the frame starting at the buffer's position
+     */
+    public static byte peekType(ByteBuffer data) {
+        return data.get(data.position() + 3);
+    }
+    
+    /**
+     * Like peekCorrelationId, for the frame starting at the buffer's position
+     */
+    public static int peekCorrelationId(ByteBuffer data) {
+        return data.getInt(data.position() + 4);
+    }
+    
+    /**
+     * Validate the header of the frame starting at the buffer's position and return its payload
+     * length, without decoding or copying anything
+     */
+    public static int checkHeader(ByteBuffer data) throws ProtocolException {
+        if (!isFrame(data)) {
+            throw new ProtocolException("Not a CST frame");
+        }
+        int offset = data.position();
+        int version = data.get(offset + 2) & 0xFF;
+        if (version < VERSION_1 || version > CURRENT_VERSION) {
+            throw new ProtocolException("Unsupported frame version " + version);
+        }
+        int payloadLength = data.getShort(offset + 8) & 0xFFFF;
+        if (HEADER_LENGTH + payloadLength > data.remaining()) {
+            throw new ProtocolException("Truncated frame: expected " + payloadLength
+                + " payload bytes, got " + (data.remaining() - HEADER_LENGTH));
+        }
+        return payloadLength;
+    }
+    
+    /**
+     * Decode a frame in place; the payload is a view into data and is not copied
+     */
+    public static WireFrame decode(byte[] data, int offset, int length) throws ProtocolException {
+        if (!isFrame(data, offset, length)) {
+            throw new ProtocolException("Not a CST frame");
+        }
+        int version = data[offset + 2] & 0xFF;
+        if (version < VERSION_1 || version > CURRENT_VERSION) {
+            throw new ProtocolException("Unsupported frame version " + version);
+        }
+        byte type = data[offset + 3];
+        int correlationId = peekCorrelationId(data, offset);
+        int payloadLength = ((data[offset + 8] & 0xFF) << 8) | (data[offset + 9] & 0xFF);
+        if (HEADER_LENGTH + payloadLength > length) {
+            throw new ProtocolException("Truncated frame: expected " + payloadLength
+                + " payload bytes, got " + (length - HEADER_LENGTH));
+        }
+        return new WireFrame(version, type, correlationId, data, offset + HEADER_LENGTH, payloadLength);
+    }
+    
+    /**
+     * Pick the frame version to use with a child advertising the given maximum (0 = legacy text only)
+     */
+    public static int negotiateVersion(int childMaxVersion) {
+        return Math.min(CURRENT_VERSION, Math.max(0, childMaxVersion));
+    }
+    
+    public int getVersion() {
+        return version;
+    }
+    
+    public byte getType() {
+        return type;
+    }
+    
+    public int getCorrelationId() {
+        return correlationId;
+    }
+    
+    public byte[] getBuffer() {
+        return buffer;
+    }
+    
+    public int getPayloadOffset() {
+        return payloadOffset;
+    }
+    
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.childscreentime.parent.service;
+
+import android.content.Context;
+import android.util.Log;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import io.github.childscreentime.parent.core.DiscoveryCache;
+import io.github.childscreentime.parent.core.DiscoveryEngine;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic background discovery sweep that keeps the device registry fresh while the UI is closed
+ */
+public class DiscoveryWorker extends Worker {
+    
+    private static final String TAG = "DiscoveryWorker";
+    private static final String WORK_NAME = "cst-discovery";
+    private static final long SWEEP_DURATION_MS = 10 * 1000;
+    
+    public DiscoveryWorker(Context context, WorkerParameters params) {
+        super(context, params);
+    }
+    
+    /**
+     * Enqueue the periodic sweep; keeps the existing schedule if already enqueued
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+            .setRequiredNetworkType(NetworkType.CONNECTED)
+            .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                DiscoveryWorker.class, 15, TimeUnit.MINUTES)
+            .setConstraints(constraints)
+            .build();
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(
+            WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+    
+    @Override
+    public Result doWork() {
+        Log.d(TAG, "Running background discovery sweep");
+        DiscoveryCache cache = DiscoveryCache.getInstance(getApplicationContext().getCacheDir());
+        // Probe the last-known children too, and keep the launch list fresh for next time
+        cache.restore().join();
+        DiscoveryEngine.getInstance().runSweep(SWEEP_DURATION_MS);
+        cache.save();
+        return Result.success();
+    }
+}
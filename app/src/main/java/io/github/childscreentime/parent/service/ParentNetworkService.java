@@ -0,0 +1,904 @@
+package io.github.childscreentime.parent.service;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import io.github.childscreentime.parent.core.ActionScheduler;
+import io.github.childscreentime.parent.core.ChildCommandClient;
+import io.github.childscreentime.parent.core.ChildEvent;
+import io.github.childscreentime.parent.core.CommandHistory;
+import io.github.childscreentime.parent.core.CommandResult;
+import io.github.childscreentime.parent.core.CommandTarget;
+import io.github.childscreentime.parent.core.CommandTransport;
+import io.github.childscreentime.parent.core.DeviceRegistry;
+import io.github.childscreentime.parent.core.DeviceStore;
+import io.github.childscreentime.parent.core.DiscoveredDevice;
+import io.github.childscreentime.parent.core.DiscoveryCache;
+import io.github.childscreentime.parent.core.DiscoveryEngine;
+import io.github.childscreentime.parent.core.DiscoveryResponse;
+import io.github.childscreentime.parent.core.NetworkScheduler;
+import io.github.childscreentime.parent.core.PairedDevice;
+import io.github.childscreentime.parent.core.ParentEncryptionManager;
+import io.github.childscreentime.parent.core.ScheduleRule;
+import io.github.childscreentime.parent.core.StatusSubscriptions;
+import io.github.childscreentime.parent.core.TimeLeftMonitor;
+import io.github.childscreentime.parent.core.TimeLeftSnapshot;
+import io.github.childscreentime.parent.ui.activities.MainActivity;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns discovery, the command channel and child monitoring for the life of the app rather than
+ * of one screen.
+ *
+ * MainActivity starts and binds this service and only renders what it reports, so rotating the
+ * screen or switching apps keeps scans, subscriptions, derived keys and the selected child. While
+ * no activity is visible and paired children are being monitored, the service stays in the
+ * foreground with an ongoing notification; with nothing to monitor it stops once the UI unbinds.
+ * The list opens with the children found in earlier runs, marked with their age, until discovery
+ * confirms or evicts them. Scheduled rules run from here while the service is alive, and from
+ * ScheduledActionReceiver's alarm otherwise.
+ * State is only touched on the main thread, and listeners are called there.
+ */
+public class ParentNetworkService extends Service {
+    
+    /**
+     * Called on the main thread
+     */
+    public interface Listener {
+        /**
+         * The child list or the selection changed; re-read getChildren()
+         */
+        void onChildrenChanged();
+        
+        void onTimeLeftChanged();
+        
+        void onChildEvent(ChildEvent event);
+    }
+    
+    public static final String ACTION_STOP = "io.github.childscreentime.parent.action.STOP_MONITORING";
+    public static final long COMMAND_TIMEOUT_MS = 5000;
+    
+    private static final String TAG = "ParentNetworkService";
+    private static final String CHANNEL_ID = "cst-monitoring";
+    private static final int NOTIFICATION_ID = 1;
+    
+    // Legacy SharedPreferences selection, migrated into DeviceStore on first launch
+    private static final String PREFS_NAME = "parent_app_prefs";
+    private static final String KEY_SELECTED_DEVICE = "selected_device";
+    
+    private final IBinder binder = new LocalBinder();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<String> addresses = new ArrayList<>(); // Listed children, in display order
+    private final Map<String, String> deviceIds = new HashMap<>(); // Address to Device ID, once paired
+    private final Set<Activity> startedActivities = new HashSet<>();
+    private Handler mainHandler;
+    private NetworkScheduler networkScheduler;
+    private ChildCommandClient commandClient;
+    private CommandHistory commandHistory;
+    private DeviceRegistry deviceRegistry;
+    private DeviceStore deviceStore;
+    private DiscoveryEngine discoveryEngine;
+    private DiscoveryCache discoveryCache;
+    private DeviceRegistry.Listener registryListener;
+    private TimeLeftMonitor timeLeftMonitor;
+    private StatusSubscriptions statusSubscriptions;
+    private ActionScheduler actionScheduler;
+    private ActionScheduler.Listener wakeupListener;
+    private NetworkScheduler.Scope scheduledScope;
+    private Application.ActivityLifecycleCallbacks uiTracker;
+    private boolean uiVisible = true; // The first bind comes from a visible activity
+    private boolean inForeground;
+    private String selectedAddress;
+    private String selectedDeviceId;
+    
+    public final class LocalBinder extends Binder {
+        public ParentNetworkService getService() {
+            return ParentNetworkService.this;
+        }
+    }
+    
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mainHandler = new Handler(Looper.getMainLooper());
+        networkScheduler = NetworkScheduler.getInstance();
+        deviceRegistry = DeviceRegistry.getInstance();
+        deviceStore = DeviceStore.getInstance(this);
+        discoveryEngine = DiscoveryEngine.getInstance();
+        discoveryCache = DiscoveryCache.getInstance(getCacheDir());
+        actionScheduler = ActionScheduler.getInstance(getFilesDir());
+        scheduledScope = networkScheduler.newScope();
+        
+        openCommandChannel();
+        uiTracker = new UiTracker();
+        getApplication().registerActivityLifecycleCallbacks(uiTracker);
+        
+        // Paired devices load in the background and are merged into the list when ready
+        loadPairedDevices();
+        startDiscovery();
+        startScheduledActions();
+    }
+    
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            Log.d(TAG, "Monitoring stopped from the notification");
+            leaveForeground();
+            stopSelf();
+        }
+        // The UI starts the service again whenever it is shown
+        return START_NOT_STICKY;
+    }
+    
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+    
+    @Override
+    public void onDestroy() {
+        getApplication().unregisterActivityLifecycleCallbacks(uiTracker);
+        startedActivities.clear();
+        deviceRegistry.removeListener(registryListener);
+        discoveryEngine.stop();
+        // Refreshed last-seen times do not trigger a save on their own
+        discoveryCache.save();
+        // The worker wakeup stays armed, so rules keep running once the service is gone
+        actionScheduler.stop();
+        actionScheduler.removeListener(wakeupListener);
+        scheduledScope.cancel();
+        if (statusSubscriptions != null) {
+            statusSubscriptions.shutdown();
+        }
+        if (timeLeftMonitor != null) {
+            timeLeftMonitor.shutdown();
+        }
+        // The command client is process-wide and outlives this service
+        if (commandHistory != null) {
+            commandClient.removeListener(commandHistory);
+            commandHistory.flush();
+        }
+        listeners.clear();
+        super.onDestroy();
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    private void openCommandChannel() {
+        try {
+            CommandTransport commandTransport = networkScheduler.getTransport();
+            commandClient = networkScheduler.getClient();
+            // Every command and its outcome, including background polls, goes into the history log
+            commandHistory = CommandHistory.getInstance(this);
+            commandClient.addListener(commandHistory);
+            timeLeftMonitor = new TimeLeftMonitor(networkScheduler, COMMAND_TIMEOUT_MS);
+            timeLeftMonitor.addListener(snapshot -> mainHandler.post(this::notifyTimeLeftChanged));
+            statusSubscriptions = new StatusSubscriptions(commandTransport, networkScheduler, COMMAND_TIMEOUT_MS);
+            statusSubscriptions.addListener(new StatusSubscriptions.Listener() {
+                @Override
+                public void onChildEvent(ChildEvent event) {
+                    timeLeftMonitor.applyEvent(event);
+                    actionScheduler.onChildEvent(event);
+                    mainHandler.post(() -> notifyChildEvent(event));
+                }
+                
+                @Override
+                public void onSubscriptionChanged(CommandTarget target, boolean active) {
+                    timeLeftMonitor.setPushActive(target.getDeviceId(), active);
+                }
+            });
+            timeLeftMonitor.start();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open command channel", e);
+        }
+    }
+    
+    public boolean isCommandChannelOpen() {
+        return commandClient != null;
+    }
+    
+    // --- Children and selection ---
+    
+    /**
+     * Snapshot of a listed child, paired or not
+     */
+    public static final class ChildEntry {
+        private final String address;
+        private final String deviceId;
+        private final String name;
+        private final boolean confirmed;
+        private final long lastSeenMs;
+        
+        ChildEntry(String address, String deviceId, String name, boolean confirmed, long lastSeenMs) {
+            this.address = address;
+            this.deviceId = deviceId;
+            this.name = name;
+            this.confirmed = confirmed;
+            this.lastSeenMs = lastSeenMs;
+        }
+        
+        public String getAddress() {
+            return address;
+        }
+        
+        /**
+         * Device ID entered for this child, or null if not paired yet
+         */
+        public String getDeviceId() {
+            return deviceId;
+        }
+        
+        public boolean isPaired() {
+            return deviceId != null;
+        }
+        
+        /**
+         * Friendly name the child advertised, or null
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * Whether the child has answered discovery since the app started
+         */
+        public boolean isConfirmed() {
+            return confirmed;
+        }
+        
+        /**
+         * When discovery last heard from the child, or 0 if never
+         */
+        public long getLastSeenMs() {
+            return lastSeenMs;
+        }
+        
+        public String getDisplayName() {
+            String label = name != null ? name + " (" + address + ")" : "Child Device: " + address;
+            if (confirmed) {
+                return label;
+            }
+            return label + " (" + describeAge(lastSeenMs) + ")";
+        }
+        
+        private static String describeAge(long lastSeenMs) {
+            if (lastSeenMs <= 0) {
+                return "not seen yet";
+            }
+            long ageMs = Math.max(0, System.currentTimeMillis() - lastSeenMs);
+            if (ageMs < TimeUnit.HOURS.toMillis(1)) {
+                return "last seen " + Math.max(1, TimeUnit.MILLISECONDS.toMinutes(ageMs)) + " min ago";
+            }
+            if (ageMs < TimeUnit.DAYS.toMillis(1)) {
+                return "last seen " + TimeUnit.MILLISECONDS.toHours(ageMs) + " h ago";
+            }
+            return "last seen " + TimeUnit.MILLISECONDS.toDays(ageMs) + " d ago";
+        }
+    }
+    
+    public List<ChildEntry> getChildren() {
+        List<ChildEntry> children = new ArrayList<>(addresses.size());
+        for (String address : addresses) {
+            String deviceId = deviceIds.get(address);
+            DiscoveredDevice discovered = deviceRegistry.findByAddress(address);
+            if (discovered != null) {
+                children.add(new ChildEntry(address, deviceId, discovered.getName(), !discovered.isCached(),
+                    discovered.getLastSeenMs()));
+            } else {
+                // A paired child discovery has not reached yet; its stored sighting is all we have
+                PairedDevice paired = deviceId != null ? deviceStore.get(deviceId) : null;
+                children.add(new ChildEntry(address, deviceId, null, false, paired != null ? paired.getLastSeenMs() : 0));
+            }
+        }
+        return children;
+    }
+    
+    /**
+     * Address of the selected child, following it across DHCP changes, or null
+     */
+    public String getSelectedAddress() {
+        return selectedAddress;
+    }
+    
+    public String getSelectedDeviceId() {
+        return selectedDeviceId;
+    }
+    
+    /**
+     * Select an already paired child
+     */
+    public void select(String address) {
+        String deviceId = deviceIds.get(address);
+        if (deviceId == null) {
+            throw new IllegalArgumentException("Not paired: " + address);
+        }
+        selectedAddress = address;
+        selectedDeviceId = deviceId;
+        deviceStore.setSelected(deviceId);
+        cacheKey(address, deviceId);
+        notifyChildrenChanged();
+    }
+    
+    /**
+     * Remember the Device ID for a child, start monitoring it and select it. Returns false,
+     * pairing nothing, when the child signs its discovery replies and the ID does not match.
+     */
+    public boolean pair(String address, String deviceId) {
+        DiscoveredDevice discovered = deviceRegistry.findByAddress(address);
+        if (discovered != null && discovered.isSigned() && !discovered.isSignedBy(deviceId)) {
+            Log.w(TAG, "Device ID rejected by the signed discovery reply from " + address);
+            return false;
+        }
+        deviceIds.put(address, deviceId);
+        savePairedDevice(address, deviceId);
+        watchChild(address, deviceId);
+        select(address);
+        return true;
+    }
+    
+    /**
+     * Drop the Device ID for a child and stop monitoring it. It stays listed while discovery
+     * still sees it, as an unpaired child.
+     */
+    public void forget(String address) {
+        String deviceId = deviceIds.remove(address);
+        if (deviceId == null) {
+            return;
+        }
+        deviceStore.remove(deviceId);
+        if (timeLeftMonitor != null) {
+            timeLeftMonitor.unwatch(deviceId);
+            statusSubscriptions.unsubscribe(deviceId);
+        }
+        if (address.equals(selectedAddress)) {
+            selectedAddress = null;
+            selectedDeviceId = null;
+        }
+        if (deviceRegistry.findByAddress(address) == null) {
+            addresses.remove(address);
+        }
+        Log.d(TAG, "Forgot device at " + address);
+        notifyChildrenChanged();
+    }
+    
+    /**
+     * Restart the fast probe schedule; results arrive through onChildrenChanged
+     */
+    public void rescan() {
+        discoveryEngine.start();
+        discoveryEngine.rescanNow();
+    }
+    
+    private void startDiscovery() {
+        // Show whatever the registry already knows, then apply only diffs from here on
+        for (DiscoveredDevice device : deviceRegistry.getDevices()) {
+            onRegistryDeviceAdded(device);
+        }
+        registryListener = new DeviceRegistry.Listener() {
+            @Override
+            public void onDeviceAdded(DiscoveredDevice device) {
+                mainHandler.post(() -> onRegistryDeviceAdded(device));
+            }
+            
+            @Override
+            public void onDeviceAddressChanged(DiscoveredDevice device, String previousAddress) {
+                mainHandler.post(() -> onRegistryDeviceMoved(device, previousAddress));
+            }
+            
+            @Override
+            public void onDeviceRemoved(DiscoveredDevice device) {
+                mainHandler.post(() -> onRegistryDeviceRemoved(device));
+            }
+            
+            @Override
+            public void onDeviceRevalidated(DiscoveredDevice device) {
+                // The live reply may now prove which paired child this is
+                mainHandler.post(() -> onRegistryDeviceAdded(device));
+            }
+        };
+        deviceRegistry.addListener(registryListener);
+        
+        // Last-known children arrive through onDeviceAdded as soon as the cache is read
+        discoveryCache.restore();
+        discoveryEngine.start();
+        DiscoveryWorker.schedule(this);
+    }
+    
+    private void onRegistryDeviceAdded(DiscoveredDevice device) {
+        // A paired child that changed address while the app was closed shows up as new here
+        PairedDevice paired = findPairedDevice(device);
+        if (paired != null && !paired.getAddress().equals(device.getAddress())) {
+            if (isTrustedMove(device, paired.getDeviceId())) {
+                onRegistryDeviceMoved(device, paired.getAddress());
+                return;
+            }
+            // Listed as unpaired; a signed reply later revalidates it and moves the child
+            paired = null;
+        }
+        
+        String address = device.getAddress();
+        if (!addresses.contains(address)) {
+            addresses.add(address);
+        }
+        if (paired != null) {
+            deviceIds.put(address, paired.getDeviceId());
+            deviceStore.put(paired.withDiscovery(device));
+            watchChild(address, paired.getDeviceId());
+        }
+        notifyChildrenChanged();
+    }
+    
+    private PairedDevice findPairedDevice(DiscoveredDevice device) {
+        // A signed reply identifies the child whatever its address or instance ID
+        if (device.getFingerprint() != null) {
+            PairedDevice paired = deviceStore.findByFingerprint(device.getFingerprint());
+            if (paired != null && device.isSignedBy(paired.getDeviceId())) {
+                return paired;
+            }
+        }
+        PairedDevice paired = deviceStore.findByRegistryKey(device.getKey());
+        if (paired == null) {
+            paired = deviceStore.findByAddress(device.getAddress());
+        }
+        if (paired != null && device.isSigned() && !device.isSignedBy(paired.getDeviceId())) {
+            // Another child signing with its own ID, e.g. on an address the paired one gave up
+            Log.w(TAG, "Signed reply from " + device.getAddress() + " does not match paired " + paired.getDisplayName());
+            return null;
+        }
+        return paired;
+    }
+    
+    /**
+     * Whether a reply may take over a paired child's address. Signed replies only reach the
+     * registry if they answer a recent probe (see DiscoveryEngine), so a replayed one never
+     * gets here. Once the child has signed, an unsigned reply from elsewhere could come from
+     * any device on the network.
+     */
+    private boolean isTrustedMove(DiscoveredDevice device, String deviceId) {
+        if (device.isSignedBy(deviceId)) {
+            return true;
+        }
+        PairedDevice paired = deviceStore.get(deviceId);
+        return !device.isSigned() && (paired == null || !paired.hasSigned());
+    }
+    
+    private void onRegistryDeviceMoved(DiscoveredDevice device, String previousAddress) {
+        String address = device.getAddress();
+        String deviceId = deviceIds.get(previousAddress);
+        if (deviceId != null && !isTrustedMove(device, deviceId)) {
+            // Keep the pairing, selection and store at the old address
+            Log.w(TAG, "Ignoring unauthenticated move of " + previousAddress + " to " + address);
+            if (!addresses.contains(address)) {
+                addresses.add(address);
+                notifyChildrenChanged();
+            }
+            return;
+        }
+        if (deviceId != null) {
+            deviceIds.remove(previousAddress);
+            deviceIds.put(address, deviceId);
+            PairedDevice paired = deviceStore.get(deviceId);
+            if (paired != null) {
+                deviceStore.put(paired.withDiscovery(device));
+            }
+            watchChild(address, deviceId);
+        }
+        
+        int index = addresses.indexOf(previousAddress);
+        if (index >= 0 && !addresses.contains(address)) {
+            addresses.set(index, address);
+        } else if (index >= 0) {
+            addresses.remove(index);
+        } else if (!addresses.contains(address)) {
+            addresses.add(address);
+        }
+        
+        // Follow the selected child to its new DHCP lease
+        if (previousAddress.equals(selectedAddress)) {
+            selectedAddress = address;
+            Log.d(TAG, "Selected device moved to " + selectedAddress);
+        }
+        notifyChildrenChanged();
+    }
+    
+    private void onRegistryDeviceRemoved(DiscoveredDevice device) {
+        // Keep paired devices listed so commands can still be attempted
+        String address = device.getAddress();
+        if (address.equals(selectedAddress) || deviceIds.containsKey(address)) {
+            return;
+        }
+        if (addresses.remove(address)) {
+            notifyChildrenChanged();
+        }
+    }
+    
+    private void loadPairedDevices() {
+        deviceStore.load().thenAccept(devices -> {
+            // Runs on the store thread, so the one-time preference read stays off the main thread
+            String selectedId = deviceStore.getSelectedDeviceId();
+            List<PairedDevice> restored = devices;
+            if (devices.isEmpty()) {
+                PairedDevice migrated = migrateLegacySelection();
+                if (migrated != null) {
+                    restored = new ArrayList<>();
+                    restored.add(migrated);
+                    selectedId = migrated.getDeviceId();
+                }
+            }
+            List<PairedDevice> paired = restored;
+            String selected = selectedId;
+            mainHandler.post(() -> restorePairedDevices(paired, selected));
+        });
+    }
+    
+    private PairedDevice migrateLegacySelection() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String savedDevice = prefs.getString(KEY_SELECTED_DEVICE, "");
+        if (savedDevice.isEmpty()) {
+            return null;
+        }
+        
+        // Stored as "deviceName|deviceAddress|deviceId"
+        String[] parts = savedDevice.split("\\|");
+        PairedDevice migrated = null;
+        if (parts.length == 3 && !parts[2].trim().isEmpty()) {
+            migrated = new PairedDevice(parts[2], parts[1]);
+            deviceStore.put(migrated);
+            deviceStore.setSelected(migrated.getDeviceId());
+            Log.d(TAG, "Migrated saved device " + parts[1] + " to the device store");
+        }
+        prefs.edit().remove(KEY_SELECTED_DEVICE).apply();
+        return migrated;
+    }
+    
+    private void restorePairedDevices(List<PairedDevice> paired, String selectedId) {
+        for (PairedDevice device : paired) {
+            // Discovery may already know where the child lives now
+            String address = device.getAddress();
+            DiscoveredDevice current = device.getRegistryKey() != null ? findRegistryDevice(device.getRegistryKey()) : null;
+            if (current != null && !current.getAddress().equals(address)) {
+                address = current.getAddress();
+                deviceStore.put(device.withDiscovery(current));
+            }
+            
+            deviceIds.put(address, device.getDeviceId());
+            if (!addresses.contains(address)) {
+                addresses.add(address);
+            }
+            watchChild(address, device.getDeviceId());
+            
+            if (device.getDeviceId().equals(selectedId) && selectedDeviceId == null) {
+                selectedAddress = address;
+                selectedDeviceId = device.getDeviceId();
+                cacheKey(address, selectedDeviceId);
+            }
+        }
+        notifyChildrenChanged();
+    }
+    
+    private DiscoveredDevice findRegistryDevice(String registryKey) {
+        for (DiscoveredDevice device : deviceRegistry.getDevices()) {
+            if (device.getKey().equals(registryKey)) {
+                return device;
+            }
+        }
+        return null;
+    }
+    
+    private void savePairedDevice(String deviceAddress, String deviceId) {
+        DiscoveredDevice discovered = deviceRegistry.findByAddress(deviceAddress);
+        PairedDevice paired = new PairedDevice(deviceId, deviceAddress);
+        deviceStore.put(discovered != null ? paired.withDiscovery(discovered) : paired);
+        deviceStore.setSelected(paired.getDeviceId());
+    }
+    
+    /**
+     * Derive the key off the main thread so the first command doesn't pay for PBKDF2,
+     * and keep it in the store so the next launch doesn't either
+     */
+    private void cacheKey(String address, String deviceId) {
+        String id = deviceId.trim();
+        ParentEncryptionManager.CipherMode cipherMode = targetFor(address, id).getCipherMode();
+        try {
+            networkScheduler.execute(() -> deviceStore.cacheKey(id, ParentEncryptionManager.forDevice(id, cipherMode)));
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Background queue full, deriving the key on first command instead");
+        }
+    }
+    
+    // --- Commands and monitoring ---
+    
+    /**
+     * New request scope for one screen; cancel it when the screen is destroyed
+     */
+    public NetworkScheduler.Scope newScope() {
+        return networkScheduler.newScope();
+    }
+    
+    /**
+     * Capabilities from discovery if the child has been seen this session, else from the store
+     */
+    public CommandTarget targetFor(String deviceAddress, String deviceId) {
+        if (deviceRegistry.findByAddress(deviceAddress) == null) {
+            PairedDevice paired = deviceStore.get(deviceId);
+            if (paired != null) {
+                return new CommandTarget(deviceAddress, deviceId, paired.getFrameVersion(), paired.getCipherMode());
+            }
+        }
+        return CommandTarget.forAddress(deviceAddress, deviceId, deviceRegistry);
+    }
+    
+    /**
+     * Every listed child with a Device ID
+     */
+    public List<CommandTarget> getPairedTargets() {
+        List<CommandTarget> targets = new ArrayList<>();
+        for (String address : addresses) {
+            String deviceId = deviceIds.get(address);
+            if (deviceId != null && !deviceId.trim().isEmpty()) {
+                targets.add(targetFor(address, deviceId));
+            }
+        }
+        return targets;
+    }
+    
+    public CompletableFuture<String> send(NetworkScheduler.Scope scope, CommandTarget target, String command) {
+        if (timeLeftMonitor == null || command.equals(TimeLeftMonitor.POLL_COMMAND)) {
+            return networkScheduler.submit(scope, target, command, COMMAND_TIMEOUT_MS);
+        }
+        // Extending or locking changes the child's time; read it back in the same round trip
+        return networkScheduler.submitBatch(scope, target, Arrays.asList(command, TimeLeftMonitor.POLL_COMMAND),
+            COMMAND_TIMEOUT_MS).thenApply(responses -> {
+                timeLeftMonitor.applyResponse(target, responses.get(1));
+                return responses.get(0);
+            });
+    }
+    
+    public CompletableFuture<List<CommandResult>> sendToAll(NetworkScheduler.Scope scope, List<CommandTarget> targets,
+                                                            String command) {
+        return networkScheduler.submitToAll(scope, targets, command, COMMAND_TIMEOUT_MS);
+    }
+    
+    /**
+     * Poll a child now, sharing the result of a background poll already in flight
+     */
+    public CompletableFuture<TimeLeftSnapshot> refreshTimeLeft(String address, String deviceId) {
+        watchChild(address, deviceId);
+        return timeLeftMonitor.refresh(deviceId);
+    }
+    
+    public List<TimeLeftSnapshot> getTimeLeftSnapshots() {
+        return timeLeftMonitor != null ? timeLeftMonitor.getSnapshots() : new ArrayList<>();
+    }
+    
+    private void watchChild(String deviceAddress, String deviceId) {
+        if (timeLeftMonitor != null && deviceId != null && !deviceId.trim().isEmpty()) {
+            CommandTarget target = targetFor(deviceAddress, deviceId);
+            timeLeftMonitor.watch(target);
+            // Children that support it push changes, so polling drops to a slow safety net
+            DiscoveredDevice discovered = deviceRegistry.findByAddress(deviceAddress);
+            if (discovered == null || discovered.supports(DiscoveryResponse.CAPABILITY_SUBSCRIPTIONS)) {
+                statusSubscriptions.subscribe(target);
+            }
+        }
+    }
+    
+    private void notifyChildrenChanged() {
+        for (Listener listener : listeners) {
+            listener.onChildrenChanged();
+        }
+    }
+    
+    private void notifyTimeLeftChanged() {
+        for (Listener listener : listeners) {
+            listener.onTimeLeftChanged();
+        }
+    }
+    
+    private void notifyChildEvent(ChildEvent event) {
+        for (Listener listener : listeners) {
+            listener.onChildEvent(event);
+        }
+    }
+    
+    // --- Scheduled actions ---
+    
+    /**
+     * Rules for one child, in the order they were added
+     */
+    public List<ScheduleRule> getRules(String deviceId) {
+        return actionScheduler.getRules(deviceId);
+    }
+    
+    /**
+     * Throws IllegalStateException once ActionScheduler.MAX_RULES is reached
+     */
+    public void addRule(ScheduleRule rule) {
+        actionScheduler.addRule(rule);
+    }
+    
+    public void removeRule(String ruleId) {
+        actionScheduler.removeRule(ruleId);
+    }
+    
+    private void startScheduledActions() {
+        // Arms the alarm for the next due rule in case the process is gone by then
+        wakeupListener = wakeAtMs -> ScheduledActionReceiver.schedule(this, wakeAtMs);
+        actionScheduler.addListener(wakeupListener);
+        actionScheduler.start(this::dispatchScheduled);
+    }
+    
+    /**
+     * Send a rule's command like a button press would; called on the scheduler thread
+     */
+    private CompletableFuture<String> dispatchScheduled(ScheduleRule rule) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        mainHandler.post(() -> {
+            String address = findAddress(rule.getDeviceId());
+            if (address == null) {
+                result.completeExceptionally(new IllegalStateException("Not paired: " + rule.getDeviceId()));
+                return;
+            }
+            send(scheduledScope, targetFor(address, rule.getDeviceId()), rule.getCommand())
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(response);
+                    }
+                });
+        });
+        return result;
+    }
+    
+    private String findAddress(String deviceId) {
+        for (Map.Entry<String, String> entry : deviceIds.entrySet()) {
+            if (entry.getValue().trim().equals(deviceId)) {
+                return entry.getKey();
+            }
+        }
+        // Paired but not listed yet, e.g. while the store is still loading
+        PairedDevice paired = deviceStore.get(deviceId);
+        return paired != null ? paired.getAddress() : null;
+    }
+    
+    // --- Foreground state ---
+    
+    private void onUiVisibilityChanged(boolean visible) {
+        if (visible == uiVisible) {
+            return;
+        }
+        uiVisible = visible;
+        if (visible) {
+            leaveForeground();
+            if (timeLeftMonitor != null) {
+                timeLeftMonitor.start();
+            }
+            return;
+        }
+        
+        // Only poll children while the dashboard is visible; pushed events keep arriving
+        if (timeLeftMonitor != null) {
+            timeLeftMonitor.stop();
+        }
+        if (deviceIds.isEmpty()) {
+            stopSelf(); // Nothing to monitor; the service goes once the UI unbinds
+        } else {
+            enterForeground();
+        }
+    }
+    
+    private void enterForeground() {
+        if (inForeground) {
+            return;
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                startForeground(NOTIFICATION_ID, buildNotification(),
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+            } else {
+                startForeground(NOTIFICATION_ID, buildNotification());
+            }
+            inForeground = true;
+        } catch (IllegalStateException e) {
+            // Android 12+ refuses once the app already counts as background
+            Log.w(TAG, "Could not keep monitoring in the foreground", e);
+        }
+    }
+    
+    private void leaveForeground() {
+        if (inForeground) {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            inForeground = false;
+        }
+    }
+    
+    private Notification buildNotification() {
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "Child monitoring",
+            NotificationManager.IMPORTANCE_LOW));
+        PendingIntent open = PendingIntent.getActivity(this, 0,
+            new Intent(this, MainActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent stop = PendingIntent.getService(this, 0,
+            new Intent(this, ParentNetworkService.class).setAction(ACTION_STOP), PendingIntent.FLAG_IMMUTABLE);
+        return new Notification.Builder(this, CHANNEL_ID)
+            .setSmallIcon(android.R.drawable.stat_notify_sync)
+            .setContentTitle("Monitoring " + deviceIds.size() + " child device(s)")
+            .setContentText("Staying connected while the app is closed")
+            .setContentIntent(open)
+            .setOngoing(true)
+            .addAction(new Notification.Action.Builder(null, "Stop", stop).build())
+            .build();
+    }
+    
+    /**
+     * Tracks whether any of the app's activities is on screen. A rotation stops the old
+     * activity before starting the new one, so that gap does not count as hidden.
+     */
+    private final class UiTracker implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityStarted(Activity activity) {
+            startedActivities.add(activity);
+            onUiVisibilityChanged(true);
+        }
+        
+        @Override
+        public void onActivityStopped(Activity activity) {
+            startedActivities.remove(activity);
+            if (startedActivities.isEmpty() && !activity.isChangingConfigurations()) {
+                onUiVisibilityChanged(false);
+            }
+        }
+        
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+        
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+        
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+        
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+        
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.childscreentime.parent.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+import io.github.childscreentime.parent.core.ActionScheduler;
+import io.github.childscreentime.parent.core.DeviceStore;
+import io.github.childscreentime.parent.core.NetworkScheduler;
+import io.github.childscreentime.parent.core.PairedDevice;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Alarm for the next scheduled rule, so rules run on time while the app is closed or the phone
+ * dozes. The alarm is exact when the user allows it and otherwise fires within Doze's idle
+ * windows, possibly minutes late. Alarms do not survive a reboot or an app update, so those
+ * broadcasts run any missed rules and re-arm. While ParentNetworkService runs, its own timer
+ * usually gets there first and the alarm finds nothing due.
+ */
+public class ScheduledActionReceiver extends BroadcastReceiver {
+    
+    private static final String TAG = "ScheduledActionReceiver";
+    private static final String ACTION_RUN_DUE = "io.github.childscreentime.parent.action.RUN_SCHEDULED";
+    
+    /**
+     * Move the alarm to the given time, or cancel it for Long.MAX_VALUE. Replacing the alarm
+     * never interrupts rules that are already running.
+     */
+    public static void schedule(Context context, long wakeAtMs) {
+        AlarmManager alarmManager = context.getSystemService(AlarmManager.class);
+        PendingIntent alarm = PendingIntent.getBroadcast(context, 0,
+            new Intent(context, ScheduledActionReceiver.class).setAction(ACTION_RUN_DUE),
+            PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        if (wakeAtMs == Long.MAX_VALUE) {
+            alarmManager.cancel(alarm);
+        } else if (canScheduleExactAlarms(context)) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, wakeAtMs, alarm);
+        } else {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, wakeAtMs, alarm);
+        }
+    }
+    
+    /**
+     * Whether rules fire at their exact time; from Android 12 the user must allow it
+     */
+    public static boolean canScheduleExactAlarms(Context context) {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.S
+            || context.getSystemService(AlarmManager.class).canScheduleExactAlarms();
+    }
+    
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // ACTION_RUN_DUE, boot, app update, or the user just allowed exact alarms
+        Context appContext = context.getApplicationContext();
+        PendingResult pending = goAsync();
+        ActionScheduler scheduler = ActionScheduler.getInstance(appContext.getFilesDir());
+        DeviceStore deviceStore = DeviceStore.getInstance(appContext);
+        NetworkScheduler networkScheduler = NetworkScheduler.getInstance();
+        NetworkScheduler.Scope scope = networkScheduler.newScope();
+        
+        Log.d(TAG, "Running due rules for " + intent.getAction());
+        // Without the service there is no discovery; use the address each child was last seen at
+        deviceStore.load()
+            .thenCompose(devices -> scheduler.runDue(rule -> {
+                PairedDevice paired = deviceStore.get(rule.getDeviceId());
+                if (paired == null) {
+                    CompletableFuture<String> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new IllegalStateException("Not paired: " + rule.getDeviceId()));
+                    return failed;
+                }
+                return networkScheduler.submit(scope, paired.toCommandTarget(), rule.getCommand(),
+                    ParentNetworkService.COMMAND_TIMEOUT_MS);
+            }))
+            .whenComplete((ignored, error) -> {
+                if (error != null) {
+                    Log.e(TAG, "Scheduled run failed", error);
+                }
+                schedule(appContext, scheduler.getNextWakeupMs());
+                pending.finish();
+            });
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.childscreentime.parent.ui.activities;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.TextView;
+import io.github.childscreentime.parent.core.CommandHistory;
+import io.github.childscreentime.parent.core.DeviceStore;
+import io.github.childscreentime.parent.core.TransportMetrics;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live view of TransportMetrics: packet counters, loss and per-device latency percentiles,
+ * followed by the selected child's last day of CommandHistory. The report can be shared as plain
+ * text to attach to a support request.
+ */
+public class DiagnosticsActivity extends Activity {
+    private static final String TAG = "DiagnosticsActivity";
+    private static final long REFRESH_INTERVAL_MS = 2000;
+    private static final long HISTORY_WINDOW_MS = TimeUnit.DAYS.toMillis(1);
+    
+    private TextView metricsText;
+    private Handler mainHandler;
+    private Runnable refreshTask;
+    private String historyReport = "";
+    
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(getResources().getIdentifier("activity_diagnostics", "layout", getPackageName()));
+        
+        metricsText = findViewById(getResources().getIdentifier("metrics_text", "id", getPackageName()));
+        Button resetButton = findViewById(getResources().getIdentifier("reset_metrics_button", "id", getPackageName()));
+        Button exportButton = findViewById(getResources().getIdentifier("export_metrics_button", "id", getPackageName()));
+        
+        mainHandler = new Handler(Looper.getMainLooper());
+        refreshTask = () -> {
+            render();
+            mainHandler.postDelayed(refreshTask, REFRESH_INTERVAL_MS);
+        };
+        
+        resetButton.setOnClickListener(v -> {
+            TransportMetrics.getInstance().reset();
+            render();
+        });
+        exportButton.setOnClickListener(v -> exportReport());
+    }
+    
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mainHandler.post(refreshTask);
+        loadHistory();
+    }
+    
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mainHandler.removeCallbacks(refreshTask);
+    }
+    
+    private void render() {
+        metricsText.setText(buildReport());
+    }
+    
+    private String buildReport() {
+        return TransportMetrics.getInstance().report(System.currentTimeMillis()) + "\n" + historyReport;
+    }
+    
+    /**
+     * History is read from disk, so it is scanned once per visit off the main thread rather
+     * than on every refresh
+     */
+    private void loadHistory() {
+        Context context = getApplicationContext();
+        CompletableFuture.supplyAsync(() -> summarizeHistory(context))
+            .exceptionally(error -> {
+                Log.e(TAG, "Failed to read command history", error);
+                return "Command history unavailable\n";
+            })
+            .thenAccept(report -> mainHandler.post(() -> {
+                historyReport = report;
+                render();
+            }));
+    }
+    
+    private static String summarizeHistory(Context context) {
+        DeviceStore deviceStore = DeviceStore.getInstance(context);
+        deviceStore.load().join();
+        String deviceId = deviceStore.getSelectedDeviceId();
+        if (deviceId == null) {
+            return "No child selected, so no command history\n";
+        }
+        long nowMs = System.currentTimeMillis();
+        return CommandHistory.getInstance(context).report(deviceId, nowMs - HISTORY_WINDOW_MS, nowMs);
+    }
+    
+    private void exportReport() {
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("text/plain");
+        send.putExtra(Intent.EXTRA_SUBJECT, "Child Screen Time connection diagnostics");
+        send.putExtra(Intent.EXTRA_TEXT, buildReport());
+        startActivity(Intent.createChooser(send, "Export diagnostics"));
+    }
+}
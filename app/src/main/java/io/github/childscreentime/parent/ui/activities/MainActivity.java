@@ -2,9 +2,13 @@ package io.github.childscreentime.parent.ui.activities;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.ServiceConnection;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.provider.Settings;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -17,51 +21,53 @@ import android.widget.LinearLayout;
 import android.text.TextUtils;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
-import java.net.DatagramSocket;
-import java.net.DatagramPacket;
-import java.net.InetAddress;
-import java.net.SocketTimeoutException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import android.os.Handler;
 import android.os.Looper;
-import io.github.childscreentime.parent.core.ParentEncryptionManager;
+import io.github.childscreentime.parent.core.ChildCommandClient;
+import io.github.childscreentime.parent.core.ChildEvent;
+import io.github.childscreentime.parent.core.ChildResponse;
+import io.github.childscreentime.parent.core.CommandResult;
+import io.github.childscreentime.parent.core.CommandTarget;
+import io.github.childscreentime.parent.core.NetworkScheduler;
+import io.github.childscreentime.parent.core.ScheduleRule;
+import io.github.childscreentime.parent.core.TimeLeftSnapshot;
+import io.github.childscreentime.parent.service.ParentNetworkService;
+import io.github.childscreentime.parent.service.ScheduledActionReceiver;
 
+/**
+ * Dashboard for discovered and paired children. Discovery, commands and monitoring live in
+ * ParentNetworkService; this screen binds to it and renders what it reports.
+ */
 public class MainActivity extends Activity {
-    private static final int DISCOVERY_PORT = 8888;
-    private static final String DISCOVERY_MESSAGE = "CST_PARENT_DISCOVERY";
-    private static final String EXPECTED_RESPONSE = "CST_CHILD_RESPONSE";
-    private static final String COMMAND_PREFIX = "CST_CMD:";
-    private static final String RESPONSE_PREFIX = "CST_RESP:";
-    
-    // SharedPreferences constants
-    private static final String PREFS_NAME = "parent_app_prefs";
-    private static final String KEY_DEVICES = "discovered_devices";
-    private static final String KEY_ADDRESSES = "device_addresses";
-    private static final String KEY_DEVICE_IDS = "device_ids";
-    private static final String KEY_SELECTED_DEVICE = "selected_device";
+    private static final long SCAN_STATUS_DELAY_MS = 5000;
     
     private ListView deviceList;
     private Button scanButton;
     private Button getTimeButton;
     private Button lockDeviceButton;
+    private Button lockAllButton;
     private Button extendTimeButton;
     private Button sendCommandButton;
+    private Button scheduleButton;
     private TextView statusText;
+    private TextView timeLeftDashboard;
     private TextView advancedToggle;
+    private Button diagnosticsButton;
     private LinearLayout advancedSection;
     private EditText extendMinutesInput;
     private EditText commandInput;
     private ArrayAdapter<String> deviceAdapter;
     private List<String> discoveredDevices;
-    private Map<String, String> deviceAddresses; // Maps display name to IP address
-    private Map<String, String> deviceIds; // Maps display name to device ID
-    private ExecutorService executorService;
+    private List<ParentNetworkService.ChildEntry> children;
+    private ParentNetworkService service;
+    private ServiceConnection serviceConnection;
+    private ParentNetworkService.Listener serviceListener;
+    private NetworkScheduler.Scope requestScope;
+    private Runnable scanStatusUpdate;
     private Handler mainHandler;
-    private String selectedDeviceAddress;
-    private String selectedDeviceId;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -72,13 +78,50 @@ public class MainActivity extends Activity {
         setupDeviceList();
         setupButtons();
         
-        executorService = Executors.newCachedThreadPool();
         mainHandler = new Handler(Looper.getMainLooper());
-        deviceAddresses = new HashMap<>();
-        deviceIds = new HashMap<>();
+        scanStatusUpdate = this::showScanStatus;
+        serviceListener = new ParentNetworkService.Listener() {
+            @Override
+            public void onChildrenChanged() {
+                renderChildren();
+            }
+            
+            @Override
+            public void onTimeLeftChanged() {
+                renderTimeLeftDashboard();
+            }
+            
+            @Override
+            public void onChildEvent(ChildEvent event) {
+                MainActivity.this.onChildEvent(event);
+            }
+        };
         
-        // Load saved device selection
-        loadSavedDeviceSelection();
+        // The service keeps sockets, keys and the selection across rotation and backgrounding
+        serviceConnection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder binder) {
+                service = ((ParentNetworkService.LocalBinder) binder).getService();
+                // Requests made from this screen are cancelled with it; the service carries on
+                requestScope = service.newScope();
+                service.addListener(serviceListener);
+                renderChildren();
+                renderTimeLeftDashboard();
+            }
+            
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+                service = null;
+            }
+        };
+        bindService(new Intent(this, ParentNetworkService.class), serviceConnection, BIND_AUTO_CREATE);
+    }
+    
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Started as well as bound, so the service can outlive this screen
+        startService(new Intent(this, ParentNetworkService.class));
     }
     
     private int getLayoutId() {
@@ -90,10 +133,14 @@ public class MainActivity extends Activity {
         scanButton = findViewById(getResources().getIdentifier("scan_button", "id", getPackageName()));
         getTimeButton = findViewById(getResources().getIdentifier("get_time_button", "id", getPackageName()));
         lockDeviceButton = findViewById(getResources().getIdentifier("lock_device_button", "id", getPackageName()));
+        lockAllButton = findViewById(getResources().getIdentifier("lock_all_button", "id", getPackageName()));
         extendTimeButton = findViewById(getResources().getIdentifier("extend_time_button", "id", getPackageName()));
         sendCommandButton = findViewById(getResources().getIdentifier("send_command_button", "id", getPackageName()));
+        scheduleButton = findViewById(getResources().getIdentifier("schedule_button", "id", getPackageName()));
         statusText = findViewById(getResources().getIdentifier("status_text", "id", getPackageName()));
+        timeLeftDashboard = findViewById(getResources().getIdentifier("time_left_dashboard", "id", getPackageName()));
         advancedToggle = findViewById(getResources().getIdentifier("advanced_toggle", "id", getPackageName()));
+        diagnosticsButton = findViewById(getResources().getIdentifier("diagnostics_button", "id", getPackageName()));
         advancedSection = findViewById(getResources().getIdentifier("advanced_section", "id", getPackageName()));
         extendMinutesInput = findViewById(getResources().getIdentifier("extend_minutes_input", "id", getPackageName()));
         commandInput = findViewById(getResources().getIdentifier("command_input", "id", getPackageName()));
@@ -101,29 +148,42 @@ public class MainActivity extends Activity {
     
     private void setupDeviceList() {
         discoveredDevices = new ArrayList<>();
+        children = new ArrayList<>();
         deviceAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, discoveredDevices);
         deviceList.setAdapter(deviceAdapter);
         
         deviceList.setOnItemClickListener((parent, view, position, id) -> {
-            String selectedDevice = discoveredDevices.get(position);
-            selectedDeviceAddress = deviceAddresses.get(selectedDevice);
+            if (service == null) {
+                return;
+            }
+            ParentNetworkService.ChildEntry child = children.get(position);
             
             // Check if we already have a device ID for this device
-            if (deviceIds.containsKey(selectedDevice)) {
-                selectedDeviceId = deviceIds.get(selectedDevice);
-                onDeviceSelected(selectedDevice);
+            if (child.isPaired()) {
+                service.select(child.getAddress());
+                onDeviceSelected(child.getDisplayName());
             } else {
                 // Prompt for device ID
-                promptForDeviceId(selectedDevice);
+                promptForDeviceId(child);
+            }
+        });
+        
+        deviceList.setOnItemLongClickListener((parent, view, position, id) -> {
+            ParentNetworkService.ChildEntry child = children.get(position);
+            if (service == null || !child.isPaired()) {
+                return false;
             }
+            confirmForget(child);
+            return true;
         });
     }
     
     private void setupButtons() {
         scanButton.setOnClickListener(v -> performDeviceScan());
         
-        getTimeButton.setOnClickListener(v -> sendCommand("GET_TIME_LEFT"));
+        getTimeButton.setOnClickListener(v -> refreshTimeLeft());
         lockDeviceButton.setOnClickListener(v -> sendCommand("LOCK_DEVICE"));
+        lockAllButton.setOnClickListener(v -> sendCommandToAll("LOCK_DEVICE"));
         extendTimeButton.setOnClickListener(v -> {
             String minutesStr = extendMinutesInput.getText().toString().trim();
             if (TextUtils.isEmpty(minutesStr)) {
@@ -150,100 +210,201 @@ public class MainActivity extends Activity {
             sendCommand(command);
         });
         
+        scheduleButton.setOnClickListener(v -> showScheduledActions());
+        
         // Advanced section toggle
         advancedToggle.setOnClickListener(v -> toggleAdvancedSection());
         
+        // Counters and latency percentiles for support cases
+        diagnosticsButton.setOnClickListener(v -> startActivity(new Intent(this, DiagnosticsActivity.class)));
+        
         // Disable all command buttons until device is selected
-        getTimeButton.setEnabled(false);
-        lockDeviceButton.setEnabled(false);
-        extendTimeButton.setEnabled(false);
-        sendCommandButton.setEnabled(false);
+        disableAllCommandButtons();
     }
     
     private void performDeviceScan() {
+        if (service == null) {
+            return;
+        }
         statusText.setText("Scanning for child devices...");
-        scanButton.setEnabled(false);
+        
+        // Discovery keeps running in the background; a scan just restarts the fast probe schedule
+        service.rescan();
+        
+        mainHandler.removeCallbacks(scanStatusUpdate);
+        mainHandler.postDelayed(scanStatusUpdate, SCAN_STATUS_DELAY_MS);
+    }
+    
+    private void showScanStatus() {
+        statusText.setText(discoveredDevices.isEmpty() ?
+            "No child devices found. Check WiFi and child app." :
+            "Found " + discoveredDevices.size() + " device(s). Select one and enter Device ID.");
+    }
+    
+    private void renderChildren() {
+        children = service.getChildren();
         discoveredDevices.clear();
-        deviceAddresses.clear();
-        deviceIds.clear(); // Clear saved device IDs
+        for (ParentNetworkService.ChildEntry child : children) {
+            discoveredDevices.add(child.getDisplayName());
+        }
         deviceAdapter.notifyDataSetChanged();
-        selectedDeviceAddress = null;
-        selectedDeviceId = null;
-        getTimeButton.setEnabled(false);
-        lockDeviceButton.setEnabled(false);
-        extendTimeButton.setEnabled(false);
-        sendCommandButton.setEnabled(false);
-        
-        // Clear saved preferences when scanning
-        clearSavedDeviceSelection();
         
-        executorService.execute(this::performDeviceDiscovery);
+        if (service.getSelectedDeviceId() != null) {
+            enableAllCommandButtons();
+        } else {
+            disableAllCommandButtons();
+        }
+    }
+    
+    private boolean isCommandChannelOpen() {
+        if (service == null || !service.isCommandChannelOpen()) {
+            Toast.makeText(this, "Command channel unavailable", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        return true;
     }
     
     private void sendCommand(String command) {
+        if (!isCommandChannelOpen()) {
+            return;
+        }
+        String selectedDeviceId = service.getSelectedDeviceId();
         if (selectedDeviceId == null || selectedDeviceId.trim().isEmpty()) {
             Toast.makeText(this, "No device selected or device ID missing", Toast.LENGTH_SHORT).show();
             return;
         }
         
-        if (selectedDeviceAddress == null) {
-            Toast.makeText(this, "No device address available", Toast.LENGTH_SHORT).show();
-            return;
-        }
+        CommandTarget target = service.targetFor(service.getSelectedAddress(), selectedDeviceId);
+        statusText.setText("Sending command: " + command);
+        Log.d("ParentApp", "Sending command: " + command + " to " + target);
         
-        executorService.execute(() -> {
-            try {
-                // Create encryption manager with the selected device ID
-                ParentEncryptionManager encryptionManager = new ParentEncryptionManager(selectedDeviceId.trim());
-                
-                String encryptedCommand = encryptionManager.encryptMessage(command);
-                String message = COMMAND_PREFIX + encryptedCommand;
-                
-                mainHandler.post(() -> statusText.setText("Sending command: " + command));
-                Log.d("ParentApp", "Sending command: " + command + " to " + selectedDeviceAddress);
-                
-                DatagramSocket socket = new DatagramSocket();
-                socket.setSoTimeout(5000);
-                
-                byte[] messageBytes = message.getBytes();
-                InetAddress address = InetAddress.getByName(selectedDeviceAddress);
-                DatagramPacket packet = new DatagramPacket(messageBytes, messageBytes.length, address, DISCOVERY_PORT);
-                
-                socket.send(packet);
-                Log.d("ParentApp", "Command sent successfully");
-                
-                // Listen for response
-                byte[] responseBuffer = new byte[1024];
-                DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length);
-                socket.receive(responsePacket);
-                
-                String response = new String(responsePacket.getData(), 0, responsePacket.getLength());
-                Log.d("ParentApp", "Received response: " + response);
-                
-                if (response.startsWith(RESPONSE_PREFIX)) {
-                    String encryptedResponse = response.substring(RESPONSE_PREFIX.length());
-                    String decryptedResponse = encryptionManager.decryptMessage(encryptedResponse);
-                    
-                    mainHandler.post(() -> {
-                        statusText.setText("Response: " + decryptedResponse);
-                        Toast.makeText(MainActivity.this, "Command successful: " + decryptedResponse, Toast.LENGTH_LONG).show();
-                    });
-                } else {
+        // Bounded and cancelled with this screen; the transport does the socket I/O on its own thread
+        service.send(requestScope, target, command)
+            .whenComplete((decryptedResponse, failure) -> {
+                if (failure != null) {
+                    Throwable error = ChildCommandClient.unwrap(failure);
+                    if (error instanceof CancellationException) {
+                        return; // This screen is gone
+                    }
+                    Log.e("ParentApp", "Error sending command", error);
                     mainHandler.post(() -> {
-                        statusText.setText("Unexpected response format");
-                        Toast.makeText(MainActivity.this, "Unexpected response format", Toast.LENGTH_SHORT).show();
+                        statusText.setText("Error: " + error.getMessage());
+                        Toast.makeText(MainActivity.this, "Error sending command: " + error.getMessage(), Toast.LENGTH_LONG).show();
                     });
+                    return;
                 }
-                
-                socket.close();
-                
-            } catch (Exception e) {
-                Log.e("ParentApp", "Error sending command", e);
+                String formatted = formatResponse(decryptedResponse);
                 mainHandler.post(() -> {
-                    statusText.setText("Error: " + e.getMessage());
-                    Toast.makeText(MainActivity.this, "Error sending command: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                    statusText.setText("Response: " + formatted);
+                    Toast.makeText(MainActivity.this, "Command successful: " + formatted, Toast.LENGTH_LONG).show();
                 });
+            });
+    }
+    
+    private void refreshTimeLeft() {
+        if (!isCommandChannelOpen()) {
+            return;
+        }
+        String selectedDeviceId = service.getSelectedDeviceId();
+        if (selectedDeviceId == null || selectedDeviceId.trim().isEmpty()) {
+            Toast.makeText(this, "No device selected or device ID missing", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        statusText.setText("Sending command: GET_TIME_LEFT");
+        
+        // Shares the result of a background poll that is already in flight for this child
+        service.refreshTimeLeft(service.getSelectedAddress(), selectedDeviceId).whenComplete((snapshot, failure) -> {
+            if (failure != null) {
+                Log.e("ParentApp", "Error getting time left", failure);
+                mainHandler.post(() -> {
+                    statusText.setText("Error: " + failure.getMessage());
+                    Toast.makeText(MainActivity.this, "Error sending command: " + failure.getMessage(), Toast.LENGTH_LONG).show();
+                });
+                return;
+            }
+            String formatted = formatTimeLeft(snapshot.getRemainingMinutes(), snapshot.getTotalMinutes(), snapshot.getStatus());
+            mainHandler.post(() -> {
+                statusText.setText("Response: " + formatted);
+                Toast.makeText(MainActivity.this, "Command successful: " + formatted, Toast.LENGTH_LONG).show();
+            });
+        });
+    }
+    
+    private void onChildEvent(ChildEvent event) {
+        String message;
+        switch (event.getType()) {
+            case TIME_EXHAUSTED:
+                message = "Time is up";
+                break;
+            case LOCKED:
+                message = "Device locked";
+                break;
+            case TIME_EXTENDED:
+                message = "Time extended";
+                break;
+            default:
+                return; // Plain time updates only refresh the dashboard
+        }
+        String text = event.getSource().getAddress() + ": " + message;
+        statusText.setText(text);
+        Toast.makeText(this, text, Toast.LENGTH_SHORT).show();
+    }
+    
+    private void renderTimeLeftDashboard() {
+        List<TimeLeftSnapshot> snapshots = service.getTimeLeftSnapshots();
+        if (snapshots.isEmpty()) {
+            timeLeftDashboard.setVisibility(View.GONE);
+            return;
+        }
+        
+        StringBuilder text = new StringBuilder();
+        for (TimeLeftSnapshot snapshot : snapshots) {
+            if (text.length() > 0) {
+                text.append("\n");
+            }
+            text.append(snapshot.getAddress()).append(": ");
+            if (snapshot.getRemainingMinutes() >= 0) {
+                text.append(snapshot.getRemainingMinutes()).append("/").append(snapshot.getTotalMinutes())
+                    .append(" min - ").append(snapshot.getStatus());
+            }
+            if (!snapshot.isReachable()) {
+                text.append(snapshot.getRemainingMinutes() >= 0 ? " (offline)" : "offline");
+            }
+        }
+        timeLeftDashboard.setText(text);
+        timeLeftDashboard.setVisibility(View.VISIBLE);
+    }
+    
+    private void sendCommandToAll(String command) {
+        if (!isCommandChannelOpen()) {
+            return;
+        }
+        
+        // Every listed device we have a Device ID for
+        List<CommandTarget> targets = service.getPairedTargets();
+        if (targets.isEmpty()) {
+            Toast.makeText(this, "No devices with a Device ID", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        statusText.setText("Sending " + command + " to " + targets.size() + " device(s)...");
+        service.sendToAll(requestScope, targets, command).thenAccept(results -> {
+            StringBuilder summary = new StringBuilder();
+            int succeeded = 0;
+            for (CommandResult result : results) {
+                if (result.isSuccess()) {
+                    succeeded++;
+                    summary.append("\n").append(result.getTarget().getAddress())
+                        .append(": ").append(formatResponse(result.getResponse()));
+                } else {
+                    summary.append("\n").append(result.getTarget().getAddress())
+                        .append(": ✗ ").append(result.getError().getMessage());
+                }
             }
+            String status = command + " succeeded on " + succeeded + "/" + results.size() + summary;
+            Log.d("ParentApp", status);
+            mainHandler.post(() -> statusText.setText(status));
         });
     }
     
@@ -262,126 +423,42 @@ public class MainActivity extends Activity {
         lockDeviceButton.setEnabled(false);
         extendTimeButton.setEnabled(false);
         sendCommandButton.setEnabled(false);
+        scheduleButton.setEnabled(false);
     }
     
     private void enableAllCommandButtons() {
-        if (selectedDeviceAddress != null) {
-            getTimeButton.setEnabled(true);
-            lockDeviceButton.setEnabled(true);
-            extendTimeButton.setEnabled(true);
-            sendCommandButton.setEnabled(true);
-        }
-    }
-    
-    private void performDeviceDiscovery() {
-        try {
-            android.util.Log.d("ParentApp", "Starting device discovery...");
-            
-            DatagramSocket socket = new DatagramSocket();
-            socket.setBroadcast(true);
-            socket.setSoTimeout(5000); // 5 second timeout
-            
-            // Send discovery broadcast
-            byte[] messageBytes = DISCOVERY_MESSAGE.getBytes();
-            InetAddress broadcastAddress = InetAddress.getByName("255.255.255.255");
-            DatagramPacket packet = new DatagramPacket(
-                messageBytes, messageBytes.length, broadcastAddress, DISCOVERY_PORT);
-            
-            android.util.Log.d("ParentApp", "Sending broadcast to " + broadcastAddress.getHostAddress() + ":" + DISCOVERY_PORT);
-            socket.send(packet);
-            android.util.Log.d("ParentApp", "Broadcast sent successfully. Listening for responses...");
-            
-            // Listen for responses
-            byte[] buffer = new byte[1024];
-            long startTime = System.currentTimeMillis();
-            int responseCount = 0;
-            
-            while (System.currentTimeMillis() - startTime < 5000) {
-                try {
-                    DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(responsePacket);
-                    responseCount++;
-                    
-                    String response = new String(responsePacket.getData(), 0, responsePacket.getLength());
-                    String senderIP = responsePacket.getAddress().getHostAddress();
-                    
-                    android.util.Log.d("ParentApp", "Response #" + responseCount + " from " + senderIP + ": '" + response + "'");
-                    
-                    if (EXPECTED_RESPONSE.equals(response)) {
-                        String deviceIP = responsePacket.getAddress().getHostAddress();
-                        String displayName = "Child Device: " + deviceIP;
-                        
-                        android.util.Log.d("ParentApp", "✓ Valid child device found: " + deviceIP);
-                        
-                        mainHandler.post(() -> {
-                            if (!discoveredDevices.contains(displayName)) {
-                                discoveredDevices.add(displayName);
-                                deviceAddresses.put(displayName, deviceIP);
-                                deviceAdapter.notifyDataSetChanged();
-                            }
-                        });
-                    } else {
-                        android.util.Log.d("ParentApp", "✗ Unexpected response (expected: '" + EXPECTED_RESPONSE + "')");
-                    }
-                } catch (SocketTimeoutException e) {
-                    // Continue listening until total timeout
-                }
-            }
-            
-            android.util.Log.d("ParentApp", "Discovery completed. Responses received: " + responseCount + ", Devices found: " + discoveredDevices.size());
-            
-            socket.close();
-            
-            android.util.Log.d("ParentApp", "Socket closed. Final device count: " + discoveredDevices.size());
-            
-            mainHandler.post(() -> {
-                statusText.setText(discoveredDevices.isEmpty() ? 
-                    "No child devices found. Check WiFi and child app." : 
-                    "Found " + discoveredDevices.size() + " device(s). Select one and enter Device ID.");
-                scanButton.setEnabled(true);
-            });
-            
-        } catch (Exception e) {
-            android.util.Log.e("ParentApp", "Discovery error: " + e.getMessage(), e);
-            mainHandler.post(() -> {
-                statusText.setText("Discovery failed: " + e.getMessage());
-                scanButton.setEnabled(true);
-            });
-        }
+        getTimeButton.setEnabled(true);
+        lockDeviceButton.setEnabled(true);
+        extendTimeButton.setEnabled(true);
+        sendCommandButton.setEnabled(true);
+        scheduleButton.setEnabled(true);
     }
     
     private String formatResponse(String response) {
         // Format responses to be more user-friendly
-        if (response.startsWith("TIME_LEFT|")) {
-            String[] parts = response.split("\\|");
-            if (parts.length >= 4) {
-                try {
-                    long remainingMinutes = Long.parseLong(parts[1]);
-                    String status = parts[2];
-                    long totalMinutes = Long.parseLong(parts[3]);
-                    
-                    return String.format("Time Left: %d min (Total: %d min) - Status: %s", 
-                        remainingMinutes, totalMinutes, status);
-                } catch (NumberFormatException e) {
-                    return response;
-                }
-            }
-        } else if (response.startsWith("TIME_EXTENDED|")) {
-            return "✓ " + response.substring("TIME_EXTENDED|".length());
-        } else if (response.startsWith("DEVICE_LOCKED|")) {
-            String message = response.substring("DEVICE_LOCKED|".length());
-            return message.startsWith("ERROR") ? "✗ " + message : "✓ " + message;
-        } else if (response.startsWith("ERROR|")) {
-            return "✗ " + response.substring("ERROR|".length());
+        ChildResponse parsed = ChildResponse.parse(response);
+        switch (parsed.getType()) {
+            case TIME_LEFT:
+                return formatTimeLeft(parsed.getRemainingMinutes(), parsed.getTotalMinutes(), parsed.getStatus());
+            case TIME_EXTENDED:
+            case DEVICE_LOCKED:
+                return "✓ " + parsed.getMessage();
+            case ERROR:
+                return "✗ " + parsed.getMessage();
+            default:
+                return response;
         }
-        
-        return response;
     }
     
-    private void promptForDeviceId(String selectedDevice) {
+    private String formatTimeLeft(long remainingMinutes, long totalMinutes, String status) {
+        return String.format("Time Left: %d min (Total: %d min) - Status: %s",
+            remainingMinutes, totalMinutes, status);
+    }
+    
+    private void promptForDeviceId(ParentNetworkService.ChildEntry child) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Enter Device ID");
-        builder.setMessage("Please enter the Device ID for " + selectedDevice);
+        builder.setMessage("Please enter the Device ID for " + child.getDisplayName());
         
         final EditText input = new EditText(this);
         input.setHint("Device ID");
@@ -389,13 +466,14 @@ public class MainActivity extends Activity {
         
         builder.setPositiveButton("OK", (dialog, which) -> {
             String deviceId = input.getText().toString().trim();
-            if (!deviceId.isEmpty()) {
-                selectedDeviceId = deviceId;
-                deviceIds.put(selectedDevice, deviceId);
-                saveDeviceSelection(selectedDevice, selectedDeviceAddress, deviceId);
-                onDeviceSelected(selectedDevice);
-            } else {
+            if (deviceId.isEmpty()) {
                 Toast.makeText(this, "Device ID cannot be empty", Toast.LENGTH_SHORT).show();
+            } else if (service != null) {
+                if (service.pair(child.getAddress(), deviceId)) {
+                    onDeviceSelected(child.getDisplayName());
+                } else {
+                    Toast.makeText(this, "Device ID does not match this child", Toast.LENGTH_SHORT).show();
+                }
             }
         });
         
@@ -403,65 +481,137 @@ public class MainActivity extends Activity {
         builder.show();
     }
     
-    private void onDeviceSelected(String selectedDevice) {
-        Toast.makeText(this, "Selected: " + selectedDevice, Toast.LENGTH_SHORT).show();
+    private void showScheduledActions() {
+        String deviceId = service != null ? service.getSelectedDeviceId() : null;
+        if (deviceId == null) {
+            Toast.makeText(this, "No device selected", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        List<ScheduleRule> rules = service.getRules(deviceId);
+        String[] descriptions = new String[rules.size()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = rules.get(i).getDescription();
+        }
         
-        // Enable command sending once device is selected
-        getTimeButton.setEnabled(true);
-        lockDeviceButton.setEnabled(true);
-        extendTimeButton.setEnabled(true);
-        sendCommandButton.setEnabled(true);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(rules.isEmpty() ? "No scheduled actions" : "Scheduled actions (tap to remove)");
+        builder.setItems(descriptions, (dialog, which) -> {
+            service.removeRule(rules.get(which).getId());
+            Toast.makeText(this, "Removed: " + descriptions[which], Toast.LENGTH_SHORT).show();
+        });
+        builder.setPositiveButton("Lock at...", (dialog, which) -> promptLockTime(deviceId));
+        builder.setNeutralButton("Auto-extend...", (dialog, which) -> promptAutoExtend(deviceId));
+        builder.setNegativeButton("Close", (dialog, which) -> dialog.cancel());
+        builder.show();
     }
     
-    private void loadSavedDeviceSelection() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String savedDevice = prefs.getString(KEY_SELECTED_DEVICE, "");
+    private void promptLockTime(String deviceId) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Lock device at");
         
-        if (!savedDevice.isEmpty()) {
-            // Extract stored data
-            String[] parts = savedDevice.split("\\|");
-            if (parts.length == 3) {
-                String deviceName = parts[0];
-                String deviceAddress = parts[1];
-                String deviceId = parts[2];
-                
-                // Restore selection
-                selectedDeviceAddress = deviceAddress;
-                selectedDeviceId = deviceId;
-                deviceAddresses.put(deviceName, deviceAddress);
-                deviceIds.put(deviceName, deviceId);
-                
-                // Add to discovered devices list
-                discoveredDevices.add(deviceName);
-                deviceAdapter.notifyDataSetChanged();
-                
-                onDeviceSelected(deviceName);
-            }
+        final EditText input = new EditText(this);
+        input.setHint("21:00");
+        builder.setView(input);
+        
+        builder.setPositiveButton("Weekdays", (dialog, which) ->
+            addLockRule(deviceId, input.getText().toString(), ScheduleRule.WEEKDAYS));
+        builder.setNeutralButton("Every day", (dialog, which) ->
+            addLockRule(deviceId, input.getText().toString(), ScheduleRule.EVERY_DAY));
+        builder.setNegativeButton("Cancel", (dialog, which) -> dialog.cancel());
+        builder.show();
+    }
+    
+    private void addLockRule(String deviceId, String time, int days) {
+        Matcher matcher = Pattern.compile("(\\d{1,2}):(\\d{2})").matcher(time.trim());
+        boolean matched = matcher.matches();
+        int hour = matched ? Integer.parseInt(matcher.group(1)) : -1;
+        int minute = matched ? Integer.parseInt(matcher.group(2)) : -1;
+        if (hour < 0 || hour > 23 || minute > 59) {
+            Toast.makeText(this, "Enter a time like 21:00", Toast.LENGTH_SHORT).show();
+            return;
         }
+        addRule(ScheduleRule.atTime(deviceId, hour, minute, days, "LOCK_DEVICE"));
     }
     
-    private void saveDeviceSelection(String deviceName, String deviceAddress, String deviceId) {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
+    private void promptAutoExtend(String deviceId) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Once a day, when time runs out, extend by (minutes)");
         
-        // Store as "deviceName|deviceAddress|deviceId"
-        String deviceData = deviceName + "|" + deviceAddress + "|" + deviceId;
-        editor.putString(KEY_SELECTED_DEVICE, deviceData);
-        editor.apply();
+        final EditText input = new EditText(this);
+        input.setHint("15");
+        builder.setView(input);
+        
+        builder.setPositiveButton("Add", (dialog, which) -> {
+            String minutesStr = input.getText().toString().trim();
+            try {
+                int minutes = Integer.parseInt(minutesStr.isEmpty() ? "15" : minutesStr);
+                if (minutes <= 0 || minutes > 1440) {
+                    Toast.makeText(this, "Minutes must be between 1 and 1440", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                addRule(ScheduleRule.onEvent(deviceId, ChildEvent.Type.TIME_EXHAUSTED, 1, "EXTEND_TIME:" + minutes));
+            } catch (NumberFormatException e) {
+                Toast.makeText(this, "Please enter a valid number", Toast.LENGTH_SHORT).show();
+            }
+        });
+        builder.setNegativeButton("Cancel", (dialog, which) -> dialog.cancel());
+        builder.show();
+    }
+    
+    private void addRule(ScheduleRule rule) {
+        try {
+            service.addRule(rule);
+            Toast.makeText(this, "Scheduled: " + rule.getDescription(), Toast.LENGTH_SHORT).show();
+        } catch (IllegalStateException e) {
+            Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (rule.getTrigger() == ScheduleRule.Trigger.AT_TIME && !ScheduledActionReceiver.canScheduleExactAlarms(this)) {
+            promptExactAlarms();
+        }
+    }
+    
+    private void promptExactAlarms() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Exact times not allowed");
+        builder.setMessage("While the phone is idle, timed actions may run several minutes late. "
+            + "Allow \"Alarms & reminders\" for this app to run them on time.");
+        builder.setPositiveButton("Open settings", (dialog, which) -> startActivity(
+            new Intent(Settings.ACTION_REQUEST_SCHEDULE_EXACT_ALARM, Uri.parse("package:" + getPackageName()))));
+        builder.setNegativeButton("Not now", (dialog, which) -> dialog.cancel());
+        builder.show();
     }
     
-    private void clearSavedDeviceSelection() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.remove(KEY_SELECTED_DEVICE);
-        editor.apply();
+    private void confirmForget(ParentNetworkService.ChildEntry child) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Forget device");
+        builder.setMessage("Remove the Device ID for " + child.getDisplayName()
+            + "? You will need to enter it again to control this child.");
+        builder.setPositiveButton("Forget", (dialog, which) -> {
+            if (service != null) {
+                service.forget(child.getAddress());
+                Toast.makeText(this, "Forgot " + child.getDisplayName(), Toast.LENGTH_SHORT).show();
+            }
+        });
+        builder.setNegativeButton("Cancel", (dialog, which) -> dialog.cancel());
+        builder.show();
+    }
+    
+    private void onDeviceSelected(String selectedDevice) {
+        Toast.makeText(this, "Selected: " + selectedDevice, Toast.LENGTH_SHORT).show();
     }
     
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (executorService != null) {
-            executorService.shutdown();
+        mainHandler.removeCallbacks(scanStatusUpdate);
+        if (requestScope != null) {
+            requestScope.cancel();
+        }
+        if (service != null) {
+            service.removeListener(serviceListener);
+            service = null;
         }
+        unbindService(serviceConnection);
     }
 }
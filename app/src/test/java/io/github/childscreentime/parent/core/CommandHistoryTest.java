@@ -0,0 +1,161 @@
+package io.github.childscreentime.parent.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CommandHistory against a temporary directory: range scans over several day segments, and
+ * recovery from a torn tail or a record whose checksum no longer matches.
+ */
+public final class CommandHistoryTest {
+    
+    private static final long DAY = CommandHistory.BUCKET_MS;
+    private static final String CHILD = "child-one";
+    private static final String OTHER_CHILD = "child-two";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File directory;
+    private long dayStart;
+    
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("history");
+        // Recent enough that opening a store does not expire the segments
+        dayStart = CommandHistory.bucketOf(System.currentTimeMillis() - 3 * DAY) * DAY;
+    }
+    
+    @Test
+    public void queryStreamsAcrossSegmentBoundaries() {
+        CommandHistory history = new CommandHistory(directory);
+        long[] times = {
+            dayStart - 1, dayStart, dayStart + 500, dayStart + DAY - 1, dayStart + 2 * DAY + 7
+        };
+        for (long timeMs : times) {
+            history.append(timeLeft(timeMs, CHILD, 30));
+        }
+        
+        // Both ends are inclusive; the day with no segment in between is skipped
+        assertEquals(times(times[1], times[2], times[3], times[4]), timesOf(history, dayStart, times[4]));
+        assertEquals(times(times[0], times[1]), timesOf(history, dayStart - DAY, dayStart));
+        assertEquals(times(), timesOf(history, dayStart + DAY, dayStart + 2 * DAY));
+        assertEquals(3, segmentCount());
+    }
+    
+    @Test
+    public void helpersFilterByChildAndOutcome() {
+        CommandHistory history = new CommandHistory(directory);
+        history.append(extend(dayStart + 10, CHILD, 15, HistoryRecord.Outcome.OK));
+        history.append(extend(dayStart + 20, CHILD, 30, HistoryRecord.Outcome.FAILED));
+        history.append(extend(dayStart + 30, OTHER_CHILD, 45, HistoryRecord.Outcome.OK));
+        history.append(timeLeft(dayStart + 40, CHILD, 50));
+        history.append(timeLeft(dayStart + DAY + 10, OTHER_CHILD, 5));
+        history.append(extend(dayStart + DAY + 20, CHILD, 10, HistoryRecord.Outcome.OK));
+        history.append(timeLeft(dayStart + DAY + 30, CHILD, 40));
+        
+        assertEquals(25, history.sumExtensionMinutes(CHILD, dayStart, dayStart + 2 * DAY));
+        assertEquals(15, history.sumExtensionMinutes(CHILD, dayStart, dayStart + DAY - 1));
+        assertEquals(45, history.sumExtensionMinutes(OTHER_CHILD, dayStart, dayStart + 2 * DAY));
+        
+        List<Long> remaining = new ArrayList<>();
+        history.forEachTimeLeft(CHILD, dayStart, dayStart + 2 * DAY, record -> remaining.add(record.getRemainingMinutes()));
+        assertEquals(times(50, 40), remaining);
+        
+        String report = history.report(CHILD, dayStart, dayStart + 2 * DAY);
+        assertTrue(report, report.contains("Minutes extended       25"));
+        assertTrue(report, report.contains("Failed                 1"));
+        assertTrue(report, report.contains("Last time left         40 of 120 min"));
+    }
+    
+    @Test
+    public void truncatedTailIsCutOffWhenReopened() throws IOException {
+        CommandHistory history = new CommandHistory(directory);
+        history.append(timeLeft(dayStart + 1, CHILD, 30));
+        history.append(timeLeft(dayStart + 2, CHILD, 29));
+        history.append(timeLeft(dayStart + 3, CHILD, 28));
+        history.flush().join();
+        
+        // A crash in the middle of the last write
+        File segment = onlySegment();
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        
+        CommandHistory reopened = new CommandHistory(directory);
+        assertEquals(times(dayStart + 1, dayStart + 2), timesOf(reopened, dayStart, dayStart + DAY - 1));
+        
+        // New records land after the last whole one rather than after the torn bytes
+        reopened.append(timeLeft(dayStart + 4, CHILD, 27));
+        assertEquals(times(dayStart + 1, dayStart + 2, dayStart + 4), timesOf(reopened, dayStart, dayStart + DAY - 1));
+    }
+    
+    @Test
+    public void corruptRecordEndsItsSegmentOnly() throws IOException {
+        CommandHistory history = new CommandHistory(directory);
+        history.append(timeLeft(dayStart + 1, CHILD, 30));
+        history.flush().join();
+        long firstRecordEnd = onlySegment().length();
+        history.append(timeLeft(dayStart + 2, CHILD, 29));
+        history.append(timeLeft(dayStart + 3, CHILD, 28));
+        history.append(timeLeft(dayStart + DAY + 1, CHILD, 27));
+        history.flush().join();
+        
+        // Flip a byte inside the second record's body so its CRC no longer matches
+        File segment = new File(directory, "history-" + CommandHistory.bucketOf(dayStart) + ".log");
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(firstRecordEnd + 3);
+            int value = raf.read();
+            raf.seek(firstRecordEnd + 3);
+            raf.write(value ^ 0xFF);
+        }
+        
+        assertEquals(times(dayStart + 1, dayStart + DAY + 1), timesOf(history, dayStart, dayStart + 2 * DAY));
+    }
+    
+    private static HistoryRecord timeLeft(long timeMs, String deviceId, long remainingMinutes) {
+        return new HistoryRecord(timeMs, HistoryRecord.deviceTag(deviceId), "192.168.1.20",
+            HistoryRecord.Kind.GET_TIME_LEFT, -1, null, HistoryRecord.Outcome.OK, remainingMinutes, 120, "ACTIVE", 12);
+    }
+    
+    private static HistoryRecord extend(long timeMs, String deviceId, long minutes, HistoryRecord.Outcome outcome) {
+        return new HistoryRecord(timeMs, HistoryRecord.deviceTag(deviceId), "192.168.1.20",
+            HistoryRecord.Kind.EXTEND_TIME, minutes, null, outcome, -1, -1,
+            outcome == HistoryRecord.Outcome.OK ? null : "Timed out", 20);
+    }
+    
+    private static List<Long> timesOf(CommandHistory history, long fromMs, long toMs) {
+        List<Long> times = new ArrayList<>();
+        history.forEach(fromMs, toMs, record -> times.add(record.getTimeMs()));
+        return times;
+    }
+    
+    private static List<Long> times(long... values) {
+        List<Long> list = new ArrayList<>();
+        for (long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+    
+    private int segmentCount() {
+        File[] files = directory.listFiles();
+        return files != null ? files.length : 0;
+    }
+    
+    private File onlySegment() {
+        File[] files = directory.listFiles();
+        assertEquals(1, files != null ? files.length : 0);
+        return files[0];
+    }
+}
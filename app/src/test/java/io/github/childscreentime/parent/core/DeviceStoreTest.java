@@ -0,0 +1,100 @@
+package io.github.childscreentime.parent.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeviceStore reloads against a temporary file: a torn final record is cut off, while a damaged
+ * record in the middle of the log costs only that record.
+ */
+public final class DeviceStoreTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File file;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.newFolder("store"), DeviceStore.FILE_NAME);
+    }
+    
+    @Test
+    public void reloadsEveryRecord() {
+        DeviceStore store = new DeviceStore(file);
+        store.put(new PairedDevice("child-one", "192.168.1.20"));
+        store.put(new PairedDevice("child-two", "192.168.1.21"));
+        store.setSelected("child-two");
+        store.sync().join();
+        
+        DeviceStore reopened = new DeviceStore(file);
+        assertEquals(2, reopened.load().join().size());
+        assertEquals("child-two", reopened.getSelectedDeviceId());
+    }
+    
+    @Test
+    public void tornLastRecordIsCutOff() throws IOException {
+        DeviceStore store = new DeviceStore(file);
+        store.put(new PairedDevice("child-one", "192.168.1.20"));
+        store.sync().join();
+        long firstRecordEnd = file.length();
+        store.put(new PairedDevice("child-two", "192.168.1.21"));
+        store.sync().join();
+        
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        
+        DeviceStore reopened = new DeviceStore(file);
+        reopened.load().join();
+        assertNotNull(reopened.get("child-one"));
+        assertNull(reopened.get("child-two"));
+        assertEquals(firstRecordEnd, file.length());
+        assertFalse(new File(file.getPath() + ".corrupt").exists());
+    }
+    
+    @Test
+    public void corruptRecordInTheMiddleKeepsLaterRecords() throws IOException {
+        DeviceStore store = new DeviceStore(file);
+        store.put(new PairedDevice("child-one", "192.168.1.20"));
+        store.sync().join();
+        long firstRecordEnd = file.length();
+        store.put(new PairedDevice("child-two", "192.168.1.21"));
+        store.put(new PairedDevice("child-three", "192.168.1.22"));
+        store.setSelected("child-three");
+        store.sync().join();
+        
+        // Flip a byte inside child-two's body so its CRC no longer matches
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(firstRecordEnd + 5);
+            int value = raf.read();
+            raf.seek(firstRecordEnd + 5);
+            raf.write(value ^ 0xFF);
+        }
+        
+        DeviceStore reopened = new DeviceStore(file);
+        reopened.load().join();
+        assertNotNull(reopened.get("child-one"));
+        assertNull(reopened.get("child-two"));
+        assertNotNull(reopened.get("child-three"));
+        assertEquals("child-three", reopened.getSelectedDeviceId());
+        assertTrue(new File(file.getPath() + ".corrupt").exists());
+        
+        // The rewritten log reads cleanly and takes new records
+        reopened.put(new PairedDevice("child-four", "192.168.1.23"));
+        reopened.sync().join();
+        DeviceStore again = new DeviceStore(file);
+        assertEquals(3, again.load().join().size());
+    }
+}
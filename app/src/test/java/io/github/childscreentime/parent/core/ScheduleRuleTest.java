@@ -0,0 +1,80 @@
+package io.github.childscreentime.parent.core;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ScheduleRule occurrence arithmetic in a fixed zone: weekday masks, a time whose day has
+ * already passed this week, and a time skipped by the spring DST change.
+ */
+public final class ScheduleRuleTest {
+    
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+    private static final String CHILD = "child-one";
+    // A Monday; 2026-03-29 is the Sunday clocks go from 02:00 to 03:00 in Berlin
+    private static final LocalDate MONDAY = LocalDate.of(2026, 3, 23);
+    
+    @Test
+    public void singleWeekdayRuleWaitsAWeekOnceTodaysTimeHasPassed() {
+        ScheduleRule rule = ScheduleRule.atTime(CHILD, 7, 30, dayBit(DayOfWeek.MONDAY), "LOCK_DEVICE");
+        
+        assertEquals(at(MONDAY, 7, 30), rule.nextTimeAfter(at(MONDAY, 6, 0), ZONE));
+        assertEquals(at(MONDAY.plusDays(7), 7, 30), rule.nextTimeAfter(at(MONDAY, 7, 30), ZONE));
+        assertEquals(at(MONDAY.plusDays(7), 7, 30), rule.nextTimeAfter(at(MONDAY, 20, 0), ZONE));
+        
+        assertEquals(at(MONDAY, 7, 30), rule.lastTimeAtOrBefore(at(MONDAY, 7, 30), ZONE));
+        assertEquals(at(MONDAY.minusDays(7), 7, 30), rule.lastTimeAtOrBefore(at(MONDAY, 7, 29), ZONE));
+    }
+    
+    @Test
+    public void timeSkippedByDstMovesToTheFirstValidInstant() {
+        LocalDate changeDay = MONDAY.plusDays(6);
+        ScheduleRule rule = ScheduleRule.atTime(CHILD, 2, 30, ScheduleRule.EVERY_DAY, "LOCK_DEVICE");
+        
+        // 02:30 does not exist that night; the occurrence is 03:30 local, one hour after 01:30
+        long occurrence = rule.nextTimeAfter(at(changeDay, 0, 0), ZONE);
+        assertEquals(ZonedDateTime.of(changeDay, LocalTime.of(3, 30), ZONE).toInstant().toEpochMilli(), occurrence);
+        assertEquals(at(changeDay, 1, 30) + 60 * 60 * 1000, occurrence);
+        
+        assertEquals(at(changeDay.plusDays(1), 2, 30), rule.nextTimeAfter(occurrence, ZONE));
+        assertEquals(occurrence, rule.lastTimeAtOrBefore(at(changeDay, 12, 0), ZONE));
+    }
+    
+    @Test
+    public void weekdayBedtimeSkipsTheWeekend() {
+        ScheduleRule rule = ScheduleRule.atTime(CHILD, 21, 0, ScheduleRule.WEEKDAYS, "LOCK_DEVICE");
+        LocalDate friday = MONDAY.plusDays(4);
+        LocalDate saturday = friday.plusDays(1);
+        LocalDate nextMonday = MONDAY.plusDays(7);
+        
+        // Friday evening before bedtime still locks that night
+        assertEquals(at(friday, 21, 0), rule.nextTimeAfter(at(friday, 20, 0), ZONE));
+        // Friday night after it, the next run is Monday
+        assertEquals(at(nextMonday, 21, 0), rule.nextTimeAfter(at(friday, 22, 0), ZONE));
+        // Saturday evening past 21:00 has no run of its own
+        assertEquals(at(nextMonday, 21, 0), rule.nextTimeAfter(at(saturday, 21, 30), ZONE));
+        // A missed-run check on Saturday looks back to Friday's 21:00
+        assertEquals(at(friday, 21, 0), rule.lastTimeAtOrBefore(at(saturday, 21, 30), ZONE));
+        assertEquals(at(friday, 21, 0), rule.lastTimeAtOrBefore(at(friday, 21, 0), ZONE));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRuleWithNoDays() {
+        ScheduleRule.atTime(CHILD, 21, 0, 0, "LOCK_DEVICE");
+    }
+    
+    private static int dayBit(DayOfWeek day) {
+        return 1 << (day.getValue() - 1);
+    }
+    
+    private static long at(LocalDate date, int hour, int minute) {
+        return LocalDateTime.of(date, LocalTime.of(hour, minute)).atZone(ZONE).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,228 @@
+package io.github.childscreentime.parent.sim;
+
+import io.github.childscreentime.parent.core.DiscoveryEngine;
+import io.github.childscreentime.parent.core.DiscoveryTargetSource;
+import io.github.childscreentime.parent.core.ParentEncryptionManager;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many SimulatedChild instances in-process, each bound to its own loopback address, so the
+ * real discovery, transport and command code can be exercised on a plain JVM without devices.
+ *
+ * Children get consecutive addresses starting at 127.0.0.2 (Linux routes all of 127/8 to the
+ * loopback interface; macOS needs aliases added first). All sockets share one selector thread,
+ * and delayed or duplicated replies go through one scheduler thread, so thousands of children
+ * cost two threads. Every datagram passes through the configured NetworkConditions.
+ */
+public final class ChildSimulator implements Closeable {
+    
+    private static final int FIRST_LOOPBACK_HOST = 0x7F000002;
+    private static final int MAX_DATAGRAM_SIZE = 1024;
+    
+    private final int port;
+    private final NetworkConditions conditions;
+    private final List<SimulatedChild> children = new CopyOnWriteArrayList<>();
+    private final Map<SimulatedChild, DatagramChannel> channels = new ConcurrentHashMap<>();
+    private final Queue<SimulatedChild> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final Selector selector;
+    private final ScheduledExecutorService scheduler;
+    private final Thread thread;
+    private final SimulatedChild.Outbox outbox = this::deliver;
+    private volatile boolean running = true;
+    
+    public ChildSimulator(NetworkConditions conditions) throws IOException {
+        this(DiscoveryEngine.DISCOVERY_PORT, conditions);
+    }
+    
+    /**
+     * Simulator whose children listen on the given port
+     */
+    public ChildSimulator(int port, NetworkConditions conditions) throws IOException {
+        this.port = port;
+        this.conditions = conditions;
+        this.selector = Selector.open();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread worker = new Thread(runnable, "cst-child-simulator-delay");
+            worker.setDaemon(true);
+            return worker;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+        this.thread = new Thread(this::receiveLoop, "cst-child-simulator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Add a framed AES-GCM child, the format current child apps negotiate
+     */
+    public SimulatedChild addChild(String deviceId) throws IOException {
+        return addChild(deviceId, 1, ParentEncryptionManager.CipherMode.GCM);
+    }
+    
+    /**
+     * Add a child on the next free loopback address. Frame version 0 makes it a legacy text child.
+     */
+    public synchronized SimulatedChild addChild(String deviceId, int frameVersion,
+                                                ParentEncryptionManager.CipherMode cipherMode) throws IOException {
+        int host = FIRST_LOOPBACK_HOST + children.size();
+        InetAddress loopback = InetAddress.getByAddress(new byte[] {
+            (byte) (host >>> 24), (byte) (host >>> 16), (byte) (host >>> 8), (byte) host});
+        InetSocketAddress address = new InetSocketAddress(loopback, port);
+        
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.bind(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        SimulatedChild child = new SimulatedChild(deviceId, address, frameVersion, cipherMode, outbox);
+        channels.put(child, channel);
+        children.add(child);
+        // register() blocks while select() runs, so the receive thread registers the channel itself.
+        // Datagrams arriving before then wait in the socket buffer.
+        pendingRegistrations.add(child);
+        selector.wakeup();
+        return child;
+    }
+    
+    public List<SimulatedChild> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+    
+    public int getPort() {
+        return port;
+    }
+    
+    /**
+     * Discovery targets covering exactly the simulated children, for both broadcast and sweep
+     */
+    public DiscoveryTargetSource getTargetSource() {
+        return new DiscoveryTargetSource() {
+            @Override
+            public List<InetSocketAddress> broadcastTargets(int targetPort) {
+                return addressesOn(targetPort);
+            }
+            
+            @Override
+            public List<InetSocketAddress> unicastSweepTargets(int targetPort) {
+                return addressesOn(targetPort);
+            }
+        };
+    }
+    
+    private List<InetSocketAddress> addressesOn(int targetPort) {
+        List<InetSocketAddress> addresses = new ArrayList<>(children.size());
+        for (SimulatedChild child : children) {
+            addresses.add(new InetSocketAddress(child.getAddress().getAddress(), targetPort));
+        }
+        return addresses;
+    }
+    
+    private void receiveLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+        try {
+            while (running) {
+                selector.select();
+                SimulatedChild added;
+                while ((added = pendingRegistrations.poll()) != null) {
+                    channels.get(added).register(selector, SelectionKey.OP_READ, added);
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid() || !key.isReadable()) {
+                        continue;
+                    }
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    SimulatedChild child = (SimulatedChild) key.attachment();
+                    buffer.clear();
+                    InetSocketAddress source;
+                    while ((source = (InetSocketAddress) channel.receive(buffer)) != null) {
+                        buffer.flip();
+                        byte[] data = new byte[buffer.remaining()];
+                        buffer.get(data);
+                        buffer.clear();
+                        if (!conditions.drop()) {
+                            child.receive(source, data);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                System.err.println("Child simulator stopped: " + e);
+            }
+        }
+    }
+    
+    private void deliver(SimulatedChild child, InetSocketAddress destination, byte[] data) {
+        if (conditions.drop()) {
+            return;
+        }
+        schedule(child, destination, data, conditions.nextDelayMs());
+        if (conditions.duplicate()) {
+            schedule(child, destination, data, conditions.nextDelayMs());
+        }
+    }
+    
+    private void schedule(SimulatedChild child, InetSocketAddress destination, byte[] data, long delayMs) {
+        if (delayMs <= 0) {
+            sendNow(child, destination, data);
+            return;
+        }
+        try {
+            scheduler.schedule(() -> sendNow(child, destination, data), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed while the reply was in flight
+        }
+    }
+    
+    private void sendNow(SimulatedChild child, InetSocketAddress destination, byte[] data) {
+        DatagramChannel channel = channels.get(child);
+        try {
+            channel.send(ByteBuffer.wrap(data), destination);
+        } catch (IOException e) {
+            // UDP gives no delivery guarantee; a failed send is just more loss
+        }
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        scheduler.shutdownNow();
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+        for (DatagramChannel channel : channels.values()) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.childscreentime.parent.sim;
+
+import io.github.childscreentime.parent.core.ChildCommandClient;
+import io.github.childscreentime.parent.core.CommandResult;
+import io.github.childscreentime.parent.core.CommandTarget;
+import io.github.childscreentime.parent.core.CommandTransport;
+import io.github.childscreentime.parent.core.DeviceRegistry;
+import io.github.childscreentime.parent.core.DiscoveredDevice;
+import io.github.childscreentime.parent.core.DiscoveryEngine;
+import io.github.childscreentime.parent.core.NetworkScheduler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end load run of the parent protocol stack against a ChildSimulator: discovery through
+ * DiscoveryEngine, then rounds of GET_TIME_LEFT and EXTEND_TIME fanned out with
+ * NetworkScheduler.submitToAll, the same path the app uses.
+ *
+ * Runs as a JVM unit test. The core classes log through android.util.Log, which the mockable
+ * android.jar answers with default values (returnDefaultValues in app/build.gradle.kts). main
+ * runs a larger, configurable load for manual measurements.
+ */
+public final class LoopbackLoadTest {
+    
+    private static final long DISCOVERY_TIMEOUT_MS = 30 * 1000;
+    private static final long COMMAND_TIMEOUT_MS = 5000;
+    private static final long POLL_INTERVAL_MS = 20;
+    private static final int MAX_FAN_OUT = NetworkScheduler.MAX_IN_FLIGHT + NetworkScheduler.MAX_WAITING;
+    
+    /**
+     * Outcome of one run
+     */
+    public static final class Report {
+        public final int children;
+        public final int discovered;
+        public final long discoveryMs;
+        public final int commands;
+        public final int failures;
+        public final long p50Ms;
+        public final long p95Ms;
+        public final long p99Ms;
+        public final long maxMs;
+        /** Extensions the parent saw acknowledged minus those the children applied; 0 when dedupe works */
+        public final int extensionMismatch;
+        public final int duplicatesSuppressed;
+        
+        Report(int children, int discovered, long discoveryMs, int commands, int failures, long[] latencies,
+               int extensionMismatch, int duplicatesSuppressed) {
+            this.children = children;
+            this.discovered = discovered;
+            this.discoveryMs = discoveryMs;
+            this.commands = commands;
+            this.failures = failures;
+            this.p50Ms = percentile(latencies, 50);
+            this.p95Ms = percentile(latencies, 95);
+            this.p99Ms = percentile(latencies, 99);
+            this.maxMs = latencies.length == 0 ? 0 : latencies[latencies.length - 1];
+            this.extensionMismatch = extensionMismatch;
+            this.duplicatesSuppressed = duplicatesSuppressed;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                "children=%d discovered=%d in %d ms; commands=%d failures=%d; "
+                    + "latency p50=%d p95=%d p99=%d max=%d ms; duplicates suppressed=%d extension mismatch=%d",
+                children, discovered, discoveryMs, commands, failures,
+                p50Ms, p95Ms, p99Ms, maxMs, duplicatesSuppressed, extensionMismatch);
+        }
+    }
+    
+    @Test
+    public void idealNetworkAnswersEveryCommand() throws Exception {
+        Report report = run(20, NetworkConditions.IDEAL, 6, 18960);
+        assertEquals(report.toString(), 20, report.discovered);
+        assertEquals(report.toString(), 20 * 6, report.commands);
+        assertEquals(report.toString(), 0, report.failures);
+        assertEquals(report.toString(), 0, report.extensionMismatch);
+    }
+    
+    @Test
+    public void lossyNetworkRetransmitsWithoutRunningCommandsTwice() throws Exception {
+        // Duplicated and retransmitted EXTEND_TIME commands must each be applied exactly once
+        NetworkConditions conditions = new NetworkConditions(0.05, 2, 40, 0.05, 0.2, 42);
+        Report report = run(20, conditions, 10, 18961);
+        assertEquals(report.toString(), 20, report.discovered);
+        assertEquals(report.toString(), 0, report.failures);
+        assertEquals(report.toString(), 0, report.extensionMismatch);
+        assertTrue(report.toString(), report.duplicatesSuppressed > 0);
+    }
+    
+    /**
+     * Simulate childCount framed children on the given port and run commandsPerChild rounds against them
+     */
+    public static Report run(int childCount, NetworkConditions conditions, int commandsPerChild, int port)
+            throws IOException, InterruptedException {
+        try (ChildSimulator simulator = new ChildSimulator(port, conditions);
+             CommandTransport transport = new CommandTransport()) {
+            for (int i = 0; i < childCount; i++) {
+                simulator.addChild("sim-child-" + i);
+            }
+            
+            DeviceRegistry registry = new DeviceRegistry();
+            DiscoveryEngine engine = new DiscoveryEngine(registry, port, simulator.getTargetSource());
+            long discoveryStart = System.nanoTime();
+            engine.start();
+            long discoveryDeadline = discoveryStart + DISCOVERY_TIMEOUT_MS * 1_000_000L;
+            while (registry.size() < childCount && System.nanoTime() < discoveryDeadline) {
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+            long discoveryMs = (System.nanoTime() - discoveryStart) / 1_000_000L;
+            engine.stop();
+            
+            List<CommandTarget> targets = new ArrayList<>(registry.size());
+            for (DiscoveredDevice device : registry.getDevices()) {
+                String deviceId = device.getKey().substring("id:".length());
+                targets.add(new CommandTarget(device.getAddress(), deviceId,
+                    device.getFrameVersion(), device.getCipherMode()));
+            }
+            
+            long extendedBefore = totalMinutes(simulator);
+            NetworkScheduler scheduler = new NetworkScheduler(transport, new ChildCommandClient(transport, port));
+            NetworkScheduler.Scope scope = scheduler.newScope();
+            long[] latencies = new long[targets.size() * commandsPerChild];
+            int count = 0;
+            int failures = 0;
+            long acknowledgedMinutes = 0;
+            for (int round = 0; round < commandsPerChild; round++) {
+                String command = round % 2 == 0 ? "GET_TIME_LEFT" : "EXTEND_TIME:1";
+                // The scheduler rejects more than it can hold at once, so large runs go in slices
+                for (int from = 0; from < targets.size(); from += MAX_FAN_OUT) {
+                    List<CommandTarget> slice = targets.subList(from, Math.min(from + MAX_FAN_OUT, targets.size()));
+                    for (CommandResult result : scheduler.submitToAll(scope, slice, command, COMMAND_TIMEOUT_MS).join()) {
+                        latencies[count++] = result.getRoundTripMs();
+                        if (!result.isSuccess()) {
+                            failures++;
+                        } else if (command.startsWith("EXTEND_TIME:")) {
+                            acknowledgedMinutes++;
+                        }
+                    }
+                }
+            }
+            Arrays.sort(latencies, 0, count);
+            
+            int duplicates = 0;
+            for (SimulatedChild child : simulator.getChildren()) {
+                duplicates += child.getDuplicatesSuppressed();
+            }
+            // Timed-out extensions may still have run, so only an excess of applied minutes is meaningful
+            long appliedMinutes = totalMinutes(simulator) - extendedBefore;
+            int mismatch = failures == 0 ? (int) (appliedMinutes - acknowledgedMinutes) : 0;
+            return new Report(childCount, registry.size(), discoveryMs, count, failures,
+                Arrays.copyOf(latencies, count), mismatch, duplicates);
+        }
+    }
+    
+    private static long totalMinutes(ChildSimulator simulator) {
+        long total = 0;
+        for (SimulatedChild child : simulator.getChildren()) {
+            total += child.getTotalMinutes();
+        }
+        return total;
+    }
+    
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+    
+    /**
+     * Usage: LoopbackLoadTest [children] [rounds] [lossRate] [port]
+     */
+    public static void main(String[] args) throws Exception {
+        int children = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        double loss = args.length > 2 ? Double.parseDouble(args[2]) : 0.02;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 18888;
+        NetworkConditions conditions = new NetworkConditions(loss, 2, 40, 0.05, 0.01, 42);
+        System.out.println("Conditions: " + conditions);
+        System.out.println(run(children, conditions, rounds, port));
+    }
+}
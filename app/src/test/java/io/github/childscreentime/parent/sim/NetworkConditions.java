@@ -0,0 +1,92 @@
+package io.github.childscreentime.parent.sim;
+
+import java.util.Random;
+
+/**
+ * Impairments applied by ChildSimulator to every datagram it receives or sends.
+ *
+ * Each outgoing datagram is delayed by a uniform random amount in [minDelayMs, maxDelayMs].
+ * With probability reorderRate it is held back another maxDelayMs, so it arrives after
+ * datagrams sent later. Loss applies in both directions, and duplication to outgoing datagrams
+ * only. A fixed seed makes a run repeatable.
+ */
+public final class NetworkConditions {
+    
+    /**
+     * A perfect link: no loss, delay, reordering or duplication
+     */
+    public static final NetworkConditions IDEAL = new NetworkConditions(0, 0, 0, 0, 0, 1);
+    
+    private final double lossRate;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final double reorderRate;
+    private final double duplicateRate;
+    private final Random random;
+    
+    public NetworkConditions(double lossRate, long minDelayMs, long maxDelayMs,
+                             double reorderRate, double duplicateRate, long seed) {
+        if (lossRate < 0 || lossRate > 1 || reorderRate < 0 || reorderRate > 1
+                || duplicateRate < 0 || duplicateRate > 1) {
+            throw new IllegalArgumentException("Rates must be between 0 and 1");
+        }
+        if (minDelayMs < 0 || maxDelayMs < minDelayMs) {
+            throw new IllegalArgumentException("Need 0 <= minDelayMs <= maxDelayMs");
+        }
+        this.lossRate = lossRate;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.reorderRate = reorderRate;
+        this.duplicateRate = duplicateRate;
+        this.random = new Random(seed);
+    }
+    
+    /**
+     * Roughly a busy home Wi-Fi: 2% loss, 2-40 ms latency, occasional reordering
+     */
+    public static NetworkConditions lossyWifi(long seed) {
+        return new NetworkConditions(0.02, 2, 40, 0.05, 0.01, seed);
+    }
+    
+    /**
+     * Whether to drop this datagram
+     */
+    public boolean drop() {
+        return lossRate > 0 && chance(lossRate);
+    }
+    
+    /**
+     * Delay before delivering an outgoing datagram
+     */
+    public long nextDelayMs() {
+        long delay = minDelayMs;
+        if (maxDelayMs > minDelayMs) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * (maxDelayMs - minDelayMs));
+            }
+        }
+        if (reorderRate > 0 && chance(reorderRate)) {
+            delay += Math.max(1, maxDelayMs);
+        }
+        return delay;
+    }
+    
+    /**
+     * Whether to deliver an outgoing datagram twice
+     */
+    public boolean duplicate() {
+        return duplicateRate > 0 && chance(duplicateRate);
+    }
+    
+    private boolean chance(double rate) {
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "loss=" + lossRate + " delay=" + minDelayMs + "-" + maxDelayMs + "ms reorder=" + reorderRate
+            + " duplicate=" + duplicateRate;
+    }
+}
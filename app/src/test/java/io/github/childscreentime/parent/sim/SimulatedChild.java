@@ -0,0 +1,357 @@
+package io.github.childscreentime.parent.sim;
+
+import io.github.childscreentime.parent.core.CommandBatch;
+import io.github.childscreentime.parent.core.DeviceIdentity;
+import io.github.childscreentime.parent.core.DiscoveryResponse;
+import io.github.childscreentime.parent.core.ParentEncryptionManager;
+import io.github.childscreentime.parent.core.WireFrame;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory model of one child app, speaking the same protocol as the real one.
+ *
+ * Answers discovery probes, decrypts legacy text and framed commands with the key derived from
+ * its device ID, and keeps a small time-left state machine. Like a real framed child it
+ * remembers its last replies and answers a retransmitted command with the cached reply instead
+ * of running it again. Version 2 children also run batches, fragmenting replies that do not fit
+ * one datagram, and sign their discovery replies with a fingerprint, name, capabilities and the
+ * nonce of the probe they answer. Subscribers get encrypted status events pushed to them.
+ */
+public final class SimulatedChild {
+    
+    private static final String COMMAND_PREFIX = "CST_CMD:";
+    private static final String RESPONSE_PREFIX = "CST_RESP:";
+    private static final String EVENT_PREFIX = "CST_EVENT:";
+    private static final String NONCE_PREFIX = "|NONCE=";
+    private static final int REPLY_CACHE_SIZE = 64;
+    private static final int DEFAULT_MAX_DATAGRAM_SIZE = 1024;
+    
+    /**
+     * Delivers datagrams produced by the child; ChildSimulator applies network conditions
+     */
+    interface Outbox {
+        void send(SimulatedChild child, InetSocketAddress destination, byte[] data);
+    }
+    
+    private final String deviceId;
+    private final InetSocketAddress address;
+    private final int frameVersion;
+    private final ParentEncryptionManager.CipherMode cipherMode;
+    private final Outbox outbox;
+    private final Map<String, List<byte[]>> replyCache = new LinkedHashMap<String, List<byte[]>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<byte[]>> eldest) {
+            return size() > REPLY_CACHE_SIZE;
+        }
+    };
+    private final Set<InetSocketAddress> subscribers = new LinkedHashSet<>();
+    
+    private long remainingMinutes = 60;
+    private long totalMinutes = 120;
+    private boolean locked;
+    private int commandsExecuted;
+    private int duplicatesSuppressed;
+    private int discoveryReplies;
+    private int maxDatagramSize = DEFAULT_MAX_DATAGRAM_SIZE;
+    private volatile String name;
+    
+    SimulatedChild(String deviceId, InetSocketAddress address, int frameVersion,
+                   ParentEncryptionManager.CipherMode cipherMode, Outbox outbox) {
+        this.deviceId = deviceId;
+        this.address = address;
+        this.frameVersion = frameVersion;
+        this.cipherMode = cipherMode;
+        this.outbox = outbox;
+        this.name = "Sim " + deviceId;
+    }
+    
+    public String getDeviceId() {
+        return deviceId;
+    }
+    
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+    
+    public int getFrameVersion() {
+        return frameVersion;
+    }
+    
+    public ParentEncryptionManager.CipherMode getCipherMode() {
+        return cipherMode;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Friendly name advertised by version 2 children
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public synchronized long getRemainingMinutes() {
+        return remainingMinutes;
+    }
+    
+    public synchronized long getTotalMinutes() {
+        return totalMinutes;
+    }
+    
+    public synchronized boolean isLocked() {
+        return locked;
+    }
+    
+    /**
+     * Commands actually run, not counting replays of cached replies
+     */
+    public synchronized int getCommandsExecuted() {
+        return commandsExecuted;
+    }
+    
+    /**
+     * Retransmitted commands answered from the reply cache
+     */
+    public synchronized int getDuplicatesSuppressed() {
+        return duplicatesSuppressed;
+    }
+    
+    public synchronized int getDiscoveryReplies() {
+        return discoveryReplies;
+    }
+    
+    public synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
+    
+    /**
+     * Largest reply datagram the child sends; lower it to force fragmented batch replies
+     */
+    public synchronized void setMaxDatagramSize(int bytes) {
+        maxDatagramSize = bytes;
+    }
+    
+    /**
+     * Set the time left as if the child's own timer ticked, pushing TIME_EXHAUSTED on reaching zero
+     */
+    public void setRemainingMinutes(long minutes) {
+        String event;
+        synchronized (this) {
+            boolean exhausted = remainingMinutes > 0 && minutes <= 0;
+            remainingMinutes = Math.max(0, minutes);
+            event = exhausted ? "TIME_EXHAUSTED|" + timeLeftFields() : "TIME_LEFT|" + timeLeftFields();
+        }
+        pushEvent(event);
+    }
+    
+    /**
+     * Encrypt and send an event to every current subscriber
+     */
+    public void pushEvent(String event) {
+        List<InetSocketAddress> destinations;
+        synchronized (this) {
+            destinations = new ArrayList<>(subscribers);
+        }
+        if (destinations.isEmpty()) {
+            return;
+        }
+        byte[] data = encode(WireFrame.TYPE_EVENT, 0, EVENT_PREFIX, event);
+        for (InetSocketAddress destination : destinations) {
+            outbox.send(this, destination, data);
+        }
+    }
+    
+    /**
+     * Handle one datagram addressed to this child
+     */
+    void receive(InetSocketAddress source, byte[] data) {
+        List<byte[]> replies;
+        try {
+            replies = WireFrame.isFrame(data, 0, data.length)
+                ? handleFrame(source, data)
+                : Collections.singletonList(handleText(source, data));
+        } catch (ProtocolException | RuntimeException e) {
+            return; // A real child drops anything it cannot decrypt or parse
+        }
+        for (byte[] reply : replies) {
+            if (reply != null) {
+                outbox.send(this, source, reply);
+            }
+        }
+    }
+    
+    private byte[] handleText(InetSocketAddress source, byte[] data) {
+        String message = new String(data, StandardCharsets.UTF_8).trim();
+        if (message.startsWith(DiscoveryResponse.DISCOVERY_MESSAGE)) {
+            synchronized (this) {
+                discoveryReplies++;
+            }
+            int nonceStart = message.indexOf(NONCE_PREFIX);
+            String nonce = nonceStart < 0 ? null : message.substring(nonceStart + NONCE_PREFIX.length());
+            return discoveryResponse(nonce).getBytes(StandardCharsets.UTF_8);
+        }
+        if (!message.startsWith(COMMAND_PREFIX)) {
+            return null;
+        }
+        // Legacy children have no correlation ID, so identical ciphertext is the only duplicate signal
+        String ciphertext = message.substring(COMMAND_PREFIX.length());
+        String cacheKey = source + "|" + ciphertext;
+        synchronized (this) {
+            List<byte[]> cached = replyCache.get(cacheKey);
+            if (cached != null) {
+                duplicatesSuppressed++;
+                return cached.get(0);
+            }
+            String command = cipher().decryptMessage(ciphertext);
+            byte[] reply = (RESPONSE_PREFIX + cipher().encryptMessage(execute(source, command)))
+                .getBytes(StandardCharsets.UTF_8);
+            replyCache.put(cacheKey, Collections.singletonList(reply));
+            return reply;
+        }
+    }
+    
+    private List<byte[]> handleFrame(InetSocketAddress source, byte[] data) throws ProtocolException {
+        if (frameVersion < WireFrame.VERSION_1) {
+            return Collections.emptyList();
+        }
+        WireFrame frame = WireFrame.decode(data, 0, data.length);
+        boolean batch = frame.getType() == WireFrame.TYPE_BATCH && frameVersion >= WireFrame.VERSION_2;
+        if (frame.getType() != WireFrame.TYPE_COMMAND && !batch) {
+            return Collections.emptyList();
+        }
+        String cacheKey = source + "#" + frame.getCorrelationId();
+        synchronized (this) {
+            List<byte[]> cached = replyCache.get(cacheKey);
+            if (cached != null) {
+                duplicatesSuppressed++;
+                return cached;
+            }
+            byte[] plaintext = cipher().decrypt(frame.getBuffer(), frame.getPayloadOffset(), frame.getPayloadLength());
+            byte[] response;
+            if (batch) {
+                List<String> responses = new ArrayList<>();
+                for (String command : CommandBatch.decode(plaintext, 0, plaintext.length)) {
+                    responses.add(execute(source, command));
+                }
+                response = CommandBatch.encode(responses);
+            } else {
+                response = execute(source, new String(plaintext, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> replies = WireFrame.encodeFragmented(batch ? WireFrame.TYPE_BATCH_RESPONSE : WireFrame.TYPE_RESPONSE,
+                frame.getCorrelationId(), cipher().encrypt(response), frameVersion >= WireFrame.VERSION_2
+                    ? maxDatagramSize : Integer.MAX_VALUE);
+            replyCache.put(cacheKey, replies);
+            return replies;
+        }
+    }
+    
+    /**
+     * Run a decrypted command and return the plaintext response; caller holds the lock
+     */
+    private String execute(InetSocketAddress source, String command) {
+        commandsExecuted++;
+        if (command.equals("GET_TIME_LEFT")) {
+            return "TIME_LEFT|" + timeLeftFields();
+        }
+        if (command.equals("LOCK_DEVICE")) {
+            locked = true;
+            return "DEVICE_LOCKED|" + timeLeftFields();
+        }
+        if (command.startsWith("EXTEND_TIME:")) {
+            long minutes = parseLong(command.substring("EXTEND_TIME:".length()));
+            if (minutes <= 0) {
+                return "ERROR|Invalid minutes";
+            }
+            remainingMinutes += minutes;
+            totalMinutes += minutes;
+            locked = false;
+            return "TIME_EXTENDED|" + timeLeftFields();
+        }
+        if (command.startsWith("SUBSCRIBE:")) {
+            long seconds = parseLong(command.substring("SUBSCRIBE:".length()));
+            if (seconds <= 0) {
+                return "ERROR|Invalid lease";
+            }
+            subscribers.add(source);
+            return "SUBSCRIBED|" + seconds;
+        }
+        if (command.equals("UNSUBSCRIBE")) {
+            subscribers.remove(source);
+            return "UNSUBSCRIBED";
+        }
+        return "ERROR|Unknown command";
+    }
+    
+    private String timeLeftFields() {
+        return remainingMinutes + "|" + (locked ? "LOCKED" : "ACTIVE") + "|" + totalMinutes;
+    }
+    
+    private String discoveryResponse(String nonce) {
+        StringBuilder response = new StringBuilder(DiscoveryResponse.EXPECTED_RESPONSE);
+        if (frameVersion > 0) {
+            response.append("|FRAME=").append(frameVersion);
+        }
+        if (cipherMode == ParentEncryptionManager.CipherMode.GCM) {
+            response.append("|CIPHER=GCM");
+        }
+        response.append("|ID=").append(deviceId);
+        if (frameVersion >= WireFrame.VERSION_2) {
+            response.append("|FP=").append(DeviceIdentity.fingerprint(deviceId));
+            response.append("|NAME=").append(encodeName(name));
+            response.append("|CAPS=").append(Integer.toHexString(
+                DiscoveryResponse.CAPABILITY_SUBSCRIPTIONS | DiscoveryResponse.CAPABILITY_BATCH));
+            if (nonce != null) {
+                response.append("|NONCE=").append(nonce);
+            }
+            String signed = response.toString();
+            response.append("|MAC=").append(DeviceIdentity.sign(deviceId, signed));
+        }
+        return response.toString();
+    }
+    
+    private static String encodeName(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+    }
+    
+    private byte[] encode(byte frameType, int correlationId, String textPrefix, String plaintext) {
+        if (frameVersion >= WireFrame.VERSION_1) {
+            return WireFrame.encode(frameType, correlationId, cipher().encrypt(plaintext.getBytes(StandardCharsets.UTF_8)));
+        }
+        return (textPrefix + cipher().encryptMessage(plaintext)).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private ParentEncryptionManager cipher() {
+        // Both sides derive the same key from the device ID, so the parent's cached manager fits
+        return ParentEncryptionManager.forDevice(deviceId, cipherMode);
+    }
+    
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return deviceId + "@" + address.getAddress().getHostAddress();
+    }
+}
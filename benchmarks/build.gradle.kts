@@ -0,0 +1,97 @@
+import groovy.json.JsonSlurper
+
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+sourceSets {
+    main {
+        java {
+            // Benchmark the app's protocol code as-is; the classes that need an Android Context stay out
+            srcDir("../app/src/main/java")
+            include("android/**", "io/github/childscreentime/parent/core/**")
+            exclude("**/core/CommandHistory.java", "**/core/DeviceStore.java")
+        }
+    }
+}
+
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+val jmhBaseline = layout.projectDirectory.file("baselines/jmh-baseline.json")
+val jmhTolerance = providers.gradleProperty("jmhTolerance").map { it.toDouble() }.orElse(0.15)
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(jmhResults)
+}
+
+data class JmhScore(val score: Double, val error: Double, val unit: String, val allocBytes: Double?)
+
+fun readJmh(file: File): Map<String, JmhScore> {
+    val scores = LinkedHashMap<String, JmhScore>()
+    @Suppress("UNCHECKED_CAST")
+    for (entry in JsonSlurper().parse(file) as List<Map<String, Any?>>) {
+        val params = (entry["params"] as Map<String, Any?>?).orEmpty().toSortedMap()
+        // Class.method plus parameters, e.g. CipherBenchmark.encryptBytes{mode=GCM, size=64}
+        val key = entry["benchmark"].toString().split('.').takeLast(2).joinToString(".") +
+            if (params.isEmpty()) "" else params.toString()
+        val primary = entry["primaryMetric"] as Map<String, Any?>
+        val secondary = entry["secondaryMetrics"] as Map<String, Map<String, Any?>>?
+        val error = (primary["scoreError"] as? Number)?.toDouble()?.takeIf { !it.isNaN() } ?: 0.0
+        scores[key] = JmhScore((primary["score"] as Number).toDouble(), error, primary["scoreUnit"].toString(),
+            (secondary?.get("gc.alloc.rate.norm")?.get("score") as? Number)?.toDouble())
+    }
+    return scores
+}
+
+tasks.register("jmhCompare") {
+    group = "verification"
+    description = "Fails if the last jmh run is slower or allocates more than baselines/jmh-baseline.json"
+    inputs.file(jmhBaseline)
+    inputs.file(jmhResults)
+    inputs.property("tolerance", jmhTolerance)
+    doLast {
+        val tolerance = jmhTolerance.get()
+        val baseline = readJmh(jmhBaseline.asFile)
+        val current = readJmh(jmhResults.get().asFile)
+        val regressions = ArrayList<String>()
+        for ((key, now) in current) {
+            val before = baseline[key] ?: continue
+            if (now.unit != before.unit) {
+                continue
+            }
+            // Every benchmark reports average time, so higher is worse; the error bars absorb noise
+            if (now.score > before.score * (1 + tolerance) + before.error + now.error) {
+                regressions.add(String.format("%s: %.1f -> %.1f %s", key, before.score, now.score, now.unit))
+            }
+            if (now.allocBytes != null && before.allocBytes != null
+                && now.allocBytes > before.allocBytes * (1 + tolerance) + 16) {
+                regressions.add(String.format("%s: %.0f -> %.0f B/op allocated", key, before.allocBytes, now.allocBytes))
+            }
+        }
+        regressions.forEach { logger.error("Regression: $it") }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("${regressions.size} benchmark regression(s) against the baseline")
+        }
+        logger.lifecycle("${current.size} benchmarks within ${(tolerance * 100).toInt()}% of the baseline")
+    }
+}
+
+tasks.register<Copy>("jmhUpdateBaseline") {
+    group = "verification"
+    description = "Replaces baselines/jmh-baseline.json with the last jmh run"
+    from(jmhResults)
+    into(jmhBaseline.asFile.parentFile)
+    rename { jmhBaseline.asFile.name }
+}
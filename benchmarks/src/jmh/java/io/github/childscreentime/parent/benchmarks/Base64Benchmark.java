@@ -0,0 +1,73 @@
+package io.github.childscreentime.parent.benchmarks;
+
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What the legacy text format pays for Base64 on top of the cipher. The MIME coder is the
+ * one ParentEncryptionManager uses to match android.util.Base64.DEFAULT; the basic coder
+ * shows the cost of the line-wrapping mode. Sizes are IV || ciphertext lengths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base64Benchmark {
+    
+    private static final Base64.Encoder MIME_ENCODER = Base64.getMimeEncoder(76, new byte[] {'\n'});
+    private static final Base64.Decoder MIME_DECODER = Base64.getMimeDecoder();
+    private static final Base64.Encoder BASIC_ENCODER = Base64.getEncoder();
+    private static final Base64.Decoder BASIC_DECODER = Base64.getDecoder();
+    
+    @Param({"44", "92", "284", "1052"})
+    public int size;
+    
+    private byte[] data;
+    private String mimeText;
+    private String basicText;
+    
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        ThreadLocalRandom.current().nextBytes(data);
+        mimeText = MIME_ENCODER.encodeToString(data) + "\n";
+        basicText = BASIC_ENCODER.encodeToString(data);
+    }
+    
+    /**
+     * Exactly what encryptMessage does after encrypting
+     */
+    @Benchmark
+    public String mimeEncode() {
+        return MIME_ENCODER.encodeToString(data) + "\n";
+    }
+    
+    @Benchmark
+    public byte[] mimeDecode() {
+        return MIME_DECODER.decode(mimeText);
+    }
+    
+    @Benchmark
+    public String basicEncode() {
+        return BASIC_ENCODER.encodeToString(data);
+    }
+    
+    @Benchmark
+    public byte[] basicDecode() {
+        return BASIC_DECODER.decode(basicText);
+    }
+}
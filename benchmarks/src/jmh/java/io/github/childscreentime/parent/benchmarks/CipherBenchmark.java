@@ -0,0 +1,124 @@
+package io.github.childscreentime.parent.benchmarks;
+
+import io.github.childscreentime.parent.core.ParentEncryptionManager;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-message encrypt and decrypt cost by cipher mode and plaintext size. Real commands and
+ * replies are 10-60 bytes; the larger sizes show where per-byte cost takes over.
+ * Run with the gc profiler (the Gradle task enables it) for allocated bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CipherBenchmark {
+    
+    @Param({"CBC", "GCM"})
+    public ParentEncryptionManager.CipherMode mode;
+    
+    @Param({"16", "64", "256", "1024"})
+    public int size;
+    
+    private ParentEncryptionManager manager;
+    private byte[] plaintext;
+    private String plaintextMessage;
+    private byte[] ciphertext;
+    private String ciphertextMessage;
+    private byte[] ciphertextMessageBytes;
+    private ByteBuffer plaintextBuffer;
+    private ByteBuffer ciphertextBuffer;
+    private ByteBuffer output;
+    
+    @Setup
+    public void setUp() {
+        manager = ParentEncryptionManager.forDevice("a1b2c3d4e5f60718", mode);
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'x');
+        plaintextMessage = new String(chars);
+        plaintext = plaintextMessage.getBytes(StandardCharsets.UTF_8);
+        ciphertext = manager.encrypt(plaintext);
+        ciphertextMessage = manager.encryptMessage(plaintextMessage);
+        ciphertextMessageBytes = ciphertextMessage.getBytes(StandardCharsets.US_ASCII);
+        plaintextBuffer = ByteBuffer.allocateDirect(size);
+        plaintextBuffer.put(plaintext).flip();
+        ciphertextBuffer = ByteBuffer.allocateDirect(ciphertext.length);
+        ciphertextBuffer.put(ciphertext).flip();
+        output = ByteBuffer.allocateDirect(manager.getEncryptedSize(size));
+    }
+    
+    @Benchmark
+    public byte[] encryptBytes() {
+        return manager.encrypt(plaintext);
+    }
+    
+    @Benchmark
+    public byte[] decryptBytes() {
+        return manager.decrypt(ciphertext, 0, ciphertext.length);
+    }
+    
+    /**
+     * Legacy text path: UTF-8 encode, encrypt, Base64
+     */
+    @Benchmark
+    public String encryptMessage() {
+        return manager.encryptMessage(plaintextMessage);
+    }
+    
+    /**
+     * Legacy text path: Base64 decode, decrypt, UTF-8 decode
+     */
+    @Benchmark
+    public String decryptMessage() {
+        return manager.decryptMessage(ciphertextMessage);
+    }
+    
+    /**
+     * Binary path into the per-thread plaintext scratch; only the resulting String is allocated
+     */
+    @Benchmark
+    public String decryptText() {
+        return manager.decryptText(ciphertext, 0, ciphertext.length);
+    }
+    
+    /**
+     * Legacy text path straight from the datagram bytes, as replies arrive from the transport
+     */
+    @Benchmark
+    public String decryptMessageBytes() {
+        return manager.decryptMessage(ciphertextMessageBytes, 0, ciphertextMessageBytes.length);
+    }
+    
+    /**
+     * ByteBuffer path into a reused output buffer, without a result array per call
+     */
+    @Benchmark
+    public int encryptDirect() {
+        plaintextBuffer.rewind();
+        output.clear();
+        return manager.encrypt(plaintextBuffer, output);
+    }
+    
+    @Benchmark
+    public int decryptDirect() {
+        ciphertextBuffer.rewind();
+        output.clear();
+        return manager.decrypt(ciphertextBuffer, output);
+    }
+}
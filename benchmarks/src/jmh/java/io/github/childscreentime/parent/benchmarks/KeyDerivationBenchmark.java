@@ -0,0 +1,53 @@
+package io.github.childscreentime.parent.benchmarks;
+
+import io.github.childscreentime.parent.core.ParentEncryptionManager;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning a device ID into a key: paid once per device, on the first command after
+ * pairing or after a process restart without DeviceStore's key cache
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyDerivationBenchmark {
+    
+    private static final String DEVICE_ID = "a1b2c3d4e5f60718";
+    
+    /**
+     * Legacy CBC key: one SHA-256 of the device ID
+     */
+    @Benchmark
+    public ParentEncryptionManager deriveCbcKey() {
+        return new ParentEncryptionManager(DEVICE_ID, ParentEncryptionManager.CipherMode.CBC);
+    }
+    
+    /**
+     * GCM key: PBKDF2-HMAC-SHA256 over the device ID
+     */
+    @Benchmark
+    public ParentEncryptionManager deriveGcmKey() {
+        return new ParentEncryptionManager(DEVICE_ID, ParentEncryptionManager.CipherMode.GCM);
+    }
+    
+    /**
+     * Cached lookup every command after the first goes through
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public ParentEncryptionManager cachedManager() {
+        return ParentEncryptionManager.forDevice(DEVICE_ID, ParentEncryptionManager.CipherMode.GCM);
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.childscreentime.parent.benchmarks;
+
+import io.github.childscreentime.parent.core.ChildCommandClient;
+import io.github.childscreentime.parent.core.ChildResponse;
+import io.github.childscreentime.parent.core.DiscoveryResponse;
+import io.github.childscreentime.parent.core.WireFrame;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Everything around the cipher on the per-command path: prefix framing, binary frame
+ * encode/decode and parsing the decrypted reply. splitTimeLeft is the regex split and
+ * Long.parseLong approach ChildResponse replaced, kept as the reference point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseParsingBenchmark {
+    
+    private static final String TIME_LEFT = "TIME_LEFT|42|ACTIVE|120";
+    private static final String TIME_EXTENDED = "TIME_EXTENDED|Extended by 15 minutes";
+    private static final String DISCOVERY = "CST_CHILD_RESPONSE|FRAME=1|CIPHER=GCM|ID=a1b2c3d4e5f60718";
+    private static final String BASE64_CIPHERTEXT = "q83vASNFZ4mrze8BI0VniavN7wEjRWeJq83vASNFZ4mrze8BI0VniavN7wEj\n";
+    
+    private final byte[] payload = new byte[44];
+    private final byte[] frame = WireFrame.encode(WireFrame.TYPE_RESPONSE, 12345, payload);
+    private final byte[] textResponse = (ChildCommandClient.RESPONSE_PREFIX + BASE64_CIPHERTEXT)
+        .getBytes(StandardCharsets.UTF_8);
+    
+    @Benchmark
+    public ChildResponse parseTimeLeft() {
+        return ChildResponse.parse(TIME_LEFT);
+    }
+    
+    @Benchmark
+    public ChildResponse parseTimeExtended() {
+        return ChildResponse.parse(TIME_EXTENDED);
+    }
+    
+    @Benchmark
+    public long splitTimeLeft() {
+        String[] parts = TIME_LEFT.split("\\|");
+        return Long.parseLong(parts[1]) + Long.parseLong(parts[3]) + parts[2].length();
+    }
+    
+    @Benchmark
+    public DiscoveryResponse parseDiscovery() {
+        return DiscoveryResponse.parse(DISCOVERY);
+    }
+    
+    /**
+     * Legacy outbound framing: prefix the Base64 ciphertext and encode to bytes
+     */
+    @Benchmark
+    public byte[] frameTextCommand() {
+        return (ChildCommandClient.COMMAND_PREFIX + BASE64_CIPHERTEXT).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Legacy inbound unframing: decode the datagram and strip the prefix
+     */
+    @Benchmark
+    public String unframeTextResponse() {
+        String response = new String(textResponse, StandardCharsets.UTF_8);
+        return response.startsWith(ChildCommandClient.RESPONSE_PREFIX)
+            ? response.substring(ChildCommandClient.RESPONSE_PREFIX.length())
+            : null;
+    }
+    
+    @Benchmark
+    public byte[] encodeFrame() {
+        return WireFrame.encode(WireFrame.TYPE_COMMAND, 12345, payload);
+    }
+    
+    @Benchmark
+    public WireFrame decodeFrame() throws ProtocolException {
+        return WireFrame.decode(frame, 0, frame.length);
+    }
+}
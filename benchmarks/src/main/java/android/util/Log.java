@@ -0,0 +1,35 @@
+package android.util;
+
+/**
+ * No-op stand-in for android.util.Log so the app's core classes run on a plain JVM.
+ * Behaves like the mockable android.jar with returnDefaultValues: every call returns 0.
+ */
+public final class Log {
+    
+    private Log() {
+    }
+    
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+    
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+    
+    public static int w(String tag, String msg) {
+        return 0;
+    }
+    
+    public static int w(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+    
+    public static int e(String tag, String msg) {
+        return 0;
+    }
+    
+    public static int e(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+}